@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+/**
+ * This object limits the number of concurrent calls to a remote JVM, adapting the limit with
+ * additive increase, multiplicative decrease (AIMD).
+ *
+ * <p>The limit starts at 1 and grows by one for every window of calls that completed within the
+ * latency target while the limit was in use. A call that failed or exceeded the latency target
+ * halves the limit, once per congestion event: calls that were already running when the limit was
+ * decreased don't decrease it again.
+ */
+class AimdConcurrencyLimiter {
+
+    static final double BACKOFF_RATIO = 0.5;
+
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+
+    private double limit = 1;
+    private int inFlight;
+    private long lastDecreaseNanos;
+    private boolean decreased;
+
+    /**
+     * Constructor
+     *
+     * @param maxLimit the maximum number of concurrent calls
+     * @param latencyTargetNanos calls that take longer than this decrease the limit
+     */
+    public AimdConcurrencyLimiter(int maxLimit, long latencyTargetNanos) {
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = latencyTargetNanos;
+    }
+
+    /**
+     * Method to wait until a call is allowed by the limit
+     *
+     * @return the start of the call, to be passed to {@link #release(long, boolean)}
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Method to record the end of a call allowed by {@link #acquire()}
+     *
+     * @param startNanos the value returned by acquire()
+     * @param failed true if the call failed because of the connection or the remote JVM
+     */
+    public void release(long startNanos, boolean failed) {
+        release(startNanos, System.nanoTime(), failed);
+    }
+
+    synchronized void release(long startNanos, long endNanos, boolean failed) {
+        boolean saturated = inFlight >= (int) limit;
+        inFlight--;
+
+        if (failed || endNanos - startNanos > latencyTargetNanos) {
+            // Calls started before the last decrease observed the same congestion
+            if (!decreased || startNanos - lastDecreaseNanos > 0) {
+                limit = Math.max(1, limit * BACKOFF_RATIO);
+                lastDecreaseNanos = endNanos;
+                decreased = true;
+            }
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Method to get the current limit
+     *
+     * @return the number of concurrent calls currently allowed
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.ObjectName;
+
+/**
+ * This object keeps the samples of a scrape per mBean, so a scrape that timed out can be completed
+ * with the samples of the last good scrape for the mBeans it didn't reach.
+ */
+class BeanSamples {
+
+    private final Map<ObjectName, List<MatchedRule>> samples = new LinkedHashMap<>();
+    private int staleSampleCount;
+
+    /**
+     * Method to add the samples of an mBean
+     *
+     * @param mBeanName the mBean name
+     * @param matchedRules the samples of the mBean, copied
+     */
+    public synchronized void add(ObjectName mBeanName, List<MatchedRule> matchedRules) {
+        samples.put(mBeanName, matchedRules.isEmpty() ? Collections.emptyList() : new ArrayList<>(matchedRules));
+    }
+
+    /**
+     * Method to complete these samples with the samples of the mBeans they don't have
+     *
+     * @param lastGood the samples of the last good scrape, or null if there is none
+     * @return new BeanSamples with the samples of both, counting the ones taken from lastGood as
+     *     stale
+     */
+    public BeanSamples complete(BeanSamples lastGood) {
+        BeanSamples completed = new BeanSamples();
+        synchronized (this) {
+            completed.samples.putAll(samples);
+        }
+        if (lastGood != null) {
+            synchronized (lastGood) {
+                for (Map.Entry<ObjectName, List<MatchedRule>> entry : lastGood.samples.entrySet()) {
+                    if (!completed.samples.containsKey(entry.getKey())) {
+                        completed.samples.put(entry.getKey(), entry.getValue());
+                        completed.staleSampleCount += entry.getValue().size();
+                    }
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Method to get the samples of all mBeans
+     *
+     * @return the samples
+     */
+    public synchronized List<MatchedRule> getMatchedRules() {
+        List<MatchedRule> matchedRules = new ArrayList<>();
+        for (List<MatchedRule> beanMatchedRules : samples.values()) {
+            matchedRules.addAll(beanMatchedRules);
+        }
+        return matchedRules;
+    }
+
+    /**
+     * Method to get the number of samples taken from the last good scrape by {@link
+     * #complete(BeanSamples)}
+     *
+     * @return the number of stale samples
+     */
+    public synchronized int getStaleSampleCount() {
+        return staleSampleCount;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This object partitions the rules by the domain they can match, so the attributes of a bean are
+ * only tested against the rules for its domain and the rules that can match any domain.
+ *
+ * <p>Most rules start with a literal domain followed by the key properties, such as {@code
+ * kafka.server<type=(.+)><>Count}. Such a rule can only match a match name that contains its
+ * domain followed by {@code <}. As patterns are not anchored, that is the case for the bean's own
+ * domain if it ends with the rule's domain, and for any other {@code <} in the bean name preceded
+ * by it, for example in a key property value. Both are checked when the candidates of a bean are
+ * computed. Rules without such a literal domain are candidates for every bean.
+ *
+ * <p>The candidates are returned in configuration order, so the first matching rule wins as
+ * before. They are only valid if the attribute part of the match name doesn't contain {@code <},
+ * see {@link #isApplicable(String, Object)}.
+ *
+ * <p>Thread-safety: This class is immutable once created.
+ */
+class DomainRuleIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DomainRuleIndex.class);
+
+    // Rule patterns are compiled as "^.*(?:" + pattern + ").*$"
+    private static final String RULE_PATTERN_PREFIX = "^.*(?:";
+    private static final String RULE_PATTERN_SUFFIX = ").*$";
+
+    private final BitSet wildcardRules;
+    private final String[] domains;
+    private final BitSet[] rulesPerDomain;
+
+    private DomainRuleIndex(BitSet wildcardRules, String[] domains, BitSet[] rulesPerDomain) {
+        this.wildcardRules = wildcardRules;
+        this.domains = domains;
+        this.rulesPerDomain = rulesPerDomain;
+    }
+
+    /**
+     * Method to create a DomainRuleIndex for a list of rules
+     *
+     * @param rules rules
+     * @return a DomainRuleIndex, or null if no rule has a literal domain
+     */
+    public static DomainRuleIndex create(List<JmxCollector.Rule> rules) {
+        BitSet wildcardRules = new BitSet(rules.size());
+        Map<String, BitSet> rulesByDomain = new LinkedHashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            JmxCollector.Rule rule = rules.get(i);
+            String domain = null;
+            if (rule.pattern != null) {
+                String source = rule.pattern.pattern();
+                domain = getDomain(
+                        source.substring(RULE_PATTERN_PREFIX.length(), source.length() - RULE_PATTERN_SUFFIX.length()));
+            }
+            if (domain == null) {
+                LOGGER.trace("Rule pattern %s has no literal domain, evaluating it for every domain", rule.pattern);
+                wildcardRules.set(i);
+            } else {
+                rulesByDomain.computeIfAbsent(domain, d -> new BitSet()).set(i);
+            }
+        }
+
+        if (rulesByDomain.isEmpty()) {
+            return null;
+        }
+
+        return new DomainRuleIndex(
+                wildcardRules,
+                rulesByDomain.keySet().toArray(new String[0]),
+                rulesByDomain.values().toArray(new BitSet[0]));
+    }
+
+    /**
+     * Method to get the literal text a pattern requires in front of its first {@code <}
+     *
+     * @param pattern the pattern
+     * @return the literal domain, or null if the pattern doesn't have one
+     */
+    static String getDomain(String pattern) {
+        List<Character> atoms = RuleBasedAttributeFilter.getTopLevelAtoms(pattern);
+        if (atoms == null) {
+            return null;
+        }
+
+        // The domain is the literal text in front of the first <, the key properties follow it
+        int angleBracket = atoms.indexOf('<');
+        if (angleBracket < 0) {
+            return null;
+        }
+        int start = angleBracket;
+        while (start > 0 && atoms.get(start - 1) != null) {
+            start--;
+        }
+        // The <cache> value placeholder is preceded by a space
+        if (start == angleBracket || atoms.get(angleBracket - 1) == ' ') {
+            return null;
+        }
+        StringBuilder domain = new StringBuilder(angleBracket - start);
+        for (int i = start; i < angleBracket; i++) {
+            domain.append(atoms.get(i).charValue());
+        }
+        return domain.toString();
+    }
+
+    /**
+     * Method to determine whether the candidates of a bean apply to one of its attributes
+     *
+     * @param attrName the attribute name
+     * @param value the attribute value
+     * @return false if the attribute part of the match name contains {@code <}, so rules of other
+     *     domains can match it
+     */
+    public static boolean isApplicable(String attrName, Object value) {
+        if (attrName.indexOf('<') >= 0) {
+            return false;
+        }
+        return value instanceof Number
+                || value instanceof Boolean
+                || String.valueOf(value).indexOf('<') < 0;
+    }
+
+    /**
+     * Method to get the rules that can match the attributes of a bean
+     *
+     * @param beanName the bean name, the part of the match name before the attribute name
+     * @return the indexes of the rules that can match, in configuration order
+     */
+    public int[] getCandidates(String beanName) {
+        List<Integer> angleBrackets = new ArrayList<>();
+        for (int i = beanName.indexOf('<'); i >= 0; i = beanName.indexOf('<', i + 1)) {
+            angleBrackets.add(i);
+        }
+
+        BitSet candidates = (BitSet) wildcardRules.clone();
+        for (int i = 0; i < domains.length; i++) {
+            String domain = domains[i];
+            for (int angleBracket : angleBrackets) {
+                if (angleBracket >= domain.length()
+                        && beanName.regionMatches(angleBracket - domain.length(), domain, 0, domain.length())) {
+                    candidates.or(rulesPerDomain[i]);
+                    break;
+                }
+            }
+        }
+        return candidates.stream().toArray();
+    }
+}
@@ -23,7 +23,9 @@ import io.prometheus.jmx.logger.Logger;
 import io.prometheus.jmx.logger.LoggerFactory;
 import io.prometheus.jmx.variable.VariableResolver;
 import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.CounterWithCallback;
 import io.prometheus.metrics.core.metrics.Gauge;
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
 import io.prometheus.metrics.model.registry.MultiCollector;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
@@ -34,23 +36,36 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -107,6 +122,7 @@ public class JmxCollector implements MultiCollector {
      */
     static class Rule {
 
+        String id;
         Pattern pattern;
         String name;
         String value;
@@ -117,6 +133,13 @@ public class JmxCollector implements MultiCollector {
         String type = "UNKNOWN";
         ArrayList<String> labelNames;
         ArrayList<String> labelValues;
+
+        // The templates above, compiled for the pattern
+        ReplacementTemplate nameTemplate;
+        ReplacementTemplate valueTemplate;
+        ReplacementTemplate helpTemplate;
+        ReplacementTemplate[] labelNameTemplates;
+        ReplacementTemplate[] labelValueTemplates;
     }
 
     static class SslProperties {
@@ -142,6 +165,29 @@ public class JmxCollector implements MultiCollector {
         public Optional<KeyStoreProperties> getTrustStoreProperties() {
             return Optional.ofNullable(trustStoreProperties);
         }
+
+        // Part of the settings of the remote connection, which is kept if they are equal after a
+        // reload
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SslProperties)) {
+                return false;
+            }
+            SslProperties other = (SslProperties) o;
+            return enabled == other.enabled
+                    && Objects.equals(keyStoreProperties, other.keyStoreProperties)
+                    && Objects.equals(trustStoreProperties, other.trustStoreProperties)
+                    && protocols.equals(other.protocols)
+                    && ciphers.equals(other.ciphers);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(enabled, keyStoreProperties, trustStoreProperties, protocols, ciphers);
+        }
     }
 
     static class KeyStoreProperties {
@@ -149,6 +195,25 @@ public class JmxCollector implements MultiCollector {
         Path path;
         String type;
         char[] password;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof KeyStoreProperties)) {
+                return false;
+            }
+            KeyStoreProperties other = (KeyStoreProperties) o;
+            return Objects.equals(path, other.path)
+                    && Objects.equals(type, other.type)
+                    && Arrays.equals(password, other.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hash(path, type) + Arrays.hashCode(password);
+        }
     }
 
     /**
@@ -208,10 +273,30 @@ public class JmxCollector implements MultiCollector {
         long lastUpdate = 0L;
         List<MetricCustomizer> metricCustomizers = new ArrayList<>();
         MatchedRulesCache rulesCache;
+        int ruleCacheMaxSize;
+        MatchedRulesCacheFile rulesCacheFile;
+        int ruleCachePersistIntervalSeconds = 300;
+        int autoCachedRules;
+        RuleStatistics ruleStatistics;
         Integer scrapeTimeoutSeconds = null;
+        boolean scrapeTimeoutPartialResults;
+        volatile BeanSamples lastGoodBeanSamples;
+        int scrapeParallelism = 1;
+        int remoteConnectionPoolSize = 1;
+        int remoteConnectionLatencyTargetMilliseconds = 1000;
+        Integer backgroundScrapeIntervalSeconds = null;
+        Integer slowMBeanBudgetMilliseconds = null;
+        int slowMBeanRefreshSeconds = 60;
+        int slowMBeanTopN = 0;
+        MBeanRefreshTracker mBeanRefreshTracker;
+        RuleBasedAttributeFilter ruleBasedAttributeFilter;
+        RulePrefilter rulePrefilter;
+        DomainRuleIndex domainRuleIndex;
+        NegativeMatchFilter negativeMatchFilter;
+        boolean reuseConnection = true;
     }
 
-    private Config config;
+    private volatile Config config;
     private File configFile;
     private final long createTimeMillis = System.currentTimeMillis();
 
@@ -221,6 +306,9 @@ public class JmxCollector implements MultiCollector {
     private Gauge jmxScrapeError;
     private Gauge jmxScrapeCachedBeans;
     private Counter scrapeTimeoutCounter;
+    private Counter scrapeAbandonedBeansCounter;
+    private Gauge jmxScrapePartial;
+    private Gauge jmxScrapeStaleSeries;
 
     private static final ExecutorService SCRAPE_EXECUTOR;
 
@@ -233,10 +321,50 @@ public class JmxCollector implements MultiCollector {
         Runtime.getRuntime().addShutdownHook(new Thread(SCRAPE_EXECUTOR::shutdownNow));
     }
 
+    // Writes the rules cache files, so writing a large cache doesn't delay the next scrape
+    private static final ExecutorService RULES_CACHE_PERSIST_EXECUTOR;
+
+    static {
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "jmx-rules-cache-persister");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        RULES_CACHE_PERSIST_EXECUTOR = executor;
+    }
+
+    private final ExecutorService scrapeExecutor;
+    private ExecutorService beanScrapeExecutor;
+    private int beanScrapeExecutorParallelism;
+    private JmxConnectionPool jmxConnectionPool;
+    private int jmxConnectionPoolSize;
+    private int jmxConnectionPoolLatencyTargetMilliseconds;
+
+    private ScheduledExecutorService backgroundScrapeExecutor;
+    private ScheduledFuture<?> backgroundScrape;
+    private int backgroundScrapeIntervalSeconds;
+    private final AtomicReference<BackgroundSnapshot> backgroundSnapshot = new AtomicReference<>(null);
+
     private final AtomicReference<Future<MetricSnapshots>> inFlightScrape = new AtomicReference<>(null);
+    private final AtomicReference<RunningScrape> runningScrape = new AtomicReference<>(null);
     private volatile MetricSnapshots lastGoodSnapshots = MetricSnapshots.of();
 
+    private final AtomicLong rulesCachePersistNanos = new AtomicLong(System.nanoTime());
+    private Thread rulesCacheShutdownHook;
+
+    // Keeps the metric family templates from one scrape to the next
+    private final MatchedRuleToMetricSnapshotsConverter metricSnapshotsConverter =
+            new MatchedRuleToMetricSnapshotsConverter();
+
     private final JmxMBeanPropertyCache jmxMBeanPropertyCache = new JmxMBeanPropertyCache();
+    private final MBeanInfoCache mBeanInfoCache = new MBeanInfoCache();
+    // The match name parts of the attributes of an mBean that aren't flattened, kept between
+    // scrapes
+    private final Map<ObjectName, Receiver.BeanContext> beanContexts = new ConcurrentHashMap<>();
+    private final MBeanNameIndex mBeanNameIndex = new MBeanNameIndex();
+    private final JmxConnectionManager jmxConnectionManager = new JmxConnectionManager();
 
     /**
      * Constructor
@@ -261,6 +389,7 @@ public class JmxCollector implements MultiCollector {
         Objects.requireNonNull(in, "configuration file must not be null");
         configFile = in;
         this.mode = mode;
+        this.scrapeExecutor = SCRAPE_EXECUTOR;
         try (FileReader fr = new FileReader(in)) {
             config = loadConfig(new Yaml(new SafeConstructor(new LoaderOptions())).load(fr));
         }
@@ -278,6 +407,7 @@ public class JmxCollector implements MultiCollector {
         Objects.requireNonNull(yamlConfig, "YAML configuration must not be null");
         config = loadConfig(new Yaml(new SafeConstructor(new LoaderOptions())).load(yamlConfig));
         mode = null;
+        scrapeExecutor = SCRAPE_EXECUTOR;
     }
 
     /**
@@ -290,6 +420,25 @@ public class JmxCollector implements MultiCollector {
         Objects.requireNonNull(inputStream, "input stream must not be null");
         config = loadConfig(new Yaml(new SafeConstructor(new LoaderOptions())).load(inputStream));
         mode = null;
+        scrapeExecutor = SCRAPE_EXECUTOR;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param yamlConfig the parsed YAML configuration, must not be null
+     * @param mode the collector mode, may be null
+     * @param scrapeExecutor the single-threaded executor scrapes run on, instead of the one shared
+     *     by all collectors
+     * @throws MalformedObjectNameException if the ObjectName is invalid
+     */
+    JmxCollector(Map<String, Object> yamlConfig, Mode mode, ExecutorService scrapeExecutor)
+            throws MalformedObjectNameException {
+        Objects.requireNonNull(yamlConfig, "YAML configuration must not be null");
+        config = loadConfig(yamlConfig);
+        this.mode = mode;
+        this.scrapeExecutor = scrapeExecutor;
+        exitOnConfigError();
     }
 
     /**
@@ -340,6 +489,196 @@ public class JmxCollector implements MultiCollector {
                 .help("Total number of scrape timeouts.")
                 .register(prometheusRegistry);
 
+        scrapeAbandonedBeansCounter = Counter.builder()
+                .name("jmx_scrape_abandoned_beans_total")
+                .help("Total number of beans not scraped because a timed out scrape was cancelled.")
+                .register(prometheusRegistry);
+
+        jmxScrapePartial = Gauge.builder()
+                .name("jmx_scrape_partial")
+                .help("Non-zero if this scrape timed out and was completed with the last good values.")
+                .register(prometheusRegistry);
+
+        jmxScrapeStaleSeries = Gauge.builder()
+                .name("jmx_scrape_stale_series")
+                .help("Number of series of this scrape served from the last good scrape.")
+                .register(prometheusRegistry);
+
+        GaugeWithCallback.builder()
+                .name("jmx_connection_connect_duration_seconds")
+                .help("Time the last remote JMX connection attempt took, in seconds.")
+                .unit(Unit.SECONDS)
+                .callback(callback -> {
+                    double seconds = jmxConnectionManager.getLastConnectDurationSeconds();
+                    if (!Double.isNaN(seconds)) {
+                        callback.call(seconds);
+                    }
+                })
+                .register(prometheusRegistry);
+
+        GaugeWithCallback.builder()
+                .name("jmx_scrape_snapshot_age_seconds")
+                .help("Age of the metrics served from the background scrape snapshot, in seconds.")
+                .unit(Unit.SECONDS)
+                .callback(callback -> {
+                    BackgroundSnapshot snapshot = backgroundSnapshot.get();
+                    if (snapshot != null) {
+                        callback.call((System.nanoTime() - snapshot.nanoTime) / 1.0E9);
+                    }
+                })
+                .register(prometheusRegistry);
+
+        GaugeWithCallback.builder()
+                .name("jmx_scrape_slowest_mbean_duration_seconds")
+                .help("Moving average of the time the slowest MBeans take to scrape, in seconds.")
+                .unit(Unit.SECONDS)
+                .labelNames("object_name")
+                .callback(callback -> {
+                    Config current = config;
+                    if (current.mBeanRefreshTracker != null) {
+                        for (Map.Entry<ObjectName, Double> entry :
+                                current.mBeanRefreshTracker.getSlowest(current.slowMBeanTopN)) {
+                            callback.call(entry.getValue(), entry.getKey().toString());
+                        }
+                    }
+                })
+                .register(prometheusRegistry);
+
+        GaugeWithCallback.builder()
+                .name("jmx_scrape_slow_mbeans")
+                .help("Number of MBeans over the slowMBeanBudgetMilliseconds budget, served their last values.")
+                .callback(callback -> {
+                    Config current = config;
+                    if (current.mBeanRefreshTracker != null) {
+                        callback.call(current.mBeanRefreshTracker.getSlowCount());
+                    }
+                })
+                .register(prometheusRegistry);
+
+        GaugeWithCallback.builder()
+                .name("jmx_connection_pool_concurrency_limit")
+                .help("Number of concurrent calls currently allowed over the remote JMX connection pool.")
+                .callback(callback -> {
+                    JmxConnectionPool pool = jmxConnectionPool;
+                    if (pool != null) {
+                        callback.call(pool.getConcurrencyLimit());
+                    }
+                })
+                .register(prometheusRegistry);
+
+        CounterWithCallback.builder()
+                .name("jmx_rule_evaluations_total")
+                .help("Number of times the pattern of a rule was evaluated, if ruleMetrics is enabled.")
+                .labelNames("rule")
+                .callback(callback -> {
+                    RuleStatistics ruleStatistics = config.ruleStatistics;
+                    if (ruleStatistics != null) {
+                        for (int i = 0; i < ruleStatistics.size(); i++) {
+                            callback.call(ruleStatistics.getEvaluations(i), ruleStatistics.getRuleLabel(i));
+                        }
+                    }
+                })
+                .register(prometheusRegistry);
+
+        CounterWithCallback.builder()
+                .name("jmx_rule_matches_total")
+                .help("Number of times the pattern of a rule matched, if ruleMetrics is enabled.")
+                .labelNames("rule")
+                .callback(callback -> {
+                    RuleStatistics ruleStatistics = config.ruleStatistics;
+                    if (ruleStatistics != null) {
+                        for (int i = 0; i < ruleStatistics.size(); i++) {
+                            callback.call(ruleStatistics.getMatches(i), ruleStatistics.getRuleLabel(i));
+                        }
+                    }
+                })
+                .register(prometheusRegistry);
+
+        CounterWithCallback.builder()
+                .name("jmx_rule_cached_matches_total")
+                .help("Number of times the cached match of a rule was used, if ruleMetrics is enabled.")
+                .labelNames("rule")
+                .callback(callback -> {
+                    RuleStatistics ruleStatistics = config.ruleStatistics;
+                    if (ruleStatistics != null) {
+                        for (int i = 0; i < ruleStatistics.size(); i++) {
+                            callback.call(ruleStatistics.getCacheHits(i), ruleStatistics.getRuleLabel(i));
+                        }
+                    }
+                })
+                .register(prometheusRegistry);
+
+        CounterWithCallback.builder()
+                .name("jmx_rule_matching_seconds_total")
+                .help("Time spent evaluating the pattern of a rule, in seconds, if ruleMetrics is enabled.")
+                .unit(Unit.SECONDS)
+                .labelNames("rule")
+                .callback(callback -> {
+                    RuleStatistics ruleStatistics = config.ruleStatistics;
+                    if (ruleStatistics != null) {
+                        for (int i = 0; i < ruleStatistics.size(); i++) {
+                            callback.call(ruleStatistics.getMatchingSeconds(i), ruleStatistics.getRuleLabel(i));
+                        }
+                    }
+                })
+                .register(prometheusRegistry);
+
+        CounterWithCallback.builder()
+                .name("jmx_rule_cache_hits_total")
+                .help("Number of rules cache lookups that found a cached match or mismatch.")
+                .callback(callback -> {
+                    MatchedRulesCache rulesCache = config.rulesCache;
+                    if (rulesCache != null) {
+                        callback.call(rulesCache.getHits());
+                    }
+                })
+                .register(prometheusRegistry);
+
+        CounterWithCallback.builder()
+                .name("jmx_rule_cache_misses_total")
+                .help("Number of rules cache lookups that found nothing cached.")
+                .callback(callback -> {
+                    MatchedRulesCache rulesCache = config.rulesCache;
+                    if (rulesCache != null) {
+                        callback.call(rulesCache.getMisses());
+                    }
+                })
+                .register(prometheusRegistry);
+
+        CounterWithCallback.builder()
+                .name("jmx_rule_cache_evictions_total")
+                .help("Number of rules cache entries evicted, because they were stale or to make room.")
+                .callback(callback -> {
+                    MatchedRulesCache rulesCache = config.rulesCache;
+                    if (rulesCache != null) {
+                        callback.call(rulesCache.getEvictions());
+                    }
+                })
+                .register(prometheusRegistry);
+
+        GaugeWithCallback.builder()
+                .name("jmx_rule_cache_size_bytes")
+                .help("Estimated heap size of the rules cache entries, in bytes.")
+                .unit(Unit.BYTES)
+                .callback(callback -> {
+                    MatchedRulesCache rulesCache = config.rulesCache;
+                    if (rulesCache != null) {
+                        callback.call(rulesCache.getEstimatedBytes());
+                    }
+                })
+                .register(prometheusRegistry);
+
+        CounterWithCallback.builder()
+                .name("jmx_connection_reconnects_total")
+                .help("Number of times a broken remote JMX connection was replaced.")
+                .callback(callback -> {
+                    // Only exposed once a remote connection was attempted
+                    if (!Double.isNaN(jmxConnectionManager.getLastConnectDurationSeconds())) {
+                        callback.call(jmxConnectionManager.getReconnects());
+                    }
+                })
+                .register(prometheusRegistry);
+
         prometheusRegistry.register(this);
 
         return this;
@@ -414,6 +753,165 @@ public class JmxCollector implements MultiCollector {
             }
         }
 
+        if (yamlConfig.containsKey("scrapeTimeoutPartialResults")) {
+            cfg.scrapeTimeoutPartialResults = (Boolean) yamlConfig.get("scrapeTimeoutPartialResults");
+        }
+
+        if (yamlConfig.containsKey("ruleCacheMaxSize")) {
+            try {
+                cfg.ruleCacheMaxSize = (Integer) yamlConfig.get("ruleCacheMaxSize");
+                if (cfg.ruleCacheMaxSize < 1) {
+                    throw new IllegalArgumentException("ruleCacheMaxSize must be at least 1");
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for ruleCacheMaxSize", e);
+            }
+        }
+
+        if (yamlConfig.containsKey("ruleCachePersistIntervalSeconds")) {
+            try {
+                cfg.ruleCachePersistIntervalSeconds = (Integer) yamlConfig.get("ruleCachePersistIntervalSeconds");
+                if (cfg.ruleCachePersistIntervalSeconds < 1) {
+                    throw new IllegalArgumentException("ruleCachePersistIntervalSeconds must be at least 1");
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for ruleCachePersistIntervalSeconds", e);
+            }
+        }
+
+        if (yamlConfig.containsKey("scrapeParallelism")) {
+            try {
+                cfg.scrapeParallelism = (Integer) yamlConfig.get("scrapeParallelism");
+                if (cfg.scrapeParallelism < 1) {
+                    throw new IllegalArgumentException("scrapeParallelism must be at least 1");
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for scrapeParallelism", e);
+            }
+        }
+
+        if (yamlConfig.containsKey("remoteConnectionPoolSize")) {
+            try {
+                cfg.remoteConnectionPoolSize = (Integer) yamlConfig.get("remoteConnectionPoolSize");
+                if (cfg.remoteConnectionPoolSize < 1) {
+                    throw new IllegalArgumentException("remoteConnectionPoolSize must be at least 1");
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for remoteConnectionPoolSize", e);
+            }
+        }
+
+        if (yamlConfig.containsKey("remoteConnectionLatencyTargetMilliseconds")) {
+            try {
+                cfg.remoteConnectionLatencyTargetMilliseconds =
+                        (Integer) yamlConfig.get("remoteConnectionLatencyTargetMilliseconds");
+                if (cfg.remoteConnectionLatencyTargetMilliseconds < 1) {
+                    throw new IllegalArgumentException("remoteConnectionLatencyTargetMilliseconds must be at least 1");
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException(
+                        "Invalid number provided for remoteConnectionLatencyTargetMilliseconds", e);
+            }
+        }
+
+        if (yamlConfig.containsKey("backgroundScrapeIntervalSeconds")) {
+            try {
+                cfg.backgroundScrapeIntervalSeconds = (Integer) yamlConfig.get("backgroundScrapeIntervalSeconds");
+                if (cfg.backgroundScrapeIntervalSeconds < 1) {
+                    throw new IllegalArgumentException("backgroundScrapeIntervalSeconds must be at least 1");
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for backgroundScrapeIntervalSeconds", e);
+            }
+        }
+
+        if (yamlConfig.containsKey("slowMBeanBudgetMilliseconds")) {
+            try {
+                cfg.slowMBeanBudgetMilliseconds = (Integer) yamlConfig.get("slowMBeanBudgetMilliseconds");
+                if (cfg.slowMBeanBudgetMilliseconds < 1) {
+                    throw new IllegalArgumentException("slowMBeanBudgetMilliseconds must be at least 1");
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for slowMBeanBudgetMilliseconds", e);
+            }
+        }
+
+        if (yamlConfig.containsKey("negativeMatchTtlSeconds")) {
+            int negativeMatchTtlSeconds;
+            try {
+                negativeMatchTtlSeconds = (Integer) yamlConfig.get("negativeMatchTtlSeconds");
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for negativeMatchTtlSeconds", e);
+            }
+            if (negativeMatchTtlSeconds < 1) {
+                throw new IllegalArgumentException("negativeMatchTtlSeconds must be at least 1");
+            }
+            cfg.negativeMatchFilter = new NegativeMatchFilter(TimeUnit.SECONDS.toNanos(negativeMatchTtlSeconds));
+        }
+
+        if (yamlConfig.containsKey("slowMBeanRefreshSeconds")) {
+            try {
+                cfg.slowMBeanRefreshSeconds = (Integer) yamlConfig.get("slowMBeanRefreshSeconds");
+                if (cfg.slowMBeanRefreshSeconds < 1) {
+                    throw new IllegalArgumentException("slowMBeanRefreshSeconds must be at least 1");
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for slowMBeanRefreshSeconds", e);
+            }
+        }
+
+        if (yamlConfig.containsKey("slowMBeanTopN")) {
+            try {
+                cfg.slowMBeanTopN = (Integer) yamlConfig.get("slowMBeanTopN");
+                if (cfg.slowMBeanTopN < 0) {
+                    throw new IllegalArgumentException("slowMBeanTopN must be non-negative");
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for slowMBeanTopN", e);
+            }
+        }
+
+        Map<ObjectName, Long> refreshNanosPerPattern = new LinkedHashMap<>();
+        if (yamlConfig.containsKey("refreshIntervals")) {
+            List<Map<String, Object>> refreshIntervalsYaml =
+                    (List<Map<String, Object>>) yamlConfig.get("refreshIntervals");
+            if (refreshIntervalsYaml == null) {
+                throw new IllegalArgumentException("Must provide objectName, if refreshIntervals is given");
+            }
+            for (Map<String, Object> refreshIntervalYaml : refreshIntervalsYaml) {
+                Object objectName = refreshIntervalYaml.get("objectName");
+                if (objectName == null) {
+                    throw new IllegalArgumentException(
+                            "Must provide objectName, if refreshIntervals is given: " + refreshIntervalsYaml);
+                }
+                int refreshSeconds;
+                try {
+                    Integer value = (Integer) refreshIntervalYaml.get("refreshSeconds");
+                    if (value == null) {
+                        throw new IllegalArgumentException(
+                                "Must provide refreshSeconds, if refreshIntervals is given: " + refreshIntervalsYaml);
+                    }
+                    refreshSeconds = value;
+                } catch (ClassCastException e) {
+                    throw new IllegalArgumentException("Invalid number provided for refreshSeconds", e);
+                }
+                if (refreshSeconds < 1) {
+                    throw new IllegalArgumentException("refreshSeconds must be at least 1");
+                }
+                refreshNanosPerPattern.putIfAbsent(
+                        new ObjectName((String) objectName), TimeUnit.SECONDS.toNanos(refreshSeconds));
+            }
+        }
+
+        if (cfg.slowMBeanBudgetMilliseconds != null || cfg.slowMBeanTopN > 0 || !refreshNanosPerPattern.isEmpty()) {
+            cfg.mBeanRefreshTracker = new MBeanRefreshTracker(
+                    cfg.slowMBeanBudgetMilliseconds != null
+                            ? TimeUnit.MILLISECONDS.toNanos(cfg.slowMBeanBudgetMilliseconds)
+                            : Long.MAX_VALUE,
+                    TimeUnit.SECONDS.toNanos(cfg.slowMBeanRefreshSeconds),
+                    refreshNanosPerPattern);
+        }
+
         if (yamlConfig.containsKey("hostPort")) {
             if (yamlConfig.containsKey("jmxUrl")) {
                 throw new IllegalArgumentException("At most one of hostPort and jmxUrl must be provided");
@@ -423,6 +921,10 @@ public class JmxCollector implements MultiCollector {
             cfg.jmxUrl = (String) yamlConfig.get("jmxUrl");
         }
 
+        if (yamlConfig.containsKey("reuseConnection")) {
+            cfg.reuseConnection = (Boolean) yamlConfig.get("reuseConnection");
+        }
+
         if (yamlConfig.containsKey("username")) {
             String username = (String) yamlConfig.get("username");
             cfg.username = VariableResolver.resolveVariable(username);
@@ -585,9 +1087,16 @@ public class JmxCollector implements MultiCollector {
 
         if (yamlConfig.containsKey("rules")) {
             List<Map<String, Object>> configRules = (List<Map<String, Object>>) yamlConfig.get("rules");
+            Set<String> ruleIds = new HashSet<>();
             for (Map<String, Object> yamlRule : configRules) {
                 Rule rule = new Rule();
                 cfg.rules.add(rule);
+                if (yamlRule.containsKey("id")) {
+                    rule.id = String.valueOf(yamlRule.get("id"));
+                    if (!ruleIds.add(rule.id)) {
+                        throw new IllegalArgumentException("Duplicate rule id: " + rule.id);
+                    }
+                }
                 if (yamlRule.containsKey("pattern")) {
                     rule.pattern = Pattern.compile("^.*(?:" + yamlRule.get("pattern") + ").*$");
                 }
@@ -639,6 +1148,10 @@ public class JmxCollector implements MultiCollector {
                 if (rule.name != null && rule.pattern == null) {
                     throw new IllegalArgumentException("Must provide pattern, if name is given: " + yamlRule);
                 }
+
+                if (rule.pattern != null) {
+                    compileTemplates(rule);
+                }
             }
         } else {
             // Default to a single default rule.
@@ -652,13 +1165,180 @@ public class JmxCollector implements MultiCollector {
 
         // Avoid all costs related to maintaining the cache if there are no cached rules
         if (hasCachedRules) {
-            cfg.rulesCache = new MatchedRulesCache();
+            cfg.rulesCache = new MatchedRulesCache(cfg.ruleCacheMaxSize);
+        } else {
+            // Without explicitly cached rules, the leading value independent rules are cached for
+            // numeric and boolean values. Only leading rules, as a value dependent rule before a
+            // cached rule could match another value of the same attribute.
+            while (cfg.autoCachedRules < cfg.rules.size()
+                    && RuleValueDependency.isValueIndependent(cfg.rules.get(cfg.autoCachedRules))) {
+                cfg.autoCachedRules++;
+            }
+            if (cfg.autoCachedRules > 0) {
+                cfg.rulesCache = new MatchedRulesCache(cfg.ruleCacheMaxSize);
+            }
+        }
+
+        if (cfg.rulesCache != null && yamlConfig.containsKey("ruleCacheFile")) {
+            // The cached matches depend on the rules, and on the settings that change their names
+            // and types
+            String rulesHashInput = yamlConfig.get("rules") + "\n" + cfg.lowercaseOutputName + "\n"
+                    + cfg.lowercaseOutputLabelNames + "\n" + cfg.inferCounterTypeFromName;
+            cfg.rulesCacheFile = new MatchedRulesCacheFile(
+                    Paths.get((String) yamlConfig.get("ruleCacheFile")), MatchedRulesCacheFile.hash(rulesHashInput));
+            cfg.rulesCacheFile.read(cfg.rulesCache);
+            addRulesCacheShutdownHook();
         }
+
         cfg.objectNameAttributeFilter = ObjectNameAttributeFilter.create(yamlConfig);
+        cfg.ruleBasedAttributeFilter = RuleBasedAttributeFilter.create(cfg.rules);
+        cfg.rulePrefilter = RulePrefilter.create(cfg.rules);
+        cfg.domainRuleIndex = DomainRuleIndex.create(cfg.rules);
+
+        if (yamlConfig.containsKey("ruleMetrics") && (Boolean) yamlConfig.get("ruleMetrics")) {
+            cfg.ruleStatistics = new RuleStatistics(cfg.rules);
+        }
 
         return cfg;
     }
 
+    private static void compileTemplates(Rule rule) {
+        if (rule.name != null) {
+            rule.nameTemplate = ReplacementTemplate.compile(rule.name, rule.pattern);
+        }
+        if (rule.value != null) {
+            rule.valueTemplate = ReplacementTemplate.compile(rule.value, rule.pattern);
+        }
+        if (rule.help != null) {
+            rule.helpTemplate = ReplacementTemplate.compile(rule.help, rule.pattern);
+        }
+        if (rule.labelNames != null) {
+            rule.labelNameTemplates = new ReplacementTemplate[rule.labelNames.size()];
+            rule.labelValueTemplates = new ReplacementTemplate[rule.labelNames.size()];
+            for (int i = 0; i < rule.labelNames.size(); i++) {
+                rule.labelNameTemplates[i] = ReplacementTemplate.compile(rule.labelNames.get(i), rule.pattern);
+                rule.labelValueTemplates[i] = ReplacementTemplate.compile(rule.labelValues.get(i), rule.pattern);
+            }
+        }
+    }
+
+    // Persist the rules cache when the JVM exits, as the collector of an agent is never closed
+    private synchronized void addRulesCacheShutdownHook() {
+        if (rulesCacheShutdownHook == null) {
+            rulesCacheShutdownHook = new Thread(() -> persistRulesCache(config), "jmx-rules-cache-persister");
+            Runtime.getRuntime().addShutdownHook(rulesCacheShutdownHook);
+        }
+    }
+
+    // Persist the rules cache after the scrape, on the persist executor, once per interval
+    private void persistRulesCacheIfDue(Config config) {
+        long persistNanos = rulesCachePersistNanos.get();
+        long now = System.nanoTime();
+        if (now - persistNanos < TimeUnit.SECONDS.toNanos(config.ruleCachePersistIntervalSeconds)
+                || !rulesCachePersistNanos.compareAndSet(persistNanos, now)) {
+            return;
+        }
+        RULES_CACHE_PERSIST_EXECUTOR.execute(() -> persistRulesCache(config));
+    }
+
+    private static void persistRulesCache(Config config) {
+        if (config == null || config.rulesCacheFile == null) {
+            return;
+        }
+        try {
+            config.rulesCacheFile.write(config.rulesCache);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write rules cache file %s: %s", config.rulesCacheFile.getPath(), e);
+        }
+    }
+
+    Map<ObjectName, Receiver.BeanContext> getBeanContexts() {
+        return beanContexts;
+    }
+
+    /**
+     * Method to close the remote connection and stop the threads of this collector, once it is no
+     * longer scraped
+     */
+    synchronized void close() {
+        if (rulesCacheShutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(rulesCacheShutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is shutting down and runs the hook
+            }
+            rulesCacheShutdownHook = null;
+            persistRulesCache(config);
+        }
+        cancelBackgroundScrape();
+        if (backgroundScrapeExecutor != null) {
+            backgroundScrapeExecutor.shutdownNow();
+            backgroundScrapeExecutor = null;
+        }
+        if (beanScrapeExecutor != null) {
+            beanScrapeExecutor.shutdown();
+            beanScrapeExecutor = null;
+        }
+        if (jmxConnectionPool != null) {
+            jmxConnectionPool.close();
+            jmxConnectionPool = null;
+        }
+        jmxConnectionManager.close();
+    }
+
+    /**
+     * Returns the executor used to scrape beans in parallel, recreating it if the configured
+     * parallelism changed, or null if beans are scraped sequentially.
+     *
+     * @param parallelism the configured scrape parallelism
+     * @return the executor, or null
+     */
+    private synchronized ExecutorService getBeanScrapeExecutor(int parallelism) {
+        if (beanScrapeExecutor != null && beanScrapeExecutorParallelism != parallelism) {
+            beanScrapeExecutor.shutdown();
+            beanScrapeExecutor = null;
+        }
+        if (beanScrapeExecutor == null && parallelism > 1) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    parallelism, parallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "jmx-scrape-worker-" + threadNumber.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            // Let idle workers exit, so a collector that is no longer scraped doesn't pin threads
+            executor.allowCoreThreadTimeOut(true);
+            beanScrapeExecutor = executor;
+            beanScrapeExecutorParallelism = parallelism;
+        }
+        return beanScrapeExecutor;
+    }
+
+    /**
+     * Returns the pool of remote connections, recreating it if its configuration changed, or null
+     * if the scrape uses a single connection.
+     *
+     * @param config the configuration of the scrape
+     * @return the pool, or null
+     */
+    private synchronized JmxConnectionPool getJmxConnectionPool(Config config) {
+        int size = config.jmxUrl.isEmpty() || !config.reuseConnection ? 1 : config.remoteConnectionPoolSize;
+        if (jmxConnectionPool != null
+                && (jmxConnectionPoolSize != size
+                        || jmxConnectionPoolLatencyTargetMilliseconds
+                                != config.remoteConnectionLatencyTargetMilliseconds)) {
+            jmxConnectionPool.close();
+            jmxConnectionPool = null;
+        }
+        if (jmxConnectionPool == null && size > 1) {
+            jmxConnectionPool = new JmxConnectionPool(
+                    size, TimeUnit.MILLISECONDS.toNanos(config.remoteConnectionLatencyTargetMilliseconds));
+            jmxConnectionPoolSize = size;
+            jmxConnectionPoolLatencyTargetMilliseconds = config.remoteConnectionLatencyTargetMilliseconds;
+        }
+        return jmxConnectionPool;
+    }
+
     private KeyStoreProperties getKeyStoreProperties(Map<String, Object> configKeyStore) {
         KeyStoreProperties keyStoreProperties = new KeyStoreProperties();
         if (configKeyStore.containsKey("filename")) {
@@ -755,17 +1435,102 @@ public class JmxCollector implements MultiCollector {
         final List<MatchedRule> matchedRules = new ArrayList<>();
 
         final Config config;
-        final MatchedRulesCache.StalenessTracker stalenessTracker;
+        // The generation of this scrape in the rules cache
+        final long cacheGeneration;
+
+        // Reused for every rules cache lookup
+        private final CacheKey lookupKey = new CacheKey();
+
+        // The samples per bean, only kept to complete a timed out scrape with
+        final BeanSamples beanSamples;
+        private int beanStart;
+
+        // Reused to apply the rule templates, receivers are used by a single thread
+        private final StringBuilder templateBuffer = new StringBuilder();
+
+        // The match name strings of the current bean, and of the current attribute per match name
+        // variant
+        private BeanContext beanContext;
+        private final String[] matchNames = new String[4];
+
+        // The contexts kept per mBean between scrapes, and the mBean being scraped
+        private final Map<ObjectName, BeanContext> beanContexts;
+        private ObjectName bean;
 
         private static final char SEP = '_';
 
-        Receiver(Config config, MatchedRulesCache.StalenessTracker stalenessTracker) {
+        Receiver(Config config, long cacheGeneration, Map<ObjectName, BeanContext> beanContexts) {
+            this(config, cacheGeneration, beanContexts, null);
+        }
+
+        Receiver(
+                Config config,
+                long cacheGeneration,
+                Map<ObjectName, BeanContext> beanContexts,
+                BeanSamples beanSamples) {
             this.config = config;
-            this.stalenessTracker = stalenessTracker;
+            this.cacheGeneration = cacheGeneration;
+            this.beanContexts = beanContexts;
+            this.beanSamples = beanSamples;
+        }
+
+        @Override
+        public JmxScraper.MBeanReceiver fork() {
+            // The rules cache and the kept contexts are thread-safe, only the matched rules are
+            // collected per bean
+            return new Receiver(config, cacheGeneration, beanContexts);
+        }
+
+        @Override
+        public void join(JmxScraper.MBeanReceiver forked) {
+            matchedRules.addAll(((Receiver) forked).matchedRules);
+        }
+
+        @Override
+        public int getSampleCount() {
+            return matchedRules.size();
+        }
+
+        @Override
+        public void startBean(ObjectName objectName) {
+            bean = objectName;
+        }
+
+        @Override
+        public void onlyKeepMBeans(Set<ObjectName> latestBeans) {
+            if (beanContexts != null) {
+                beanContexts.keySet().retainAll(latestBeans);
+            }
+        }
+
+        @Override
+        public void endBean(ObjectName objectName) {
+            if (beanSamples != null) {
+                beanSamples.add(objectName, matchedRules.subList(beanStart, matchedRules.size()));
+                beanStart = matchedRules.size();
+            }
+        }
+
+        /**
+         * Method to build the part of the match name before the attribute name
+         *
+         * @param domain the mBean domain
+         * @param beanPropertiesStr the key properties, as returned by Map.toString()
+         * @param attrKeysStr the attribute keys, as returned by List.toString()
+         * @return the bean name
+         */
+        static String beanName(String domain, String beanPropertiesStr, String attrKeysStr) {
+            String beanPropertiesBrackets = angleBrackets(beanPropertiesStr);
+            String attrKeysBrackets = angleBrackets(attrKeysStr);
+            return new StringBuilder(domain.length() + beanPropertiesBrackets.length() + attrKeysBrackets.length())
+                    .append(domain)
+                    .append(beanPropertiesBrackets)
+                    .append(attrKeysBrackets)
+                    .toString();
         }
 
         // [] and () are special in regexes, so switch to <>.
-        private String angleBrackets(String s) {
+        private static String angleBrackets(String s) {
             if (s.length() < 2) {
                 return new StringBuilder(s.length() + 2)
                         .append('<')
@@ -780,18 +1545,42 @@ public class JmxCollector implements MultiCollector {
                     .toString();
         }
 
+        // Attributes of the same bean are recorded one after the other, with equal key properties
+        private BeanContext getBeanContext(String domain, Map<String, String> beanProperties, List<String> attrKeys) {
+            DomainRuleIndex domainRuleIndex = config.domainRuleIndex;
+            if (beanContext != null && beanContext.isFor(domain, beanProperties, attrKeys, domainRuleIndex)) {
+                return beanContext;
+            }
+
+            // The context of the attributes that aren't flattened is kept per mBean, so it is built
+            // once per mBean rather than once per scrape
+            boolean keep = beanContexts != null && bean != null && attrKeys.isEmpty();
+            if (keep) {
+                BeanContext kept = beanContexts.get(bean);
+                if (kept != null && kept.isFor(domain, beanProperties, attrKeys, domainRuleIndex)) {
+                    beanContext = kept;
+                    return beanContext;
+                }
+            }
+
+            beanContext = new BeanContext(domain, beanProperties, attrKeys, domainRuleIndex);
+            if (keep) {
+                beanContexts.put(bean, beanContext);
+            }
+            return beanContext;
+        }
+
         // Add the matched rule to the cached rules and tag it as not stale
         private void addToCache(final CacheKey cacheKey, final MatchedRule matchedRule) {
             if (config.rulesCache != null && cacheKey != null) {
-                config.rulesCache.put(cacheKey, matchedRule);
-                stalenessTracker.markAsFresh(cacheKey);
+                config.rulesCache.put(cacheKey, matchedRule, cacheGeneration);
             }
         }
 
         private MatchedRule defaultExport(
                 String matchName,
                 String domain,
-                LinkedHashMap<String, String> beanProperties,
+                Map<String, String> beanProperties,
                 List<String> attrKeys,
                 String attrName,
                 String help,
@@ -845,7 +1634,7 @@ public class JmxCollector implements MultiCollector {
 
         public void recordBean(
                 String domain,
-                LinkedHashMap<String, String> beanProperties,
+                Map<String, String> beanProperties,
                 Map<String, String> attributesAsLabelsWithValues,
                 List<String> attrKeys,
                 String attrName,
@@ -858,94 +1647,106 @@ public class JmxCollector implements MultiCollector {
             CacheKey cacheKey = null;
             MatchedRule cachedRule = null;
 
-            if (config.rulesCache != null) {
-                cacheKey = new CacheKey(domain, beanProperties, attrKeys, attrName);
-                cachedRule = config.rulesCache.get(cacheKey);
+            if (config.rulesCache != null
+                    && (config.autoCachedRules == 0
+                            || (attributesAsLabelsWithValues.isEmpty() && isNumericOrBoolean(beanValue)))) {
+                cacheKey = lookupKey.set(domain, beanProperties, attrKeys, attrName);
+                cachedRule = config.rulesCache.get(cacheKey, cacheGeneration);
                 if (cachedRule != null) {
-                    stalenessTracker.markAsFresh(cacheKey);
                     matchedRule = cachedRule;
+                    if (config.ruleStatistics != null && cachedRule.ruleIndex >= 0) {
+                        config.ruleStatistics.recordCacheHit(cachedRule.ruleIndex);
+                    }
                 }
             }
 
-            String beanPropertiesStr = beanProperties.toString();
-            String attrKeysStr = attrKeys.toString();
-
             if (matchedRule.isUnmatched()) {
-                String beanPropertiesBrackets = angleBrackets(beanPropertiesStr);
-                String attrKeysBrackets = angleBrackets(attrKeysStr);
-                String beanName = new StringBuilder(
-                                domain.length() + beanPropertiesBrackets.length() + attrKeysBrackets.length())
-                        .append(domain)
-                        .append(beanPropertiesBrackets)
-                        .append(attrKeysBrackets)
-                        .toString();
-
-                // Build the HELP string from the bean metadata.
-                String beanNameProp = beanProperties.get("name");
-                String beanTypeProp = beanProperties.get("type");
-                String help = new StringBuilder(domain.length()
-                                + 6
-                                + (beanNameProp != null ? beanNameProp.length() : 4)
-                                + 6
-                                + (beanTypeProp != null ? beanTypeProp.length() : 4)
-                                + 11
-                                + attrName.length())
-                        .append(domain)
-                        .append(":name=")
-                        .append(beanNameProp)
-                        .append(",type=")
-                        .append(beanTypeProp)
-                        .append(",attribute=")
-                        .append(attrName)
-                        .toString();
-                // Add the attrDescription to the HELP if it exists and is useful.
-                if (attrDescription != null && !attrDescription.equals(attrName)) {
-                    help = new StringBuilder(attrDescription.length() + 1 + help.length())
-                            .append(attrDescription)
-                            .append(' ')
-                            .append(help)
-                            .toString();
+                BeanContext beanContext = getBeanContext(domain, beanProperties, attrKeys);
+                String beanName = beanContext.beanName;
+                String help = null;
+                String snakeCaseAttrName = null;
+                // The match name per match name variant, built once per attribute
+                Arrays.fill(matchNames, null);
+
+                // The candidate rules per match name variant, see matchNameVariant()
+                BitSet[] candidates = config.rulePrefilter != null ? new BitSet[4] : null;
+
+                // Only the rules for the bean's domain, unless the attribute part of the match name
+                // could match other domains
+                int[] ruleIndexes = beanContext.ruleIndexes;
+                if (ruleIndexes != null && !DomainRuleIndex.isApplicable(attrName, beanValue)) {
+                    ruleIndexes = null;
                 }
+                int ruleCount = ruleIndexes != null ? ruleIndexes.length : config.rules.size();
 
-                for (Rule rule : config.rules) {
+                int matchedRuleIndex = -1;
+                for (int candidate = 0; candidate < ruleCount; candidate++) {
+                    int ruleIndex = ruleIndexes != null ? ruleIndexes[candidate] : candidate;
+                    Rule rule = config.rules.get(ruleIndex);
+                    boolean cached = rule.cache || ruleIndex < config.autoCachedRules;
                     // If we cache that rule, and we found a cache entry for this bean/attribute,
                     // then what's left to do is to check all uncached rules
-                    if (rule.cache && cachedRule != null) {
+                    if (cached && cachedRule != null) {
                         continue;
                     }
 
-                    // Rules with bean values cannot be properly cached (only the value from the
-                    // first
-                    // scrape will be cached).
-                    // If caching for the rule is enabled, replace the value with a dummy <cache> to
-                    // avoid caching different values at different times.
-                    Object matchBeanValue = rule.cache ? "<cache>" : beanValue;
-
                     String attributeName;
                     if (rule.attrNameSnakeCase) {
-                        attributeName = toSnakeAndLowerCase(attrName);
+                        if (snakeCaseAttrName == null) {
+                            snakeCaseAttrName = toSnakeAndLowerCase(attrName);
+                        }
+                        attributeName = snakeCaseAttrName;
                     } else {
                         attributeName = attrName;
                     }
 
-                    String matchName = new StringBuilder(beanName.length() + attributeName.length() + 2 + 16)
-                            .append(beanName)
-                            .append(attributeName)
-                            .append(": ")
-                            .append(matchBeanValue)
-                            .toString();
+                    int variant = matchNameVariant(rule);
+                    String matchName = matchNames[variant];
+                    if (matchName == null) {
+                        // Rules with bean values cannot be properly cached (only the value from
+                        // the first scrape will be cached). If caching for the rule is enabled,
+                        // replace the value with a dummy <cache> to avoid caching different values
+                        // at different times.
+                        Object matchBeanValue = rule.cache ? "<cache>" : beanValue;
+                        matchName = new StringBuilder(beanName.length() + attributeName.length() + 2 + 16)
+                                .append(beanName)
+                                .append(attributeName)
+                                .append(": ")
+                                .append(matchBeanValue)
+                                .toString();
+                        matchNames[variant] = matchName;
+                    }
+
+                    if (candidates != null) {
+                        if (candidates[variant] == null) {
+                            candidates[variant] = config.rulePrefilter.getCandidates(matchName);
+                        }
+                        if (!candidates[variant].get(ruleIndex)) {
+                            continue;
+                        }
+                    }
 
                     Matcher matcher = null;
                     if (rule.pattern != null) {
                         matcher = rule.pattern.matcher(matchName);
-                        if (!matcher.matches()) {
+                        boolean matches;
+                        if (config.ruleStatistics != null) {
+                            long start = System.nanoTime();
+                            matches = matcher.matches();
+                            config.ruleStatistics.recordEvaluation(ruleIndex, System.nanoTime() - start, matches);
+                        } else {
+                            matches = matcher.matches();
+                        }
+                        if (!matches) {
                             continue;
                         }
+                    } else if (config.ruleStatistics != null) {
+                        config.ruleStatistics.recordEvaluation(ruleIndex, 0, true);
                     }
 
                     Double value = null;
                     if (rule.value != null && !rule.value.isEmpty()) {
-                        String val = matcher.replaceAll(rule.value);
+                        String val = rule.valueTemplate.apply(matcher, matchName, templateBuffer);
                         try {
                             value = Double.valueOf(val);
                         } catch (NumberFormatException e) {
@@ -956,6 +1757,11 @@ public class JmxCollector implements MultiCollector {
                         }
                     }
 
+                    // Build the HELP string from the bean metadata, unless the rule provides it.
+                    if (help == null && (rule.name == null || rule.help == null)) {
+                        help = beanContext.help(attrName, attrDescription);
+                    }
+
                     // If there's no name provided, use default export format.
                     if (rule.name == null) {
                         matchedRule = defaultExport(
@@ -969,14 +1775,16 @@ public class JmxCollector implements MultiCollector {
                                 rule.valueFactor,
                                 rule.type,
                                 attributesAsLabelsWithValues);
-                        if (rule.cache) {
+                        matchedRule.ruleIndex = ruleIndex;
+                        if (cached) {
                             addToCache(cacheKey, matchedRule);
                         }
+                        matchedRuleIndex = ruleIndex;
                         break;
                     }
 
                     // Matcher is set below here due to validation in the constructor.
-                    String name = toSafeName(matcher.replaceAll(rule.name));
+                    String name = toSafeName(rule.nameTemplate.apply(matcher, matchName, templateBuffer));
                     if (name.isEmpty()) {
                         return;
                     }
@@ -990,8 +1798,9 @@ public class JmxCollector implements MultiCollector {
                     }
 
                     // Set the help.
+                    String ruleHelp = help;
                     if (rule.help != null) {
-                        help = matcher.replaceAll(rule.help);
+                        ruleHelp = rule.helpTemplate.apply(matcher, matchName, templateBuffer);
                     }
 
                     // Set the labels.
@@ -1004,8 +1813,10 @@ public class JmxCollector implements MultiCollector {
                             final String unsafeLabelName = rule.labelNames.get(i);
                             final String labelValReplacement = rule.labelValues.get(i);
                             try {
-                                String labelName = toSafeName(matcher.replaceAll(unsafeLabelName));
-                                String labelValue = matcher.replaceAll(labelValReplacement);
+                                String labelName = toSafeName(
+                                        rule.labelNameTemplates[i].apply(matcher, matchName, templateBuffer));
+                                String labelValue =
+                                        rule.labelValueTemplates[i].apply(matcher, matchName, templateBuffer);
                                 if (config.lowercaseOutputLabelNames) {
                                     labelName = labelName.toLowerCase();
                                 }
@@ -1024,12 +1835,20 @@ public class JmxCollector implements MultiCollector {
                     }
 
                     matchedRule = new MatchedRule(
-                            name, matchName, type, help, labelNames, labelValues, value, rule.valueFactor);
-                    if (rule.cache) {
+                            name, matchName, type, ruleHelp, labelNames, labelValues, value, rule.valueFactor);
+                    matchedRule.ruleIndex = ruleIndex;
+                    if (cached) {
                         addToCache(cacheKey, matchedRule);
                     }
+                    matchedRuleIndex = ruleIndex;
                     break;
                 }
+
+                // The automatically cached rules are the leading ones, so none of them matches if
+                // a later rule matched
+                if (matchedRuleIndex >= config.autoCachedRules && config.autoCachedRules > 0 && cachedRule == null) {
+                    addToCache(cacheKey, MatchedRule.unmatched());
+                }
             }
 
             if (matchedRule.isUnmatched()) {
@@ -1048,8 +1867,8 @@ public class JmxCollector implements MultiCollector {
                 value = (Boolean) beanValue ? 1 : 0;
             } else {
                 LOGGER.trace(
-                        "Ignoring unsupported bean: %s%s%s%s: %s ",
-                        domain, angleBrackets(beanPropertiesStr), angleBrackets(attrKeysStr), attrName, beanValue);
+                        "Ignoring unsupported bean: %s%s: %s ",
+                        getBeanContext(domain, beanProperties, attrKeys).beanName, attrName, beanValue);
                 return;
             }
 
@@ -1058,6 +1877,101 @@ public class JmxCollector implements MultiCollector {
 
             matchedRules.add(matchedRule.withValue(value.doubleValue()));
         }
+
+        // The values that automatically cached rules were analyzed for, see RuleValueDependency
+        private static boolean isNumericOrBoolean(Object value) {
+            return value instanceof Integer
+                    || value instanceof Long
+                    || value instanceof Double
+                    || value instanceof Float
+                    || value instanceof Short
+                    || value instanceof Byte
+                    || value instanceof BigInteger
+                    || value instanceof BigDecimal
+                    || value instanceof Boolean;
+        }
+
+        // Rules with the same cache and attrNameSnakeCase settings have the same match name
+        private static int matchNameVariant(Rule rule) {
+            return (rule.cache ? 2 : 0) | (rule.attrNameSnakeCase ? 1 : 0);
+        }
+
+        /**
+         * The parts of the match name and the HELP string that are the same for all attributes of
+         * a bean (and attribute keys), built once instead of for every attribute
+         */
+        static class BeanContext {
+
+            final String domain;
+            final KeyProperties beanProperties;
+            final List<String> attrKeys;
+            final String beanName;
+            final String helpPrefix;
+            final DomainRuleIndex domainRuleIndex;
+            // The rules for the bean's domain, or null to evaluate all rules
+            final int[] ruleIndexes;
+
+            BeanContext(
+                    String domain,
+                    Map<String, String> beanProperties,
+                    List<String> attrKeys,
+                    DomainRuleIndex domainRuleIndex) {
+                this.domain = domain;
+                // The key properties of an mBean are immutable, only the properties of TabularData
+                // rows and the attribute keys are copied, as the scraper reuses and modifies them
+                this.beanProperties = KeyProperties.copyOf(beanProperties);
+                this.attrKeys = attrKeys.isEmpty() ? Collections.emptyList() : new ArrayList<>(attrKeys);
+                this.beanName = beanName(domain, beanProperties.toString(), attrKeys.toString());
+                this.helpPrefix = new StringBuilder()
+                        .append(domain)
+                        .append(":name=")
+                        .append(beanProperties.get("name"))
+                        .append(",type=")
+                        .append(beanProperties.get("type"))
+                        .append(",attribute=")
+                        .toString();
+                this.domainRuleIndex = domainRuleIndex;
+                this.ruleIndexes = domainRuleIndex != null ? domainRuleIndex.getCandidates(beanName) : null;
+            }
+
+            boolean isFor(
+                    String domain,
+                    Map<String, String> beanProperties,
+                    List<String> attrKeys,
+                    DomainRuleIndex domainRuleIndex) {
+                if (this.domainRuleIndex != domainRuleIndex
+                        || !this.domain.equals(domain)
+                        || this.beanProperties.size() != beanProperties.size()
+                        || !this.attrKeys.equals(attrKeys)) {
+                    return false;
+                }
+                if (this.beanProperties == beanProperties) {
+                    return true;
+                }
+                // The order of the properties is part of the bean name
+                Iterator<Map.Entry<String, String>> iterator =
+                        this.beanProperties.entrySet().iterator();
+                for (Map.Entry<String, String> entry : beanProperties.entrySet()) {
+                    if (!iterator.next().equals(entry)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            String help(String attrName, String attrDescription) {
+                String help = helpPrefix + attrName;
+                // Add the attrDescription to the HELP if it exists and is useful.
+                if (attrDescription != null && !attrDescription.equals(attrName)) {
+                    help = new StringBuilder(attrDescription.length() + 1 + help.length())
+                            .append(attrDescription)
+                            .append(' ')
+                            .append(help)
+                            .toString();
+                }
+                return help;
+            }
+        }
     }
 
     private static void addAttributesAsLabelsWithValuesToLabels(
@@ -1080,6 +1994,11 @@ public class JmxCollector implements MultiCollector {
         // Take a reference to the current config and collect with this one
         // (to avoid race conditions in case another thread reloads the config in the meantime)
         Config config = getLatestConfig();
+        if (config.backgroundScrapeIntervalSeconds != null) {
+            return collectFromBackgroundSnapshot(config);
+        }
+        cancelBackgroundScrape();
+
         Integer timeout = config.scrapeTimeoutSeconds;
 
         // Single-flight: check for in-flight scrape
@@ -1089,8 +2008,7 @@ public class JmxCollector implements MultiCollector {
                 try {
                     return existing.get(timeout, TimeUnit.SECONDS);
                 } catch (TimeoutException e) {
-                    scrapeTimeoutCounter.inc();
-                    return lastGoodSnapshots;
+                    return cancelTimedOutScrape(existing);
                 } catch (Exception e) {
                     jmxScrapeError.set(1);
                     return lastGoodSnapshots;
@@ -1099,7 +2017,7 @@ public class JmxCollector implements MultiCollector {
         }
 
         // No in-flight scrape — run one
-        Future<MetricSnapshots> future = SCRAPE_EXECUTOR.submit(() -> doCollect(config));
+        Future<MetricSnapshots> future = scrapeExecutor.submit(() -> doCollect(config));
 
         if (timeout != null) {
             if (!inFlightScrape.compareAndSet(null, future)) {
@@ -1108,8 +2026,7 @@ public class JmxCollector implements MultiCollector {
                 try {
                     return existing.get(timeout, TimeUnit.SECONDS);
                 } catch (TimeoutException e) {
-                    scrapeTimeoutCounter.inc();
-                    return lastGoodSnapshots;
+                    return cancelTimedOutScrape(existing);
                 } catch (Exception e) {
                     jmxScrapeError.set(1);
                     return lastGoodSnapshots;
@@ -1127,8 +2044,7 @@ public class JmxCollector implements MultiCollector {
             lastGoodSnapshots = result;
             return result;
         } catch (TimeoutException e) {
-            scrapeTimeoutCounter.inc();
-            return lastGoodSnapshots;
+            return cancelTimedOutScrape(future);
         } catch (java.util.concurrent.ExecutionException e) {
             Throwable cause = e.getCause();
             if (cause instanceof RuntimeException) {
@@ -1144,6 +2060,168 @@ public class JmxCollector implements MultiCollector {
         }
     }
 
+    /**
+     * Cancels a scrape that did not finish within the timeout, so it doesn't hold up the scrapes
+     * queued behind it on the scrape executor.
+     *
+     * @param future the future of the timed out scrape
+     * @return the last good metric snapshots
+     */
+    private MetricSnapshots cancelTimedOutScrape(Future<MetricSnapshots> future) {
+        scrapeTimeoutCounter.inc();
+        RunningScrape running = inFlightScrape.get() == future ? runningScrape.get() : null;
+        if (running != null) {
+            running.scraper.cancel();
+        }
+        future.cancel(true);
+
+        if (running == null || running.receiver.beanSamples == null) {
+            return lastGoodSnapshots;
+        }
+
+        // The samples of the beans scraped so far, and the last good samples of the others
+        BeanSamples completed = running.receiver.beanSamples.complete(running.config.lastGoodBeanSamples);
+        running.config.lastGoodBeanSamples = completed;
+        MetricSnapshots result = metricSnapshotsConverter.convertWithTemplates(completed.getMatchedRules());
+        jmxScrapePartial.set(1);
+        jmxScrapeStaleSeries.set(completed.getStaleSampleCount());
+        lastGoodSnapshots = result;
+        return result;
+    }
+
+    /**
+     * Returns the latest snapshot published by the background scrape, scraping synchronously only
+     * if nothing has been published yet.
+     *
+     * @param config the configuration to use if a synchronous scrape is needed
+     * @return the latest metric snapshots
+     */
+    private MetricSnapshots collectFromBackgroundSnapshot(Config config) {
+        scheduleBackgroundScrape(config.backgroundScrapeIntervalSeconds);
+
+        BackgroundSnapshot snapshot = backgroundSnapshot.get();
+        if (snapshot == null) {
+            snapshot = scrapeIntoBackgroundSnapshot(config);
+        }
+        return snapshot.metricSnapshots;
+    }
+
+    private synchronized void scheduleBackgroundScrape(int intervalSeconds) {
+        if (backgroundScrape != null && backgroundScrapeIntervalSeconds == intervalSeconds) {
+            return;
+        }
+
+        if (backgroundScrape != null) {
+            backgroundScrape.cancel(false);
+        }
+        if (backgroundScrapeExecutor == null) {
+            backgroundScrapeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "jmx-background-scrape");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        backgroundScrapeIntervalSeconds = intervalSeconds;
+        backgroundScrape = backgroundScrapeExecutor.scheduleAtFixedRate(
+                this::backgroundCollect, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private synchronized void cancelBackgroundScrape() {
+        if (backgroundScrape != null) {
+            backgroundScrape.cancel(false);
+            backgroundScrape = null;
+            backgroundSnapshot.set(null);
+        }
+    }
+
+    private void backgroundCollect() {
+        try {
+            Config config = getLatestConfig();
+            if (config.backgroundScrapeIntervalSeconds != null) {
+                scrapeIntoBackgroundSnapshot(config);
+            }
+        } catch (RuntimeException e) {
+            // Keep serving the previous snapshot, and keep the schedule running
+            LOGGER.trace("Background scrape failed: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Scrapes on the scrape executor, so scrapes never overlap, and publishes the result. A scrape
+     * that exceeds scrapeTimeoutSeconds is cancelled as in {@link #collect()}, and its partial
+     * result or the last good snapshots are published.
+     *
+     * @param config the configuration to use for this scrape
+     * @return the published snapshot
+     */
+    private BackgroundSnapshot scrapeIntoBackgroundSnapshot(Config config) {
+        Integer timeout = config.scrapeTimeoutSeconds;
+        Future<MetricSnapshots> future = scrapeExecutor.submit(() -> doCollect(config));
+        if (timeout != null) {
+            // If another scrape is in flight, this one is queued behind it and only cancelled
+            inFlightScrape.compareAndSet(null, future);
+        }
+        try {
+            MetricSnapshots result;
+            if (timeout != null) {
+                result = future.get(timeout, TimeUnit.SECONDS);
+            } else {
+                result = future.get();
+            }
+            lastGoodSnapshots = result;
+            BackgroundSnapshot snapshot = new BackgroundSnapshot(result, System.nanoTime());
+            backgroundSnapshot.set(snapshot);
+            return snapshot;
+        } catch (TimeoutException e) {
+            BackgroundSnapshot snapshot = new BackgroundSnapshot(cancelTimedOutScrape(future), System.nanoTime());
+            backgroundSnapshot.set(snapshot);
+            return snapshot;
+        } catch (java.util.concurrent.ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the scrape", e);
+        } finally {
+            inFlightScrape.compareAndSet(future, null);
+        }
+    }
+
+    /**
+     * Class to implement the scraper and receiver of the scrape running on the scrape executor
+     */
+    private static class RunningScrape {
+
+        final Config config;
+        final JmxScraper scraper;
+        final Receiver receiver;
+
+        RunningScrape(Config config, JmxScraper scraper, Receiver receiver) {
+            this.config = config;
+            this.scraper = scraper;
+            this.receiver = receiver;
+        }
+    }
+
+    /**
+     * Class to implement the result of a background scrape
+     */
+    private static class BackgroundSnapshot {
+
+        final MetricSnapshots metricSnapshots;
+        final long nanoTime;
+
+        BackgroundSnapshot(MetricSnapshots metricSnapshots, long nanoTime) {
+            this.metricSnapshots = metricSnapshots;
+            this.nanoTime = nanoTime;
+        }
+    }
+
     /**
      * Performs the actual JMX scrape.
      *
@@ -1151,9 +2229,16 @@ public class JmxCollector implements MultiCollector {
      * @return the collected metric snapshots
      */
     private MetricSnapshots doCollect(Config config) {
-        MatchedRulesCache.StalenessTracker stalenessTracker = new MatchedRulesCache.StalenessTracker();
+        long cacheGeneration = config.rulesCache != null ? config.rulesCache.nextGeneration() : 0;
 
-        Receiver receiver = new Receiver(config, stalenessTracker);
+        Receiver receiver = new Receiver(
+                config, cacheGeneration, beanContexts, config.scrapeTimeoutPartialResults ? new BeanSamples() : null);
+
+        // Calls are only spread over the pool if there are at least as many threads as connections
+        JmxConnectionPool pool = getJmxConnectionPool(config);
+        int parallelism = pool != null
+                ? Math.max(config.scrapeParallelism, config.remoteConnectionPoolSize)
+                : config.scrapeParallelism;
 
         JmxScraper scraper = new JmxScraper(
                 config.jmxUrl,
@@ -1166,7 +2251,15 @@ public class JmxCollector implements MultiCollector {
                 config.objectNameAttributeFilter,
                 config.metricCustomizers,
                 receiver,
-                jmxMBeanPropertyCache);
+                jmxMBeanPropertyCache,
+                mBeanInfoCache,
+                mBeanNameIndex,
+                config.reuseConnection ? jmxConnectionManager : null,
+                config.mBeanRefreshTracker,
+                config.ruleBasedAttributeFilter,
+                config.negativeMatchFilter,
+                getBeanScrapeExecutor(parallelism),
+                pool);
 
         long start = System.currentTimeMillis();
         double error = 1;
@@ -1177,6 +2270,8 @@ public class JmxCollector implements MultiCollector {
                 && ((start - createTimeMillis) / 1000L < config.startDelaySeconds)) {
             throw new IllegalStateException("JMXCollector waiting for startDelaySeconds");
         }
+        RunningScrape running = new RunningScrape(config, scraper, receiver);
+        runningScrape.set(running);
         try {
             scraper.doScrape();
             error = 0;
@@ -1186,20 +2281,46 @@ public class JmxCollector implements MultiCollector {
             StringWriter sw = new StringWriter();
             e.printStackTrace(new PrintWriter(sw));
             errorMsg = sw.toString();
+        } finally {
+            runningScrape.compareAndSet(running, null);
         }
 
-        if (error == 1) {
-            LOGGER.error("JMX scrape failed: %s", errorMsg);
+        if (scraper.isCancelled()) {
+            // Errors of a cancelled scrape are caused by the cancellation, typically the closed
+            // connection, and the stale entries of the beans it didn't reach are not stale
+            LOGGER.warn("JMX scrape cancelled, %d beans not scraped", scraper.getAbandonedBeans());
+            scrapeAbandonedBeansCounter.inc(scraper.getAbandonedBeans());
+        } else {
+            if (error == 1) {
+                LOGGER.error("JMX scrape failed: %s", errorMsg);
+            } else if (receiver.beanSamples != null) {
+                config.lastGoodBeanSamples = receiver.beanSamples;
+            }
+            jmxScrapePartial.set(0);
+            jmxScrapeStaleSeries.set(0);
         }
 
+        long cachedBeans = 0;
         if (config.rulesCache != null) {
-            config.rulesCache.evictStaleEntries(stalenessTracker);
+            cachedBeans = scraper.isCancelled()
+                    ? config.rulesCache.freshCount(cacheGeneration)
+                    : config.rulesCache.evictStaleEntries(cacheGeneration);
         }
 
         jmxScrapeDurationSeconds.set((System.currentTimeMillis() - start) / 1000.0);
         jmxScrapeError.set(error);
-        jmxScrapeCachedBeans.set(stalenessTracker.freshCount());
+        jmxScrapeCachedBeans.set(cachedBeans);
+
+        if (scraper.isCancelled()) {
+            // cancelTimedOutScrape published the completed result, converting the partial one
+            // would make the converter forget the templates of the families it misses
+            return lastGoodSnapshots;
+        }
+
+        if (config.rulesCacheFile != null) {
+            persistRulesCacheIfDue(config);
+        }
 
-        return MatchedRuleToMetricSnapshotsConverter.convert(receiver.matchedRules);
+        return metricSnapshotsConverter.convertWithTemplates(receiver.matchedRules);
     }
 }
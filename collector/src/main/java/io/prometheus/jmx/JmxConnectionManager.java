@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+
+/**
+ * This object keeps a remote JMX connection open between scrapes. The main purpose of it is to
+ * avoid the TCP connect, RMI registry lookup, TLS handshake and authentication on every scrape.
+ *
+ * <p>A connection is considered broken once its connector reports it failed or closed, or once
+ * {@link #invalidate()} is called, and is replaced on the next call to {@link
+ * #getConnection(String, Object, Connector)}. Failed connection attempts are retried with
+ * exponential backoff.
+ */
+class JmxConnectionManager implements NotificationListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxConnectionManager.class);
+
+    static final long INITIAL_BACKOFF_MILLIS = 1000L;
+    static final long MAX_BACKOFF_MILLIS = 60000L;
+
+    /**
+     * Interface to implement how a connection is opened
+     */
+    interface Connector {
+
+        /**
+         * Method to open a new connection
+         *
+         * @return the connector of the new connection
+         * @throws IOException IOException
+         */
+        JMXConnector connect() throws IOException;
+
+        /**
+         * Method called once a connection opened by this connector is closed, or could not be
+         * opened
+         */
+        void disconnected();
+    }
+
+    private String jmxUrl;
+    private Object settings;
+    private Connector connector;
+    private volatile JMXConnector jmxConnector;
+    private MBeanServerConnection beanConn;
+    private volatile boolean broken;
+    private boolean lost;
+    private int consecutiveFailures;
+    private long nextAttemptNanos;
+    private volatile double lastConnectDurationSeconds = Double.NaN;
+    private final LongAdder reconnects = new LongAdder();
+
+    /**
+     * Method to get the connection to a JMX url, opening it if there is no usable connection
+     *
+     * @param jmxUrl the JMX url
+     * @param settings the other connection settings, the connection is replaced if they are not
+     *     equal to the settings of the current connection
+     * @param connector the connector used to open a new connection
+     * @return the connection
+     * @throws IOException if the connection could not be opened, or a previous attempt failed
+     *     less than the backoff time ago
+     */
+    public synchronized MBeanServerConnection getConnection(String jmxUrl, Object settings, Connector connector)
+            throws IOException {
+        if (!jmxUrl.equals(this.jmxUrl) || !settings.equals(this.settings)) {
+            close();
+            this.jmxUrl = jmxUrl;
+            this.settings = settings;
+            this.lost = false;
+            this.consecutiveFailures = 0;
+        }
+
+        if (jmxConnector != null) {
+            if (!broken) {
+                return beanConn;
+            }
+            LOGGER.trace("Connection to %s is broken, reconnecting", jmxUrl);
+            close();
+            lost = true;
+        }
+
+        long now = System.nanoTime();
+        if (consecutiveFailures > 0 && now - nextAttemptNanos < 0) {
+            throw new IOException(String.format(
+                    "Not connecting to %s for another %d ms after %d failed attempts",
+                    jmxUrl, TimeUnit.NANOSECONDS.toMillis(nextAttemptNanos - now), consecutiveFailures));
+        }
+
+        JMXConnector newJmxConnector;
+        try {
+            newJmxConnector = connector.connect();
+            beanConn = newJmxConnector.getMBeanServerConnection();
+        } catch (IOException | RuntimeException e) {
+            consecutiveFailures++;
+            nextAttemptNanos = now + TimeUnit.MILLISECONDS.toNanos(getBackoffMillis(consecutiveFailures));
+            connector.disconnected();
+            throw e;
+        } finally {
+            lastConnectDurationSeconds = (System.nanoTime() - now) / 1.0E9;
+        }
+
+        // The connector is the handback, so notifications of replaced connections are ignored
+        newJmxConnector.addConnectionNotificationListener(this, null, newJmxConnector);
+        this.connector = connector;
+        this.jmxConnector = newJmxConnector;
+        this.broken = false;
+        this.consecutiveFailures = 0;
+        if (lost) {
+            reconnects.increment();
+            lost = false;
+        }
+
+        return beanConn;
+    }
+
+    /**
+     * Method to mark the current connection as broken, for example after it threw an IOException
+     */
+    public void invalidate() {
+        broken = true;
+    }
+
+    /**
+     * Method to close the current connection without waiting for a concurrent {@link
+     * #getConnection(String, Object, Connector)}, so calls blocked on it fail. The connection is
+     * replaced on the next call to getConnection().
+     */
+    public void abort() {
+        broken = true;
+        JMXConnector aborting = jmxConnector;
+        if (aborting != null) {
+            try {
+                aborting.close();
+            } catch (IOException e) {
+                LOGGER.trace("Aborting connection to %s failed: %s", jmxUrl, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Method to close the current connection, if any
+     */
+    public synchronized void close() {
+        JMXConnector closing = jmxConnector;
+        if (closing == null) {
+            return;
+        }
+
+        jmxConnector = null;
+        beanConn = null;
+        try {
+            closing.removeConnectionNotificationListener(this);
+        } catch (ListenerNotFoundException e) {
+            // Intentionally empty
+        }
+        try {
+            closing.close();
+        } catch (IOException e) {
+            LOGGER.trace("Closing connection to %s failed: %s", jmxUrl, e.getMessage());
+        }
+        connector.disconnected();
+        connector = null;
+    }
+
+    /**
+     * Method to get how long the last connection attempt took
+     *
+     * @return the duration in seconds, or NaN if no connection was attempted
+     */
+    public double getLastConnectDurationSeconds() {
+        return lastConnectDurationSeconds;
+    }
+
+    /**
+     * Method to get how many times a broken connection was replaced
+     *
+     * @return the number of reconnects
+     */
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if (handback == jmxConnector
+                && (JMXConnectionNotification.FAILED.equals(type) || JMXConnectionNotification.CLOSED.equals(type))) {
+            LOGGER.trace("Connection to %s reported %s", jmxUrl, type);
+            broken = true;
+        }
+    }
+
+    static long getBackoffMillis(int consecutiveFailures) {
+        int doublings = Math.min(consecutiveFailures - 1, 16);
+        return Math.min(INITIAL_BACKOFF_MILLIS << doublings, MAX_BACKOFF_MILLIS);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import javax.management.MBeanServerConnection;
+
+/**
+ * This object spreads the calls of a scrape over several connections to the same remote JVM, so
+ * beans scraped in parallel don't wait for each other's round trips on a single connection.
+ *
+ * <p>The first connection is the one of the {@link JmxConnectionManager} used for the rest of the
+ * scrape, the other connections are opened on first use and kept open between scrapes. Each call
+ * goes to the connection with the fewest calls in flight, and the number of concurrent calls is
+ * limited by an {@link AimdConcurrencyLimiter}, so a slow or failing JVM is not overloaded.
+ */
+class JmxConnectionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxConnectionPool.class);
+
+    private final JmxConnectionManager[] jmxConnectionManagers;
+    private final AtomicIntegerArray inFlight;
+    private final AimdConcurrencyLimiter limiter;
+
+    /**
+     * Constructor
+     *
+     * @param size the number of connections, including the primary connection
+     * @param latencyTargetNanos calls that take longer than this decrease the concurrency limit
+     */
+    public JmxConnectionPool(int size, long latencyTargetNanos) {
+        this.jmxConnectionManagers = new JmxConnectionManager[size];
+        for (int i = 1; i < size; i++) {
+            jmxConnectionManagers[i] = new JmxConnectionManager();
+        }
+        this.inFlight = new AtomicIntegerArray(size);
+        this.limiter = new AimdConcurrencyLimiter(size, latencyTargetNanos);
+    }
+
+    /**
+     * Method to get a connection that spreads its calls over the pool
+     *
+     * @param primary the connection used for the rest of the scrape
+     * @param jmxUrl the JMX url
+     * @param settings the other connection settings, as passed to {@link
+     *     JmxConnectionManager#getConnection(String, Object, JmxConnectionManager.Connector)}
+     * @param connector the connector used to open the other connections
+     * @return the pooled connection
+     */
+    public MBeanServerConnection getConnection(
+            MBeanServerConnection primary, String jmxUrl, Object settings, JmxConnectionManager.Connector connector) {
+        return (MBeanServerConnection) Proxy.newProxyInstance(
+                MBeanServerConnection.class.getClassLoader(),
+                new Class<?>[] {MBeanServerConnection.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.invoke(primary, args);
+                    }
+
+                    long start;
+                    try {
+                        start = limiter.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for a connection to " + jmxUrl);
+                    }
+
+                    int index = getLeastBusy();
+                    inFlight.incrementAndGet(index);
+                    boolean failed = false;
+                    try {
+                        return method.invoke(getConnection(index, primary, jmxUrl, settings, connector), args);
+                    } catch (InvocationTargetException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            failed = true;
+                            if (index > 0) {
+                                jmxConnectionManagers[index].invalidate();
+                            }
+                        }
+                        throw cause;
+                    } finally {
+                        inFlight.decrementAndGet(index);
+                        limiter.release(start, failed);
+                    }
+                });
+    }
+
+    private int getLeastBusy() {
+        int leastBusy = 0;
+        for (int i = 1; i < inFlight.length(); i++) {
+            if (inFlight.get(i) < inFlight.get(leastBusy)) {
+                leastBusy = i;
+            }
+        }
+        return leastBusy;
+    }
+
+    private MBeanServerConnection getConnection(
+            int index,
+            MBeanServerConnection primary,
+            String jmxUrl,
+            Object settings,
+            JmxConnectionManager.Connector connector) {
+        if (index == 0) {
+            return primary;
+        }
+        try {
+            return jmxConnectionManagers[index].getConnection(jmxUrl, settings, connector);
+        } catch (IOException e) {
+            // The primary connection works, the call shouldn't fail because of an optional one
+            LOGGER.trace("Opening pooled connection to %s failed: %s", jmxUrl, e.getMessage());
+            return primary;
+        }
+    }
+
+    /**
+     * Method to get the current number of concurrent calls allowed
+     *
+     * @return the concurrency limit
+     */
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    /**
+     * Method to close the pooled connections without waiting for concurrent calls, so calls
+     * blocked on them fail
+     */
+    public void abort() {
+        for (int i = 1; i < jmxConnectionManagers.length; i++) {
+            jmxConnectionManagers[i].abort();
+        }
+    }
+
+    /**
+     * Method to close the pooled connections, the primary connection is left open
+     */
+    public void close() {
+        for (int i = 1; i < jmxConnectionManagers.length; i++) {
+            jmxConnectionManagers[i].close();
+        }
+    }
+}
@@ -17,71 +17,36 @@
 package io.prometheus.jmx;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.management.ObjectName;
 
 /**
  * This object stores a mapping of mBean objectNames to mBean key property lists. The main purpose
- * of it is to reduce the frequency with which we invoke PROPERTY_PATTERN when discovering mBeans.
+ * of it is to reduce the frequency with which we parse the key property list when discovering
+ * mBeans.
  */
 class JmxMBeanPropertyCache {
-    private static final Pattern PROPERTY_PATTERN = Pattern.compile("([^,=:\\*\\?]+)"
-            + // Name - non-empty, anything but comma, equals, colon, star, or
-            // question mark
-            "="
-            + // Equals
-            "("
-            + // Either
-            "\""
-            + // Quoted
-            "(?:"
-            + // A possibly empty sequence of
-            "[^\\\\\"]*"
-            + // Greedily match anything but backslash or quote
-            "(?:\\\\.)?"
-            + // Greedily see if we can match an escaped sequence
-            ")*"
-            + "\""
-            + "|"
-            + // Or
-            "[^,=:\"]*"
-            + // Unquoted - can be empty, anything but comma, equals, colon, or
-            // quote
-            ")");
 
     // Implement a version of ObjectName.getKeyPropertyList that returns the
     // properties in the ordered they were added (the ObjectName stores them
     // in the order they were added).
-    private final Map<ObjectName, LinkedHashMap<String, String>> keyPropertiesPerBean;
+    private final Map<ObjectName, KeyProperties> keyPropertiesPerBean;
 
     public JmxMBeanPropertyCache() {
         this.keyPropertiesPerBean = new ConcurrentHashMap<>();
     }
 
-    Map<ObjectName, LinkedHashMap<String, String>> getKeyPropertiesPerBean() {
+    Map<ObjectName, KeyProperties> getKeyPropertiesPerBean() {
         return keyPropertiesPerBean;
     }
 
-    public LinkedHashMap<String, String> getKeyPropertyList(ObjectName mbeanName) {
-        LinkedHashMap<String, String> keyProperties = keyPropertiesPerBean.get(mbeanName);
+    public KeyProperties getKeyPropertyList(ObjectName mbeanName) {
+        KeyProperties keyProperties = keyPropertiesPerBean.get(mbeanName);
         if (keyProperties == null) {
-            keyProperties = new LinkedHashMap<>();
-            String properties = mbeanName.getKeyPropertyListString();
-            Matcher match = PROPERTY_PATTERN.matcher(properties);
-            while (match.lookingAt()) {
-                keyProperties.put(match.group(1), match.group(2));
-                properties = properties.substring(match.end());
-                if (properties.startsWith(",")) {
-                    properties = properties.substring(1);
-                }
-                match.reset(properties);
-            }
+            keyProperties = KeyProperties.parse(mbeanName.getKeyPropertyListString());
             keyPropertiesPerBean.put(mbeanName, keyProperties);
         }
         return keyProperties;
@@ -22,18 +22,20 @@ import io.prometheus.jmx.logger.LoggerFactory;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -44,10 +46,6 @@ import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectInstance;
 import javax.management.ObjectName;
-import javax.management.openmbean.CompositeData;
-import javax.management.openmbean.CompositeType;
-import javax.management.openmbean.TabularData;
-import javax.management.openmbean.TabularType;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
@@ -94,6 +92,9 @@ class JmxScraper {
         /**
          * Method to create a bean
          *
+         * <p>The beanProperties and attrKeys are only valid for the duration of the call, as they
+         * are reused for the next value. Receivers that keep them must copy them.
+         *
          * @param domain domain
          * @param beanProperties beanProperties
          * @param attrKeys attrKeys
@@ -104,13 +105,70 @@ class JmxScraper {
          */
         void recordBean(
                 String domain,
-                LinkedHashMap<String, String> beanProperties,
+                Map<String, String> beanProperties,
                 Map<String, String> attributesAsLabelsWithValues,
                 List<String> attrKeys,
                 String attrName,
                 String attrType,
                 String attrDescription,
                 Object value);
+
+        /**
+         * Method to create a receiver for the values of a single bean when beans are scraped in
+         * parallel. The returned receiver is only used by one thread, and is handed back to
+         * {@link #join(MBeanReceiver)} in a deterministic order once the bean has been scraped.
+         *
+         * <p>The default implementation buffers the values, so receivers that are not thread-safe
+         * still observe a single-threaded sequence of calls.
+         *
+         * @return a receiver for the values of a single bean
+         */
+        default MBeanReceiver fork() {
+            return new MBeanValueBuffer();
+        }
+
+        /**
+         * Method to merge the values of a receiver created by {@link #fork()} into this receiver
+         *
+         * @param forked the receiver returned by {@link #fork()}
+         */
+        default void join(MBeanReceiver forked) {
+            ((MBeanValueBuffer) forked).replay(this);
+        }
+
+        /**
+         * Method called once all values of a bean were passed to this receiver, including the
+         * values joined from a receiver created by {@link #fork()}
+         *
+         * @param objectName the name of the bean
+         */
+        default void endBean(ObjectName objectName) {}
+
+        /**
+         * Method called before the values of a bean are passed to this receiver, or to the
+         * receiver created by {@link #fork()} for the bean
+         *
+         * @param objectName the name of the bean
+         */
+        default void startBean(ObjectName objectName) {}
+
+        /**
+         * Method to only keep the state a receiver keeps per bean between scrapes for "alive"
+         * beans, remove old beans to prevent memory growth
+         *
+         * @param latestBeans latestBeans
+         */
+        default void onlyKeepMBeans(Set<ObjectName> latestBeans) {}
+
+        /**
+         * Method to get the number of samples this receiver produced so far, used to learn which
+         * attributes never produce a sample
+         *
+         * @return the number of samples, or -1 if the receiver doesn't produce samples itself
+         */
+        default int getSampleCount() {
+            return -1;
+        }
     }
 
     private final MBeanReceiver receiver;
@@ -123,6 +181,19 @@ class JmxScraper {
     private final List<JmxCollector.MetricCustomizer> metricCustomizers;
     private final ObjectNameAttributeFilter objectNameAttributeFilter;
     private final JmxMBeanPropertyCache jmxMBeanPropertyCache;
+    private final MBeanInfoCache mBeanInfoCache;
+    private final MBeanNameIndex mBeanNameIndex;
+    private final JmxConnectionManager jmxConnectionManager;
+    private final MBeanRefreshTracker mBeanRefreshTracker;
+    private final RuleBasedAttributeFilter ruleBasedAttributeFilter;
+    private final NegativeMatchFilter negativeMatchFilter;
+    private final ExecutorService beanScrapeExecutor;
+    private final JmxConnectionPool jmxConnectionPool;
+
+    private volatile boolean cancelled;
+    private volatile JMXConnector jmxConnector;
+    private volatile MBeanServerConnection primaryConnection;
+    private volatile int abandonedBeans;
 
     /**
      * Constructor
@@ -151,6 +222,79 @@ class JmxScraper {
             List<JmxCollector.MetricCustomizer> metricCustomizers,
             MBeanReceiver receiver,
             JmxMBeanPropertyCache jmxMBeanPropertyCache) {
+        this(
+                jmxUrl,
+                username,
+                password,
+                sslProperties,
+                includeObjectNames,
+                excludeObjectNames,
+                excludeJvmMetrics,
+                objectNameAttributeFilter,
+                metricCustomizers,
+                receiver,
+                jmxMBeanPropertyCache,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param jmxUrl jmxUrl
+     * @param username username
+     * @param password password
+     * @param sslProperties sslProperties
+     * @param includeObjectNames includeObjectNames
+     * @param excludeObjectNames excludeObjectNames
+     * @param excludeJvmMetrics excludeJvmMetrics
+     * @param objectNameAttributeFilter objectNameAttributeFilter
+     * @param metricCustomizers metricCustomizers
+     * @param receiver receiver
+     * @param jmxMBeanPropertyCache jmxMBeanPropertyCache
+     * @param mBeanInfoCache cache for immutable MBeanInfo, or null to always query the MBeanInfo
+     * @param mBeanNameIndex index of the selected mBean names, or null to query the mBean names on
+     *     every scrape
+     * @param jmxConnectionManager manager that keeps the remote connection open between scrapes, or
+     *     null to open a new connection for every scrape
+     * @param mBeanRefreshTracker tracker that decides which mBeans are scraped and which are served
+     *     their last values, or null to scrape every mBean
+     * @param ruleBasedAttributeFilter filter that excludes attributes no rule can match, or null to
+     *     fetch every attribute
+     * @param negativeMatchFilter filter that excludes attributes that repeatedly produced no
+     *     sample, or null to fetch them on every scrape
+     * @param beanScrapeExecutor executor used to scrape beans in parallel, or null to scrape them
+     *     sequentially
+     * @param jmxConnectionPool pool that spreads the calls of beans scraped in parallel over several
+     *     remote connections, or null to use a single connection. Only used together with the
+     *     jmxConnectionManager and the beanScrapeExecutor
+     */
+    public JmxScraper(
+            String jmxUrl,
+            String username,
+            String password,
+            SslProperties sslProperties,
+            List<ObjectName> includeObjectNames,
+            List<ObjectName> excludeObjectNames,
+            boolean excludeJvmMetrics,
+            ObjectNameAttributeFilter objectNameAttributeFilter,
+            List<JmxCollector.MetricCustomizer> metricCustomizers,
+            MBeanReceiver receiver,
+            JmxMBeanPropertyCache jmxMBeanPropertyCache,
+            MBeanInfoCache mBeanInfoCache,
+            MBeanNameIndex mBeanNameIndex,
+            JmxConnectionManager jmxConnectionManager,
+            MBeanRefreshTracker mBeanRefreshTracker,
+            RuleBasedAttributeFilter ruleBasedAttributeFilter,
+            NegativeMatchFilter negativeMatchFilter,
+            ExecutorService beanScrapeExecutor,
+            JmxConnectionPool jmxConnectionPool) {
         this.jmxUrl = jmxUrl;
         this.receiver = receiver;
         this.username = username;
@@ -162,101 +306,396 @@ class JmxScraper {
         this.metricCustomizers = metricCustomizers;
         this.objectNameAttributeFilter = objectNameAttributeFilter;
         this.jmxMBeanPropertyCache = jmxMBeanPropertyCache;
+        this.mBeanInfoCache = mBeanInfoCache;
+        this.mBeanNameIndex = mBeanNameIndex;
+        this.jmxConnectionManager = jmxConnectionManager;
+        this.mBeanRefreshTracker = mBeanRefreshTracker;
+        this.ruleBasedAttributeFilter = ruleBasedAttributeFilter;
+        this.negativeMatchFilter = negativeMatchFilter;
+        this.beanScrapeExecutor = beanScrapeExecutor;
+        this.jmxConnectionPool = jmxConnectionPool;
     }
 
     /**
      * Get a list of mbeans on host_port and scrape their values.
      *
-     * <p>Values are passed to the receiver in a single thread.
+     * <p>Values are passed to the receiver in a single thread. When a bean scrape executor is
+     * configured, beans are scraped concurrently into receivers created by {@link
+     * MBeanReceiver#fork()}, which are joined back in the same order as a sequential scrape.
      */
     public void doScrape() throws Exception {
         MBeanServerConnection beanConn;
         JMXConnector jmxc = null;
+        boolean longLivedConnection = true;
+        List<Object> settings = Arrays.asList(username, password, sslProperties);
         if (jmxUrl.isEmpty()) {
             beanConn = ManagementFactory.getPlatformMBeanServer();
+        } else if (jmxConnectionManager != null) {
+            beanConn = jmxConnectionManager.getConnection(jmxUrl, settings, new JmxConnectionManager.Connector() {
+                @Override
+                public JMXConnector connect() throws IOException {
+                    JMXConnector connector = JmxScraper.this.connect();
+                    // Lost notifications mean lost unregistrations
+                    if (mBeanNameIndex != null) {
+                        connector.addConnectionNotificationListener(mBeanNameIndex, null, null);
+                    }
+                    if (mBeanInfoCache != null) {
+                        connector.addConnectionNotificationListener(mBeanInfoCache, null, null);
+                    }
+                    return connector;
+                }
+
+                @Override
+                public void disconnected() {
+                    if (sslProperties.enabled) {
+                        ProviderUtils.remove();
+                    }
+                }
+            });
         } else {
-            Map<String, Object> environment = new HashMap<>();
-            if (username != null && !username.isEmpty() && password != null && !password.isEmpty()) {
-                String[] credentials = new String[] {username, password};
-                environment.put(JMXConnector.CREDENTIALS, credentials);
+            jmxc = connect();
+            jmxConnector = jmxc;
+            beanConn = jmxc.getMBeanServerConnection();
+            longLivedConnection = false;
+        }
+
+        if (longLivedConnection && mBeanInfoCache != null) {
+            // The connection lives as long as the cache, so unregistrations can be tracked as
+            // they happen
+            mBeanInfoCache.subscribe(beanConn);
+        }
+        // Beans may be scraped over pooled connections, the MBeanInfo cache belongs to this one
+        primaryConnection = beanConn;
+
+        try {
+            Set<ObjectName> mBeanNames;
+            if (mBeanNameIndex != null && longLivedConnection) {
+                mBeanNames = mBeanNameIndex.getMBeanNames(
+                        beanConn, includeObjectNames, excludeObjectNames, excludeJvmMetrics);
+            } else {
+                mBeanNames = queryMBeanNames(beanConn, includeObjectNames, excludeObjectNames, excludeJvmMetrics);
             }
-            if (sslProperties.enabled) {
-                environment.put(Context.SECURITY_PROTOCOL, "ssl");
 
-                SSLFactory sslFactory = createSslFactory();
-                ProviderUtils.configure(sslFactory);
+            // Now that we have *only* the whitelisted mBeans, remove any old ones from the cache
+            // and dynamic attribute filter:
+            jmxMBeanPropertyCache.onlyKeepMBeans(mBeanNames);
+            objectNameAttributeFilter.onlyKeepMBeans(mBeanNames);
+            if (mBeanInfoCache != null) {
+                mBeanInfoCache.onlyKeepMBeans(mBeanNames);
+            }
 
-                SslRMIClientSocketFactory clientSocketFactory = new SslRMIClientSocketFactory();
-                environment.put(RMIConnectorServer.RMI_CLIENT_SOCKET_FACTORY_ATTRIBUTE, clientSocketFactory);
-                if (!"true".equalsIgnoreCase(System.getenv("RMI_REGISTRY_SSL_DISABLED"))) {
-                    environment.put("com.sun.jndi.rmi.factory.socket", clientSocketFactory);
-                }
+            if (mBeanRefreshTracker != null) {
+                mBeanRefreshTracker.onlyKeepMBeans(mBeanNames);
             }
 
-            jmxc = JMXConnectorFactory.connect(new JMXServiceURL(jmxUrl), environment);
-            beanConn = jmxc.getMBeanServerConnection();
-        }
-        try {
-            // Query MBean names, see #89 for reasons queryMBeans() is used instead of queryNames()
-            Set<ObjectName> mBeanNames = new HashSet<>();
-            // Track beans from explicit (non-null) include patterns so they can be
-            // re-added after JVM exclusion without additional JMX queries.
-            Set<ObjectName> explicitIncludeBeans = new HashSet<>();
-            for (ObjectName name : includeObjectNames) {
-                for (ObjectInstance instance : beanConn.queryMBeans(name, null)) {
-                    ObjectName objectName = instance.getObjectName();
-                    mBeanNames.add(objectName);
-                    if (name != null) {
-                        explicitIncludeBeans.add(objectName);
+            if (ruleBasedAttributeFilter != null) {
+                ruleBasedAttributeFilter.onlyKeepMBeans(mBeanNames);
+            }
+
+            if (negativeMatchFilter != null) {
+                negativeMatchFilter.onlyKeepMBeans(mBeanNames);
+            }
+
+            receiver.onlyKeepMBeans(mBeanNames);
+
+            if (beanScrapeExecutor == null) {
+                int scraped = 0;
+                try {
+                    for (ObjectName objectName : mBeanNames) {
+                        checkCancelled();
+                        scrapeOrReplayBean(beanConn, objectName, receiver);
+                        receiver.endBean(objectName);
+                        scraped++;
                     }
+                } catch (CancellationException e) {
+                    abandonedBeans = mBeanNames.size() - scraped;
+                    throw e;
                 }
+            } else if (jmxConnectionPool != null && longLivedConnection && !jmxUrl.isEmpty()) {
+                scrapeBeansInParallel(
+                        jmxConnectionPool.getConnection(
+                                beanConn, jmxUrl, settings, new JmxConnectionManager.Connector() {
+                                    @Override
+                                    public JMXConnector connect() throws IOException {
+                                        return JmxScraper.this.connect();
+                                    }
+
+                                    @Override
+                                    public void disconnected() {
+                                        // The SSL provider is removed once the primary connection is closed
+                                    }
+                                }),
+                        mBeanNames);
+            } else {
+                scrapeBeansInParallel(beanConn, mBeanNames);
+            }
+        } catch (IOException e) {
+            if (jmxConnectionManager != null && !jmxUrl.isEmpty()) {
+                jmxConnectionManager.invalidate();
             }
+            throw e;
+        } finally {
+            if (jmxc != null) {
+                jmxc.close();
 
-            for (ObjectName name : excludeObjectNames) {
-                for (ObjectInstance instance : beanConn.queryMBeans(name, null)) {
-                    ObjectName objectName = instance.getObjectName();
-                    explicitIncludeBeans.remove(objectName);
-                    mBeanNames.remove(objectName);
+                if (sslProperties.enabled) {
+                    ProviderUtils.remove();
                 }
             }
+        }
+    }
 
-            if (excludeJvmMetrics) {
-                // Remove JVM beans in-memory (no extra JMX queries).
-                Iterator<ObjectName> iterator = mBeanNames.iterator();
-                while (iterator.hasNext()) {
-                    ObjectName bean = iterator.next();
-                    for (ObjectName jvmPattern : JVM_EXCLUDE_OBJECT_NAMES) {
-                        if (jvmPattern.apply(bean)) {
-                            iterator.remove();
-                            break;
-                        }
-                    }
+    /**
+     * Method to cancel the scrape from another thread, for example after it timed out. The scrape
+     * stops at the next bean, or the next value of the bean being scraped, and throws a
+     * CancellationException. The remote connection is closed, so calls blocked on it fail instead
+     * of holding up the scrape.
+     */
+    public void cancel() {
+        cancelled = true;
+        JMXConnector connector = jmxConnector;
+        if (connector != null) {
+            try {
+                connector.close();
+            } catch (IOException e) {
+                LOGGER.trace("Closing connection to %s failed: %s", jmxUrl, e.getMessage());
+            }
+        } else if (jmxConnectionManager != null && !jmxUrl.isEmpty()) {
+            jmxConnectionManager.abort();
+            if (jmxConnectionPool != null) {
+                jmxConnectionPool.abort();
+            }
+        }
+    }
+
+    /**
+     * Method to check if the scrape was cancelled
+     *
+     * @return true if the scrape was cancelled, else false
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Method to get the number of selected beans that were not scraped because the scrape was
+     * cancelled
+     *
+     * @return the number of abandoned beans
+     */
+    public int getAbandonedBeans() {
+        return abandonedBeans;
+    }
+
+    private boolean isCancellationRequested() {
+        return cancelled || Thread.currentThread().isInterrupted();
+    }
+
+    private void checkCancelled() {
+        if (isCancellationRequested()) {
+            cancelled = true;
+            throw new CancellationException("Scrape cancelled");
+        }
+    }
+
+    private JMXConnector connect() throws IOException {
+        Map<String, Object> environment = new HashMap<>();
+        if (username != null && !username.isEmpty() && password != null && !password.isEmpty()) {
+            String[] credentials = new String[] {username, password};
+            environment.put(JMXConnector.CREDENTIALS, credentials);
+        }
+        if (sslProperties.enabled) {
+            environment.put(Context.SECURITY_PROTOCOL, "ssl");
+
+            SSLFactory sslFactory = createSslFactory();
+            ProviderUtils.configure(sslFactory);
+
+            SslRMIClientSocketFactory clientSocketFactory = new SslRMIClientSocketFactory();
+            environment.put(RMIConnectorServer.RMI_CLIENT_SOCKET_FACTORY_ATTRIBUTE, clientSocketFactory);
+            if (!"true".equalsIgnoreCase(System.getenv("RMI_REGISTRY_SSL_DISABLED"))) {
+                environment.put("com.sun.jndi.rmi.factory.socket", clientSocketFactory);
+            }
+        }
+
+        return JMXConnectorFactory.connect(new JMXServiceURL(jmxUrl), environment);
+    }
+
+    /**
+     * Method to query the names of the mBeans selected by the include and exclude patterns
+     *
+     * @param beanConn beanConn
+     * @param includeObjectNames includeObjectNames
+     * @param excludeObjectNames excludeObjectNames
+     * @param excludeJvmMetrics excludeJvmMetrics
+     * @return the set of selected mBean names
+     * @throws IOException IOException
+     */
+    static Set<ObjectName> queryMBeanNames(
+            MBeanServerConnection beanConn,
+            List<ObjectName> includeObjectNames,
+            List<ObjectName> excludeObjectNames,
+            boolean excludeJvmMetrics)
+            throws IOException {
+        // Query MBean names, see #89 for reasons queryMBeans() is used instead of queryNames()
+        Set<ObjectName> mBeanNames = new HashSet<>();
+        // Track beans from explicit (non-null) include patterns so they can be
+        // re-added after JVM exclusion without additional JMX queries.
+        Set<ObjectName> explicitIncludeBeans = new HashSet<>();
+        for (ObjectName name : includeObjectNames) {
+            for (ObjectInstance instance : beanConn.queryMBeans(name, null)) {
+                ObjectName objectName = instance.getObjectName();
+                mBeanNames.add(objectName);
+                if (name != null) {
+                    explicitIncludeBeans.add(objectName);
                 }
+            }
+        }
 
-                // Re-add beans from explicit include patterns that were removed
-                // by JVM exclusion but not by user-specified excludes (those were
-                // already removed from explicitIncludeBeans above).
-                mBeanNames.addAll(explicitIncludeBeans);
+        for (ObjectName name : excludeObjectNames) {
+            for (ObjectInstance instance : beanConn.queryMBeans(name, null)) {
+                ObjectName objectName = instance.getObjectName();
+                explicitIncludeBeans.remove(objectName);
+                mBeanNames.remove(objectName);
             }
+        }
 
-            // Now that we have *only* the whitelisted mBeans, remove any old ones from the cache
-            // and dynamic attribute filter:
-            jmxMBeanPropertyCache.onlyKeepMBeans(mBeanNames);
-            objectNameAttributeFilter.onlyKeepMBeans(mBeanNames);
+        if (excludeJvmMetrics) {
+            // Remove JVM beans in-memory (no extra JMX queries).
+            mBeanNames.removeIf(JmxScraper::isJvmMBean);
+
+            // Re-add beans from explicit include patterns that were removed
+            // by JVM exclusion but not by user-specified excludes (those were
+            // already removed from explicitIncludeBeans above).
+            mBeanNames.addAll(explicitIncludeBeans);
+        }
+
+        return mBeanNames;
+    }
+
+    /**
+     * Method to determine whether a single mBean is selected by the include and exclude patterns.
+     * Gives the same result as checking membership of {@link #queryMBeanNames(MBeanServerConnection,
+     * List, List, boolean)} for a registered mBean, without querying the MBeanServer.
+     *
+     * @param objectName objectName
+     * @param includeObjectNames includeObjectNames
+     * @param excludeObjectNames excludeObjectNames
+     * @param excludeJvmMetrics excludeJvmMetrics
+     * @return true if the mBean is selected, else false
+     */
+    static boolean isSelected(
+            ObjectName objectName,
+            List<ObjectName> includeObjectNames,
+            List<ObjectName> excludeObjectNames,
+            boolean excludeJvmMetrics) {
+        boolean included = false;
+        boolean explicitlyIncluded = false;
+        for (ObjectName name : includeObjectNames) {
+            if (name == null) {
+                included = true;
+            } else if (name.apply(objectName)) {
+                included = true;
+                explicitlyIncluded = true;
+                break;
+            }
+        }
+        if (!included) {
+            return false;
+        }
+
+        for (ObjectName name : excludeObjectNames) {
+            if (name == null || name.apply(objectName)) {
+                return false;
+            }
+        }
+
+        return !excludeJvmMetrics || explicitlyIncluded || !isJvmMBean(objectName);
+    }
 
+    private static boolean isJvmMBean(ObjectName objectName) {
+        for (ObjectName jvmPattern : JVM_EXCLUDE_OBJECT_NAMES) {
+            if (jvmPattern.apply(objectName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scrapes the beans on the bean scrape executor, each one into its own forked receiver, and
+     * joins the forked receivers in iteration order so the output is independent of scheduling.
+     */
+    private void scrapeBeansInParallel(MBeanServerConnection beanConn, Set<ObjectName> mBeanNames) throws Exception {
+        List<Future<MBeanReceiver>> futures = new ArrayList<>(mBeanNames.size());
+        int joined = 0;
+        try {
             for (ObjectName objectName : mBeanNames) {
-                long start = System.nanoTime();
-                scrapeBean(beanConn, objectName);
-                LOGGER.trace("TIME: %d ns for %s", System.nanoTime() - start, objectName);
+                futures.add(beanScrapeExecutor.submit(() -> {
+                    checkCancelled();
+                    MBeanReceiver beanReceiver = receiver.fork();
+                    scrapeOrReplayBean(beanConn, objectName, beanReceiver);
+                    return beanReceiver;
+                }));
+            }
+            Iterator<ObjectName> joinedNames = mBeanNames.iterator();
+            for (Future<MBeanReceiver> future : futures) {
+                checkCancelled();
+                receiver.join(getForkedReceiver(future));
+                receiver.endBean(joinedNames.next());
+                joined++;
             }
+        } catch (CancellationException | InterruptedException e) {
+            cancelled = true;
+            abandonedBeans = mBeanNames.size() - joined;
+            throw e;
         } finally {
-            if (jmxc != null) {
-                jmxc.close();
+            // Only has an effect if a bean failed or the scrape was interrupted
+            for (Future<MBeanReceiver> future : futures) {
+                future.cancel(true);
             }
+        }
+    }
 
-            if (sslProperties.enabled) {
-                ProviderUtils.remove();
+    /**
+     * Scrapes a bean, or replays its last values if the refresh tracker says it is not due yet
+     */
+    private void scrapeOrReplayBean(MBeanServerConnection beanConn, ObjectName objectName, MBeanReceiver beanReceiver) {
+        beanReceiver.startBean(objectName);
+        long start = System.nanoTime();
+        if (mBeanRefreshTracker != null && mBeanRefreshTracker.replay(objectName, start, beanReceiver)) {
+            LOGGER.trace("%s not due, replayed last values", objectName);
+            return;
+        }
+
+        MBeanValueBuffer values = null;
+        if (mBeanRefreshTracker != null && mBeanRefreshTracker.isBuffered(objectName)) {
+            values = new MBeanValueBuffer();
+        }
+
+        scrapeBean(beanConn, objectName, values != null ? values : beanReceiver);
+        long end = System.nanoTime();
+        LOGGER.trace("TIME: %d ns for %s", end - start, objectName);
+
+        if (mBeanRefreshTracker != null) {
+            mBeanRefreshTracker.record(objectName, end, end - start, values);
+        }
+        if (values != null) {
+            values.replay(beanReceiver);
+        }
+    }
+
+    private static MBeanReceiver getForkedReceiver(Future<MBeanReceiver> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw e;
         }
     }
 
@@ -314,11 +753,15 @@ class JmxScraper {
         }
     }
 
-    private void scrapeBean(MBeanServerConnection beanConn, ObjectName mBeanName) {
+    private void scrapeBean(MBeanServerConnection beanConn, ObjectName mBeanName, MBeanReceiver receiver) {
         MBeanInfo mBeanInfo;
 
         try {
-            mBeanInfo = beanConn.getMBeanInfo(mBeanName);
+            if (mBeanInfoCache != null) {
+                mBeanInfo = mBeanInfoCache.getMBeanInfo(primaryConnection, beanConn, mBeanName);
+            } else {
+                mBeanInfo = beanConn.getMBeanInfo(mBeanName);
+            }
         } catch (IOException e) {
             LOGGER.trace("%s getMBeanInfo Fail: %s", mBeanName, e);
             return;
@@ -328,6 +771,8 @@ class JmxScraper {
         }
 
         MBeanAttributeInfo[] mBeanAttributeInfos = mBeanInfo.getAttributes();
+        JmxCollector.MetricCustomizer metricCustomizer = getMetricCustomizer(mBeanName);
+        long nowNanos = System.nanoTime();
 
         Map<String, MBeanAttributeInfo> name2MBeanAttributeInfo = new LinkedHashMap<>();
         for (MBeanAttributeInfo mBeanAttributeInfo : mBeanAttributeInfos) {
@@ -337,6 +782,21 @@ class JmxScraper {
                 continue;
             }
 
+            if (ruleBasedAttributeFilter != null
+                    && !ruleBasedAttributeFilter.include(
+                            mBeanName, jmxMBeanPropertyCache.getKeyPropertyList(mBeanName), mBeanAttributeInfo)
+                    && !isAttributeAsLabel(metricCustomizer, attributeName)) {
+                LOGGER.trace("%s_%s can't match any rule", mBeanName, attributeName);
+                continue;
+            }
+
+            if (negativeMatchFilter != null
+                    && negativeMatchFilter.exclude(mBeanName, attributeName, nowNanos)
+                    && !isAttributeAsLabel(metricCustomizer, attributeName)) {
+                LOGGER.trace("%s_%s produced no sample recently", mBeanName, attributeName);
+                continue;
+            }
+
             if (objectNameAttributeFilter.exclude(mBeanName, attributeName)) {
                 continue;
             }
@@ -369,25 +829,26 @@ class JmxScraper {
             LOGGER.warn("%s getAttributes Fail: processing one by one: %s", mBeanName, e.getMessage());
 
             // couldn't get them all in one go, try them 1 by 1
-            processAttributesOneByOne(beanConn, mBeanName, name2MBeanAttributeInfo);
+            processAttributesOneByOne(beanConn, mBeanName, name2MBeanAttributeInfo, receiver);
             return;
         }
 
         final String mBeanNameString = mBeanName.toString();
+        MBeanValueFlattener flattener =
+                new MBeanValueFlattener(objectNameAttributeFilter, this::isCancellationRequested);
         final String mBeanDomain = mBeanName.getDomain();
-        JmxCollector.MetricCustomizer metricCustomizer = getMetricCustomizer(mBeanName);
         Map<String, String> attributesAsLabelsWithValues = Collections.emptyMap();
         if (metricCustomizer != null) {
             if (metricCustomizer.attributesAsLabels != null) {
                 attributesAsLabelsWithValues = getAttributesAsLabelsWithValues(metricCustomizer, attributes);
             }
             for (JmxCollector.ExtraMetric extraMetric : getExtraMetrics(metricCustomizer)) {
-                processBeanValue(
+                flattener.flatten(
+                        receiver,
                         mBeanName,
                         mBeanDomain,
                         jmxMBeanPropertyCache.getKeyPropertyList(mBeanName),
                         attributesAsLabelsWithValues,
-                        new ArrayList<>(),
                         extraMetric.name,
                         "UNKNOWN",
                         extraMetric.description,
@@ -422,16 +883,23 @@ class JmxScraper {
                     continue;
                 }
                 LOGGER.trace("%s_%s process", mBeanName, mBeanAttributeInfo.getName());
-                processBeanValue(
+                int sampleCount = receiver.getSampleCount();
+                flattener.flatten(
+                        receiver,
                         mBeanName,
                         mBeanDomain,
                         jmxMBeanPropertyCache.getKeyPropertyList(mBeanName),
                         attributesAsLabelsWithValues,
-                        new ArrayList<>(),
                         attributeName,
                         mBeanAttributeInfo.getType(),
                         mBeanAttributeInfo.getDescription(),
                         attribute.getValue());
+                if (negativeMatchFilter != null
+                        && sampleCount >= 0
+                        && !isAttributeAsLabel(metricCustomizer, attributeName)) {
+                    negativeMatchFilter.record(
+                            mBeanName, attributeName, receiver.getSampleCount() > sampleCount, nowNanos);
+                }
             } else if (object == null) {
                 LOGGER.trace("%s object is NULL, not an instance Attribute, skipping", mBeanName);
             } else {
@@ -442,6 +910,12 @@ class JmxScraper {
         }
     }
 
+    private static boolean isAttributeAsLabel(JmxCollector.MetricCustomizer metricCustomizer, String attributeName) {
+        return metricCustomizer != null
+                && metricCustomizer.attributesAsLabels != null
+                && metricCustomizer.attributesAsLabels.contains(attributeName);
+    }
+
     private List<JmxCollector.ExtraMetric> getExtraMetrics(JmxCollector.MetricCustomizer metricCustomizer) {
         return metricCustomizer.extraMetrics != null ? metricCustomizer.extraMetrics : Collections.emptyList();
     }
@@ -481,7 +955,12 @@ class JmxScraper {
     }
 
     private void processAttributesOneByOne(
-            MBeanServerConnection beanConn, ObjectName mbeanName, Map<String, MBeanAttributeInfo> name2AttrInfo) {
+            MBeanServerConnection beanConn,
+            ObjectName mbeanName,
+            Map<String, MBeanAttributeInfo> name2AttrInfo,
+            MBeanReceiver receiver) {
+        MBeanValueFlattener flattener =
+                new MBeanValueFlattener(objectNameAttributeFilter, this::isCancellationRequested);
         Object value;
         for (MBeanAttributeInfo attr : name2AttrInfo.values()) {
             String attributeName = attr.getName();
@@ -493,12 +972,12 @@ class JmxScraper {
             }
 
             LOGGER.trace("%s_%s process", mbeanName, attributeName);
-            processBeanValue(
+            flattener.flatten(
+                    receiver,
                     mbeanName,
                     mbeanName.getDomain(),
                     jmxMBeanPropertyCache.getKeyPropertyList(mbeanName),
-                    new HashMap<>(),
-                    new ArrayList<>(),
+                    Collections.emptyMap(),
                     attributeName,
                     attr.getType(),
                     attr.getDescription(),
@@ -506,183 +985,10 @@ class JmxScraper {
         }
     }
 
-    /**
-     * Recursive function for exporting the values of an mBean. JMX is a very open technology,
-     * without any prescribed way of declaring mBeans so this function tries to do a best-effort
-     * pass of getting the values/names out in a way it can be processed elsewhere easily.
-     */
-    private void processBeanValue(
-            ObjectName objectName,
-            String domain,
-            LinkedHashMap<String, String> beanProperties,
-            Map<String, String> attributesAsLabelsWithValues,
-            List<String> attrKeys,
-            String attrName,
-            String attrType,
-            String attrDescription,
-            Object value) {
-        if (value == null) {
-            LOGGER.trace("%s%s%s scrape: null", domain, beanProperties, attrName);
-        } else if (value instanceof Number
-                || value instanceof String
-                || value instanceof Boolean
-                || value instanceof Date) {
-            if (value instanceof Date) {
-                attrType = "java.lang.Double";
-                value = ((Date) value).getTime() / 1000.0;
-            }
-            LOGGER.trace("%s%s%s scrape: %s", domain, beanProperties, attrName, value);
-            this.receiver.recordBean(
-                    domain,
-                    beanProperties,
-                    attributesAsLabelsWithValues,
-                    attrKeys,
-                    attrName,
-                    attrType,
-                    attrDescription,
-                    value);
-        } else if (value instanceof CompositeData) {
-            LOGGER.trace("%s%s%s scrape: compositedata", domain, beanProperties, attrName);
-            CompositeData composite = (CompositeData) value;
-            CompositeType type = composite.getCompositeType();
-            attrKeys = new ArrayList<>(attrKeys);
-            attrKeys.add(attrName);
-            for (String key : type.keySet()) {
-                String typeName = type.getType(key).getTypeName();
-                Object compositeValue = composite.get(key);
-                processBeanValue(
-                        objectName,
-                        domain,
-                        beanProperties,
-                        attributesAsLabelsWithValues,
-                        attrKeys,
-                        key,
-                        typeName,
-                        type.getDescription(),
-                        compositeValue);
-            }
-        } else if (value instanceof TabularData) {
-            // I don't pretend to have a good understanding of TabularData.
-            // The real world usage doesn't appear to match how they were
-            // meant to be used according to the docs. I've only seen them
-            // used as 'key' 'value' pairs even when 'value' is itself a
-            // CompositeData of multiple values.
-            LOGGER.trace("%s%s%s scrape: tabulardata", domain, beanProperties, attrName);
-            TabularData tds = (TabularData) value;
-            TabularType tt = tds.getTabularType();
-
-            List<String> rowKeys = tt.getIndexNames();
-
-            CompositeType type = tt.getRowType();
-            Set<String> valueKeys = new TreeSet<>(type.keySet());
-            rowKeys.forEach(valueKeys::remove);
-
-            List<String> extendedAttrKeys = new ArrayList<>(attrKeys);
-            extendedAttrKeys.add(attrName);
-            for (Object compositeDataValue : tds.values()) {
-                if (compositeDataValue instanceof CompositeData) {
-                    CompositeData composite = (CompositeData) compositeDataValue;
-                    LinkedHashMap<String, String> l2s = new LinkedHashMap<>(beanProperties);
-                    for (String idx : rowKeys) {
-                        Object obj = composite.get(idx);
-                        if (obj != null) {
-
-                            // Nested tabulardata will repeat the 'key' label, so
-                            // append a suffix to distinguish each.
-                            int suffixCount = 0;
-                            StringBuilder idxBuilder = new StringBuilder(idx);
-                            while (l2s.containsKey(idxBuilder.toString())) {
-                                idxBuilder.append("_");
-                                suffixCount++;
-                                if (suffixCount > 1000) {
-                                    throw new IllegalStateException(
-                                            "Too many key collisions in TabularData processing");
-                                }
-                            }
-                            idx = idxBuilder.toString();
-
-                            if (obj instanceof CompositeData) {
-                                // TabularData key is a composite key
-                                CompositeData compositeKey = (CompositeData) obj;
-                                CompositeType ct = compositeKey.getCompositeType();
-                                for (final String compositeKeyIdx : ct.keySet()) {
-                                    l2s.put(
-                                            new StringBuilder(idx.length() + 1 + compositeKeyIdx.length())
-                                                    .append(idx)
-                                                    .append('_')
-                                                    .append(compositeKeyIdx)
-                                                    .toString(),
-                                            compositeKey.get(compositeKeyIdx).toString());
-                                }
-                            } else {
-                                // TabularData key is an Open type key
-                                l2s.put(idx, obj.toString());
-                            }
-                        }
-                    }
-                    for (String valueIdx : valueKeys) {
-                        List<String> attrNames = extendedAttrKeys;
-                        String typeName = type.getType(valueIdx).getTypeName();
-                        String name = valueIdx;
-                        if (valueIdx.equalsIgnoreCase("value")) {
-                            // Skip appending 'value' to the name
-                            attrNames = attrKeys;
-                            name = attrName;
-                        }
-                        processBeanValue(
-                                objectName,
-                                domain,
-                                l2s,
-                                attributesAsLabelsWithValues,
-                                attrNames,
-                                name,
-                                typeName,
-                                type.getDescription(),
-                                composite.get(valueIdx));
-                    }
-                } else {
-                    LOGGER.trace("%s scrape: not a correct tabulardata format", domain);
-                }
-            }
-        } else if (value.getClass().isArray()) {
-            LOGGER.trace("%s scrape: arrays are unsupported", domain);
-        } else if (value instanceof Optional) {
-            LOGGER.trace("%s%s%s scrape: Optional", domain, beanProperties, attrName);
-            Optional<?> optional = (Optional<?>) value;
-            if (optional.isPresent()) {
-                processBeanValue(
-                        objectName,
-                        domain,
-                        beanProperties,
-                        attributesAsLabelsWithValues,
-                        attrKeys,
-                        attrName,
-                        attrType,
-                        attrDescription,
-                        optional.get());
-            }
-        } else if (value.getClass().isEnum()) {
-            LOGGER.trace("%s%s%s scrape: %s", domain, beanProperties, attrName, value);
-            processBeanValue(
-                    objectName,
-                    domain,
-                    beanProperties,
-                    attributesAsLabelsWithValues,
-                    attrKeys,
-                    attrName,
-                    attrType,
-                    attrDescription,
-                    value.toString());
-        } else {
-            objectNameAttributeFilter.add(objectName, attrName);
-            LOGGER.trace("%s%s scrape: %s not exported", domain, beanProperties, attrType);
-        }
-    }
-
     private static class StdoutWriter implements MBeanReceiver {
         public void recordBean(
                 String domain,
-                LinkedHashMap<String, String> beanProperties,
+                Map<String, String> beanProperties,
                 Map<String, String> attributesAsLabelsWithValues,
                 List<String> attrKeys,
                 String attrName,
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable, compact map of the key properties of an mBean, in the order they appear in the
+ * ObjectName. Keys and values are interned, so the property names and values shared by many mBeans
+ * ("type", "topic", partition numbers) are only stored once.
+ *
+ * <p>Equality, hash code and toString() are the same as for a LinkedHashMap with the same entries.
+ */
+final class KeyProperties extends AbstractMap<String, String> {
+
+    /**
+     * KeyProperties without any property
+     */
+    static final KeyProperties EMPTY = new KeyProperties(new String[0], new String[0]);
+
+    private final String[] keys;
+    private final String[] values;
+    private final int hashCode;
+    private String string;
+
+    private KeyProperties(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+        int hash = 0;
+        for (int i = 0; i < keys.length; i++) {
+            hash += keys[i].hashCode() ^ values[i].hashCode();
+        }
+        this.hashCode = hash;
+    }
+
+    /**
+     * Method to parse the key properties of an ObjectName
+     *
+     * @param keyPropertyListString the key property list, as returned by
+     *     ObjectName.getKeyPropertyListString()
+     * @return the key properties
+     */
+    static KeyProperties parse(String keyPropertyListString) {
+        int length = keyPropertyListString.length();
+        int count = 0;
+        String[] keys = new String[4];
+        String[] values = new String[4];
+
+        int position = 0;
+        while (position < length) {
+            // Name - non-empty, anything but comma, equals, colon, star, or question mark
+            int nameEnd = position;
+            while (nameEnd < length && "=,:*?".indexOf(keyPropertyListString.charAt(nameEnd)) < 0) {
+                nameEnd++;
+            }
+            if (nameEnd == position || nameEnd == length || keyPropertyListString.charAt(nameEnd) != '=') {
+                break;
+            }
+
+            int valueStart = nameEnd + 1;
+            int valueEnd = valueStart;
+            if (valueStart < length && keyPropertyListString.charAt(valueStart) == '"') {
+                // Quoted - anything up to the closing quote, skipping escaped characters
+                valueEnd = valueStart + 1;
+                while (valueEnd < length && keyPropertyListString.charAt(valueEnd) != '"') {
+                    valueEnd += keyPropertyListString.charAt(valueEnd) == '\\' ? 2 : 1;
+                }
+                if (valueEnd >= length) {
+                    // Unterminated quote, the value is empty
+                    valueEnd = valueStart;
+                } else {
+                    valueEnd++;
+                }
+            } else {
+                // Unquoted - can be empty, anything but comma, equals, colon, or quote
+                while (valueEnd < length && ",=:\"".indexOf(keyPropertyListString.charAt(valueEnd)) < 0) {
+                    valueEnd++;
+                }
+            }
+
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            keys[count] = keyPropertyListString.substring(position, nameEnd).intern();
+            values[count] =
+                    keyPropertyListString.substring(valueStart, valueEnd).intern();
+            count++;
+
+            position = valueEnd;
+            if (position < length && keyPropertyListString.charAt(position) == ',') {
+                position++;
+            } else {
+                break;
+            }
+        }
+
+        if (count == 0) {
+            return EMPTY;
+        }
+        return new KeyProperties(Arrays.copyOf(keys, count), Arrays.copyOf(values, count));
+    }
+
+    /**
+     * Method to get KeyProperties with the same entries as a map
+     *
+     * @param map the map
+     * @return the map itself if it is KeyProperties, else a copy of it
+     */
+    static KeyProperties copyOf(Map<String, String> map) {
+        if (map instanceof KeyProperties) {
+            return (KeyProperties) map;
+        }
+        if (map.isEmpty()) {
+            return EMPTY;
+        }
+        String[] keys = new String[map.size()];
+        String[] values = new String[map.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            keys[i] = entry.getKey().intern();
+            values[i] = entry.getValue().intern();
+            i++;
+        }
+        return new KeyProperties(keys, values);
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (index >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<String, String> entry = new SimpleImmutableEntry<>(keys[index], values[index]);
+                        index++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof KeyProperties) {
+            KeyProperties other = (KeyProperties) o;
+            if (hashCode != other.hashCode || keys.length != other.keys.length) {
+                return false;
+            }
+            // Interned strings of the same ObjectNames are identical, and in the same order
+            boolean sameOrder = true;
+            for (int i = 0; i < keys.length && sameOrder; i++) {
+                sameOrder = Objects.equals(keys[i], other.keys[i]) && Objects.equals(values[i], other.values[i]);
+            }
+            if (sameOrder) {
+                return true;
+            }
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        String result = string;
+        if (result == null) {
+            result = super.toString();
+            string = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.Descriptor;
+import javax.management.JMException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+import javax.management.remote.JMXConnectionNotification;
+
+/**
+ * This object stores a mapping of mBean objectNames to their MBeanInfo. The main purpose of it is
+ * to avoid calling getMBeanInfo, which is expensive locally and the largest payload over RMI, on
+ * every scrape.
+ *
+ * <p>Only MBeanInfo that declares itself immutable (the "immutableInfo" descriptor field) is
+ * cached, and only for the connection subscribed to with {@link #subscribe(MBeanServerConnection)}.
+ * The MBeanInfo may be queried over another connection to the same MBeanServer, such as a pooled
+ * one, as long as the subscribed connection is the primary connection of the scrape.
+ * Entries are removed when the mBean is unregistered, through an MBeanServer notification, or the
+ * next time {@link #onlyKeepMBeans(Set)} runs. A connection per scrape can't report an mBean that
+ * was unregistered and registered again between two scrapes, possibly with other attributes, so
+ * its MBeanInfo isn't cached.
+ */
+class MBeanInfoCache implements NotificationListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MBeanInfoCache.class);
+
+    private static final String IMMUTABLE_INFO = "immutableInfo";
+
+    private final Map<ObjectName, MBeanInfo> mBeanInfoPerBean;
+    private volatile MBeanServerConnection subscribedConnection;
+
+    /**
+     * Constructor
+     */
+    public MBeanInfoCache() {
+        this.mBeanInfoPerBean = new ConcurrentHashMap<>();
+    }
+
+    Map<ObjectName, MBeanInfo> getMBeanInfoPerBean() {
+        return mBeanInfoPerBean;
+    }
+
+    /**
+     * Method to get the MBeanInfo of an mBean, from the cache if possible
+     *
+     * @param beanConn the connection to use if the MBeanInfo isn't cached, the cache is only used
+     *     for the subscribed connection
+     * @param mBeanName the mBean name
+     * @return the MBeanInfo
+     * @throws IOException IOException
+     * @throws JMException JMException
+     */
+    public MBeanInfo getMBeanInfo(MBeanServerConnection beanConn, ObjectName mBeanName)
+            throws IOException, JMException {
+        return getMBeanInfo(beanConn, beanConn, mBeanName);
+    }
+
+    /**
+     * Method to get the MBeanInfo of an mBean, from the cache if possible
+     *
+     * @param primaryConn the primary connection of the scrape, the cache is only used if it is
+     *     the subscribed connection
+     * @param beanConn the connection to use if the MBeanInfo isn't cached, to the same MBeanServer
+     *     as the primary connection
+     * @param mBeanName the mBean name
+     * @return the MBeanInfo
+     * @throws IOException IOException
+     * @throws JMException JMException
+     */
+    public MBeanInfo getMBeanInfo(
+            MBeanServerConnection primaryConn, MBeanServerConnection beanConn, ObjectName mBeanName)
+            throws IOException, JMException {
+        if (primaryConn != subscribedConnection) {
+            return beanConn.getMBeanInfo(mBeanName);
+        }
+
+        MBeanInfo mBeanInfo = mBeanInfoPerBean.get(mBeanName);
+        if (mBeanInfo == null) {
+            mBeanInfo = beanConn.getMBeanInfo(mBeanName);
+            if (isImmutable(mBeanInfo)) {
+                mBeanInfoPerBean.put(mBeanName, mBeanInfo);
+            }
+        }
+        return mBeanInfo;
+    }
+
+    /**
+     * Method to subscribe to mBean unregistration notifications of a long-lived connection, so
+     * entries are removed as soon as their mBean goes away. Subscribing to the connection that is
+     * already subscribed is a no-op.
+     *
+     * @param beanConn the connection
+     */
+    public synchronized void subscribe(MBeanServerConnection beanConn) {
+        if (beanConn == subscribedConnection) {
+            return;
+        }
+
+        MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
+        filter.disableType(MBeanServerNotification.REGISTRATION_NOTIFICATION);
+
+        try {
+            beanConn.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+        } catch (IOException | JMException e) {
+            LOGGER.trace("Unable to subscribe to MBeanServer notifications: %s", e.getMessage());
+            return;
+        }
+
+        // Entries added before subscribing may have missed their unregistration
+        mBeanInfoPerBean.clear();
+        subscribedConnection = beanConn;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (notification instanceof MBeanServerNotification
+                && MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            mBeanInfoPerBean.remove(((MBeanServerNotification) notification).getMBeanName());
+        } else if (JMXConnectionNotification.NOTIFS_LOST.equals(notification.getType())) {
+            mBeanInfoPerBean.clear();
+        }
+    }
+
+    /**
+     * Method to only keep "alive" mBeans, remove old mBeans to prevent memory growth
+     *
+     * @param latestBeans latestBeans
+     */
+    public void onlyKeepMBeans(Set<ObjectName> latestBeans) {
+        List<ObjectName> toRemove = new ArrayList<>();
+        for (ObjectName prevName : mBeanInfoPerBean.keySet()) {
+            if (!latestBeans.contains(prevName)) {
+                toRemove.add(prevName);
+            }
+        }
+        for (ObjectName name : toRemove) {
+            mBeanInfoPerBean.remove(name);
+        }
+    }
+
+    private static boolean isImmutable(MBeanInfo mBeanInfo) {
+        Descriptor descriptor = mBeanInfo.getDescriptor();
+        if (descriptor == null) {
+            return false;
+        }
+        Object immutableInfo = descriptor.getFieldValue(IMMUTABLE_INFO);
+        return immutableInfo != null && "true".equalsIgnoreCase(immutableInfo.toString());
+    }
+}
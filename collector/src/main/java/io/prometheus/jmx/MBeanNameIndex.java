@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+import javax.management.remote.JMXConnectionNotification;
+
+/**
+ * This object maintains the set of mBean names selected by the include and exclude patterns. The
+ * main purpose of it is to avoid querying every include and exclude pattern on every scrape, which
+ * is the largest fixed cost of a scrape on a JVM with many mBeans.
+ *
+ * <p>The set is built with a full query once, and then kept up to date with MBeanServer
+ * registration and unregistration notifications. A full query is done again when the connection
+ * or the patterns change, or when notifications may have been lost.
+ */
+class MBeanNameIndex implements NotificationListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MBeanNameIndex.class);
+
+    private final Set<ObjectName> mBeanNames;
+    private MBeanServerConnection subscribedConnection;
+    private volatile Selection selection;
+    private volatile boolean resyncRequired;
+    private Set<ObjectName> registeredDuringResync;
+    private Set<ObjectName> unregisteredDuringResync;
+
+    /**
+     * Constructor
+     */
+    public MBeanNameIndex() {
+        this.mBeanNames = new HashSet<>();
+        this.resyncRequired = true;
+    }
+
+    /**
+     * Method to get the mBean names selected by the include and exclude patterns
+     *
+     * @param beanConn the connection, which must outlive the index to be kept up to date
+     * @param includeObjectNames includeObjectNames
+     * @param excludeObjectNames excludeObjectNames
+     * @param excludeJvmMetrics excludeJvmMetrics
+     * @return a copy of the selected mBean names
+     * @throws IOException IOException
+     */
+    public synchronized Set<ObjectName> getMBeanNames(
+            MBeanServerConnection beanConn,
+            List<ObjectName> includeObjectNames,
+            List<ObjectName> excludeObjectNames,
+            boolean excludeJvmMetrics)
+            throws IOException {
+        if (beanConn != subscribedConnection) {
+            if (!subscribe(beanConn)) {
+                return JmxScraper.queryMBeanNames(beanConn, includeObjectNames, excludeObjectNames, excludeJvmMetrics);
+            }
+            resyncRequired = true;
+        }
+
+        Selection requested = new Selection(includeObjectNames, excludeObjectNames, excludeJvmMetrics);
+        if (!requested.equals(selection)) {
+            selection = requested;
+            resyncRequired = true;
+        }
+
+        if (resyncRequired) {
+            resync(beanConn);
+        }
+
+        synchronized (mBeanNames) {
+            return new HashSet<>(mBeanNames);
+        }
+    }
+
+    /**
+     * Method to force a full query on the next call to {@link #getMBeanNames(MBeanServerConnection,
+     * List, List, boolean)}
+     */
+    public void invalidate() {
+        resyncRequired = true;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if (notification instanceof MBeanServerNotification) {
+            ObjectName mBeanName = ((MBeanServerNotification) notification).getMBeanName();
+            if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(type)) {
+                onRegistration(mBeanName);
+            } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(type)) {
+                onUnregistration(mBeanName);
+            }
+        } else if (JMXConnectionNotification.NOTIFS_LOST.equals(type)
+                || JMXConnectionNotification.FAILED.equals(type)
+                || JMXConnectionNotification.CLOSED.equals(type)) {
+            LOGGER.trace("Resynchronizing mBean names after connection notification %s", type);
+            invalidate();
+        }
+    }
+
+    private boolean subscribe(MBeanServerConnection beanConn) {
+        MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
+
+        try {
+            beanConn.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+        } catch (IOException | JMException e) {
+            LOGGER.trace("Unable to subscribe to MBeanServer notifications: %s", e.getMessage());
+            return false;
+        }
+
+        subscribedConnection = beanConn;
+        return true;
+    }
+
+    private void resync(MBeanServerConnection beanConn) throws IOException {
+        Selection current = selection;
+        synchronized (mBeanNames) {
+            // Cleared first, so notification loss during the query causes another resync
+            resyncRequired = false;
+            registeredDuringResync = new HashSet<>();
+            unregisteredDuringResync = new HashSet<>();
+        }
+
+        Set<ObjectName> queried = null;
+        try {
+            queried = JmxScraper.queryMBeanNames(
+                    beanConn, current.includeObjectNames, current.excludeObjectNames, current.excludeJvmMetrics);
+        } finally {
+            synchronized (mBeanNames) {
+                if (queried == null) {
+                    resyncRequired = true;
+                } else {
+                    // The query result may not include changes made while it ran
+                    mBeanNames.clear();
+                    mBeanNames.addAll(queried);
+                    mBeanNames.addAll(registeredDuringResync);
+                    mBeanNames.removeAll(unregisteredDuringResync);
+                }
+                registeredDuringResync = null;
+                unregisteredDuringResync = null;
+            }
+        }
+    }
+
+    private void onRegistration(ObjectName mBeanName) {
+        Selection current = selection;
+        if (current == null
+                || !JmxScraper.isSelected(
+                        mBeanName, current.includeObjectNames, current.excludeObjectNames, current.excludeJvmMetrics)) {
+            return;
+        }
+        synchronized (mBeanNames) {
+            mBeanNames.add(mBeanName);
+            if (registeredDuringResync != null) {
+                registeredDuringResync.add(mBeanName);
+                unregisteredDuringResync.remove(mBeanName);
+            }
+        }
+    }
+
+    private void onUnregistration(ObjectName mBeanName) {
+        synchronized (mBeanNames) {
+            mBeanNames.remove(mBeanName);
+            if (unregisteredDuringResync != null) {
+                unregisteredDuringResync.add(mBeanName);
+                registeredDuringResync.remove(mBeanName);
+            }
+        }
+    }
+
+    /**
+     * Class to implement the patterns the index was built for
+     */
+    private static class Selection {
+
+        final List<ObjectName> includeObjectNames;
+        final List<ObjectName> excludeObjectNames;
+        final boolean excludeJvmMetrics;
+
+        Selection(List<ObjectName> includeObjectNames, List<ObjectName> excludeObjectNames, boolean excludeJvmMetrics) {
+            this.includeObjectNames = new ArrayList<>(includeObjectNames);
+            this.excludeObjectNames = new ArrayList<>(excludeObjectNames);
+            this.excludeJvmMetrics = excludeJvmMetrics;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Selection)) {
+                return false;
+            }
+            Selection other = (Selection) o;
+            return excludeJvmMetrics == other.excludeJvmMetrics
+                    && includeObjectNames.equals(other.includeObjectNames)
+                    && excludeObjectNames.equals(other.excludeObjectNames);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(includeObjectNames, excludeObjectNames, excludeJvmMetrics);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.ObjectName;
+
+/**
+ * This object keeps a moving average of the time it takes to scrape each mBean, and decides which
+ * mBeans are scraped and which are served their last values. mBeans matching a configured
+ * refresh interval, and mBeans whose average exceeds the budget, are refreshed less often.
+ */
+class MBeanRefreshTracker {
+
+    private static final double ALPHA = 0.3;
+
+    private final long budgetNanos;
+    private final long slowRefreshNanos;
+    private final Map<ObjectName, Long> refreshNanosPerPattern;
+    private final Map<ObjectName, Entry> entries;
+
+    /**
+     * Constructor
+     *
+     * @param budgetNanos the average scrape time above which an mBean is slow, or Long.MAX_VALUE to
+     *     only track the scrape time
+     * @param slowRefreshNanos how often slow mBeans are scraped
+     * @param refreshNanosPerPattern how often mBeans matching an ObjectName pattern are scraped,
+     *     the first matching pattern is used
+     */
+    public MBeanRefreshTracker(long budgetNanos, long slowRefreshNanos, Map<ObjectName, Long> refreshNanosPerPattern) {
+        this.budgetNanos = budgetNanos;
+        this.slowRefreshNanos = slowRefreshNanos;
+        this.refreshNanosPerPattern = refreshNanosPerPattern;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Method to replay the last values of an mBean if it is not due to be scraped
+     *
+     * @param mBeanName the mBean name
+     * @param nowNanos the current System.nanoTime()
+     * @param receiver the receiver to replay the values into
+     * @return true if the values were replayed, false if the mBean must be scraped
+     */
+    public boolean replay(ObjectName mBeanName, long nowNanos, JmxScraper.MBeanReceiver receiver) {
+        Entry entry = entries.get(mBeanName);
+        if (entry == null) {
+            return false;
+        }
+
+        MBeanValueBuffer values;
+        synchronized (entry) {
+            if (entry.values == null || nowNanos - entry.nextRefreshNanos >= 0) {
+                return false;
+            }
+            values = entry.values;
+        }
+
+        values.replay(receiver);
+        return true;
+    }
+
+    /**
+     * Method to determine whether the values of the next scrape of an mBean should be kept
+     *
+     * @param mBeanName the mBean name
+     * @return true if the values should be passed to {@link #record(ObjectName, long, long,
+     *     MBeanValueBuffer)}, else false
+     */
+    public boolean isBuffered(ObjectName mBeanName) {
+        Entry entry = getEntry(mBeanName);
+        synchronized (entry) {
+            return entry.configuredRefreshNanos > 0 || (entry.scrapes > 0 && entry.averageNanos > budgetNanos);
+        }
+    }
+
+    /**
+     * Method to record a scrape of an mBean
+     *
+     * @param mBeanName the mBean name
+     * @param nowNanos the System.nanoTime() at the end of the scrape
+     * @param durationNanos the time the scrape took
+     * @param values the scraped values, or null if they were not buffered
+     */
+    public void record(ObjectName mBeanName, long nowNanos, long durationNanos, MBeanValueBuffer values) {
+        Entry entry = getEntry(mBeanName);
+        synchronized (entry) {
+            entry.averageNanos =
+                    entry.scrapes == 0 ? durationNanos : ALPHA * durationNanos + (1 - ALPHA) * entry.averageNanos;
+            entry.scrapes++;
+            entry.slow = entry.averageNanos > budgetNanos;
+
+            long refreshNanos = entry.configuredRefreshNanos;
+            if (entry.slow) {
+                refreshNanos = Math.max(refreshNanos, slowRefreshNanos);
+            }
+
+            if (refreshNanos == 0) {
+                entry.values = null;
+            } else if (values != null) {
+                entry.values = values;
+                entry.nextRefreshNanos = nowNanos + refreshNanos;
+            }
+        }
+    }
+
+    /**
+     * Method to get the mBeans with the highest average scrape time
+     *
+     * @param count the maximum number of mBeans to return
+     * @return the mBeans and their average scrape time in seconds, slowest first
+     */
+    public List<Map.Entry<ObjectName, Double>> getSlowest(int count) {
+        List<Map.Entry<ObjectName, Double>> averages = new ArrayList<>(entries.size());
+        for (Map.Entry<ObjectName, Entry> entry : entries.entrySet()) {
+            double averageNanos;
+            synchronized (entry.getValue()) {
+                if (entry.getValue().scrapes == 0) {
+                    continue;
+                }
+                averageNanos = entry.getValue().averageNanos;
+            }
+            averages.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), averageNanos / 1.0E9));
+        }
+        averages.sort(Map.Entry.<ObjectName, Double>comparingByValue().reversed());
+        return averages.subList(0, Math.min(count, averages.size()));
+    }
+
+    /**
+     * Method to get the number of mBeans over the budget that are served their last values
+     *
+     * @return the number of slow mBeans
+     */
+    public int getSlowCount() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                if (entry.slow && entry.values != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method to only keep "alive" mBeans, remove old mBeans to prevent memory growth
+     *
+     * @param latestBeans latestBeans
+     */
+    public void onlyKeepMBeans(Set<ObjectName> latestBeans) {
+        entries.keySet().retainAll(latestBeans);
+    }
+
+    private Entry getEntry(ObjectName mBeanName) {
+        Entry entry = entries.get(mBeanName);
+        if (entry == null) {
+            entry = entries.computeIfAbsent(mBeanName, name -> new Entry(getConfiguredRefreshNanos(name)));
+        }
+        return entry;
+    }
+
+    private long getConfiguredRefreshNanos(ObjectName mBeanName) {
+        for (Map.Entry<ObjectName, Long> refreshNanos : refreshNanosPerPattern.entrySet()) {
+            if (refreshNanos.getKey().apply(mBeanName)) {
+                return refreshNanos.getValue();
+            }
+        }
+        return 0;
+    }
+
+    private static class Entry {
+
+        final long configuredRefreshNanos;
+        boolean slow;
+        double averageNanos;
+        long scrapes;
+        long nextRefreshNanos;
+        MBeanValueBuffer values;
+
+        Entry(long configuredRefreshNanos) {
+            this.configuredRefreshNanos = configuredRefreshNanos;
+        }
+    }
+}
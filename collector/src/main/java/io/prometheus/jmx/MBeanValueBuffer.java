@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to implement an MBeanReceiver that buffers the values it receives, so they can be
+ * replayed into another MBeanReceiver later (possibly from another thread)
+ */
+class MBeanValueBuffer implements JmxScraper.MBeanReceiver {
+
+    private final List<Value> values = new ArrayList<>();
+
+    @Override
+    public void recordBean(
+            String domain,
+            Map<String, String> beanProperties,
+            Map<String, String> attributesAsLabelsWithValues,
+            List<String> attrKeys,
+            String attrName,
+            String attrType,
+            String attrDescription,
+            Object value) {
+        // The bean properties and attribute keys are reused by the caller after this returns
+        values.add(new Value(
+                domain,
+                KeyProperties.copyOf(beanProperties),
+                attributesAsLabelsWithValues,
+                attrKeys.isEmpty() ? Collections.emptyList() : new ArrayList<>(attrKeys),
+                attrName,
+                attrType,
+                attrDescription,
+                value));
+    }
+
+    /**
+     * Method to replay the buffered values, in the order they were received
+     *
+     * @param receiver receiver
+     */
+    public void replay(JmxScraper.MBeanReceiver receiver) {
+        for (Value value : values) {
+            receiver.recordBean(
+                    value.domain,
+                    value.beanProperties,
+                    value.attributesAsLabelsWithValues,
+                    value.attrKeys,
+                    value.attrName,
+                    value.attrType,
+                    value.attrDescription,
+                    value.value);
+        }
+    }
+
+    /**
+     * Method to return whether no values have been buffered
+     *
+     * @return true if empty, else false
+     */
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    private static class Value {
+
+        final String domain;
+        final Map<String, String> beanProperties;
+        final Map<String, String> attributesAsLabelsWithValues;
+        final List<String> attrKeys;
+        final String attrName;
+        final String attrType;
+        final String attrDescription;
+        final Object value;
+
+        Value(
+                String domain,
+                Map<String, String> beanProperties,
+                Map<String, String> attributesAsLabelsWithValues,
+                List<String> attrKeys,
+                String attrName,
+                String attrType,
+                String attrDescription,
+                Object value) {
+            this.domain = domain;
+            this.beanProperties = beanProperties;
+            this.attributesAsLabelsWithValues = attributesAsLabelsWithValues;
+            this.attrKeys = attrKeys;
+            this.attrName = attrName;
+            this.attrType = attrType;
+            this.attrDescription = attrDescription;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularType;
+
+/**
+ * Class to flatten the values of an mBean into calls to an MBeanReceiver. JMX is a very open
+ * technology, without any prescribed way of declaring mBeans so this class tries to do a
+ * best-effort pass of getting the values/names out in a way it can be processed elsewhere easily.
+ *
+ * <p>The attribute keys of nested CompositeData are kept on a stack, and the index labels of
+ * TabularData rows are added to and removed from a single map, so the receiver is handed views
+ * that are only valid for the duration of the call. An instance is used by one thread at a time.
+ */
+class MBeanValueFlattener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MBeanValueFlattener.class);
+
+    private final ObjectNameAttributeFilter objectNameAttributeFilter;
+    private final BooleanSupplier cancelled;
+
+    private final ArrayList<String> attrKeys = new ArrayList<>();
+    private final List<String> attrKeysView = Collections.unmodifiableList(attrKeys);
+
+    // The bean properties plus the index labels of the TabularData rows being processed, and the
+    // labels added to it with the values they replaced, so they can be removed after each row
+    private final LinkedHashMap<String, String> rowProperties = new LinkedHashMap<>();
+    private final ArrayList<String> addedLabels = new ArrayList<>();
+    private final ArrayList<String> replacedValues = new ArrayList<>();
+
+    private final StringBuilder labelBuilder = new StringBuilder();
+
+    /**
+     * Constructor
+     *
+     * @param objectNameAttributeFilter filter that attributes with unsupported values are added to
+     */
+    public MBeanValueFlattener(ObjectNameAttributeFilter objectNameAttributeFilter) {
+        this(objectNameAttributeFilter, () -> false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param objectNameAttributeFilter filter that attributes with unsupported values are added to
+     * @param cancelled checked before every attribute and every TabularData row, flattening stops
+     *     with a CancellationException once it returns true
+     */
+    public MBeanValueFlattener(ObjectNameAttributeFilter objectNameAttributeFilter, BooleanSupplier cancelled) {
+        this.objectNameAttributeFilter = objectNameAttributeFilter;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Method to flatten the value of an attribute into the receiver
+     *
+     * @param receiver receiver
+     * @param objectName objectName
+     * @param domain domain
+     * @param beanProperties beanProperties
+     * @param attributesAsLabelsWithValues attributesAsLabelsWithValues
+     * @param attrName attrName
+     * @param attrType attrType
+     * @param attrDescription attrDescription
+     * @param value value
+     */
+    public void flatten(
+            JmxScraper.MBeanReceiver receiver,
+            ObjectName objectName,
+            String domain,
+            Map<String, String> beanProperties,
+            Map<String, String> attributesAsLabelsWithValues,
+            String attrName,
+            String attrType,
+            String attrDescription,
+            Object value) {
+        checkCancelled();
+        attrKeys.clear();
+        process(
+                receiver,
+                objectName,
+                domain,
+                beanProperties,
+                attributesAsLabelsWithValues,
+                attrName,
+                attrType,
+                attrDescription,
+                value);
+    }
+
+    private void process(
+            JmxScraper.MBeanReceiver receiver,
+            ObjectName objectName,
+            String domain,
+            Map<String, String> beanProperties,
+            Map<String, String> attributesAsLabelsWithValues,
+            String attrName,
+            String attrType,
+            String attrDescription,
+            Object value) {
+        if (value == null) {
+            LOGGER.trace("%s%s%s scrape: null", domain, beanProperties, attrName);
+        } else if (value instanceof Number
+                || value instanceof String
+                || value instanceof Boolean
+                || value instanceof Date) {
+            if (value instanceof Date) {
+                attrType = "java.lang.Double";
+                value = ((Date) value).getTime() / 1000.0;
+            }
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("%s%s%s scrape: %s", domain, beanProperties, attrName, value);
+            }
+            receiver.recordBean(
+                    domain,
+                    beanProperties,
+                    attributesAsLabelsWithValues,
+                    attrKeysView,
+                    attrName,
+                    attrType,
+                    attrDescription,
+                    value);
+        } else if (value instanceof CompositeData) {
+            LOGGER.trace("%s%s%s scrape: compositedata", domain, beanProperties, attrName);
+            CompositeData composite = (CompositeData) value;
+            CompositeType type = composite.getCompositeType();
+            attrKeys.add(attrName);
+            for (String key : type.keySet()) {
+                String typeName = type.getType(key).getTypeName();
+                Object compositeValue = composite.get(key);
+                process(
+                        receiver,
+                        objectName,
+                        domain,
+                        beanProperties,
+                        attributesAsLabelsWithValues,
+                        key,
+                        typeName,
+                        type.getDescription(),
+                        compositeValue);
+            }
+            attrKeys.remove(attrKeys.size() - 1);
+        } else if (value instanceof TabularData) {
+            // I don't pretend to have a good understanding of TabularData.
+            // The real world usage doesn't appear to match how they were
+            // meant to be used according to the docs. I've only seen them
+            // used as 'key' 'value' pairs even when 'value' is itself a
+            // CompositeData of multiple values.
+            LOGGER.trace("%s%s%s scrape: tabulardata", domain, beanProperties, attrName);
+            TabularData tds = (TabularData) value;
+            TabularType tt = tds.getTabularType();
+
+            List<String> rowKeys = tt.getIndexNames();
+
+            CompositeType type = tt.getRowType();
+            Set<String> valueKeys = new TreeSet<>(type.keySet());
+            rowKeys.forEach(valueKeys::remove);
+
+            // Nested TabularData adds its labels on top of the labels of the enclosing row
+            if (beanProperties != rowProperties) {
+                rowProperties.clear();
+                rowProperties.putAll(beanProperties);
+            }
+
+            attrKeys.add(attrName);
+            for (Object compositeDataValue : tds.values()) {
+                checkCancelled();
+                if (compositeDataValue instanceof CompositeData) {
+                    CompositeData composite = (CompositeData) compositeDataValue;
+                    int mark = addedLabels.size();
+                    for (String idx : rowKeys) {
+                        Object obj = composite.get(idx);
+                        if (obj != null) {
+
+                            // Nested tabulardata will repeat the 'key' label, so
+                            // append a suffix to distinguish each.
+                            if (rowProperties.containsKey(idx)) {
+                                idx = uniqueLabel(idx);
+                            }
+
+                            if (obj instanceof CompositeData) {
+                                // TabularData key is a composite key
+                                CompositeData compositeKey = (CompositeData) obj;
+                                CompositeType ct = compositeKey.getCompositeType();
+                                for (final String compositeKeyIdx : ct.keySet()) {
+                                    addLabel(
+                                            new StringBuilder(idx.length() + 1 + compositeKeyIdx.length())
+                                                    .append(idx)
+                                                    .append('_')
+                                                    .append(compositeKeyIdx)
+                                                    .toString(),
+                                            compositeKey.get(compositeKeyIdx).toString());
+                                }
+                            } else {
+                                // TabularData key is an Open type key
+                                addLabel(idx, obj.toString());
+                            }
+                        }
+                    }
+                    for (String valueIdx : valueKeys) {
+                        String typeName = type.getType(valueIdx).getTypeName();
+                        Object rowValue = composite.get(valueIdx);
+                        if (valueIdx.equalsIgnoreCase("value")) {
+                            // Skip appending 'value' to the name
+                            attrKeys.remove(attrKeys.size() - 1);
+                            process(
+                                    receiver,
+                                    objectName,
+                                    domain,
+                                    rowProperties,
+                                    attributesAsLabelsWithValues,
+                                    attrName,
+                                    typeName,
+                                    type.getDescription(),
+                                    rowValue);
+                            attrKeys.add(attrName);
+                        } else {
+                            process(
+                                    receiver,
+                                    objectName,
+                                    domain,
+                                    rowProperties,
+                                    attributesAsLabelsWithValues,
+                                    valueIdx,
+                                    typeName,
+                                    type.getDescription(),
+                                    rowValue);
+                        }
+                    }
+                    removeLabels(mark);
+                } else {
+                    LOGGER.trace("%s scrape: not a correct tabulardata format", domain);
+                }
+            }
+            attrKeys.remove(attrKeys.size() - 1);
+        } else if (value.getClass().isArray()) {
+            LOGGER.trace("%s scrape: arrays are unsupported", domain);
+        } else if (value instanceof Optional) {
+            LOGGER.trace("%s%s%s scrape: Optional", domain, beanProperties, attrName);
+            Optional<?> optional = (Optional<?>) value;
+            if (optional.isPresent()) {
+                process(
+                        receiver,
+                        objectName,
+                        domain,
+                        beanProperties,
+                        attributesAsLabelsWithValues,
+                        attrName,
+                        attrType,
+                        attrDescription,
+                        optional.get());
+            }
+        } else if (value.getClass().isEnum()) {
+            LOGGER.trace("%s%s%s scrape: %s", domain, beanProperties, attrName, value);
+            process(
+                    receiver,
+                    objectName,
+                    domain,
+                    beanProperties,
+                    attributesAsLabelsWithValues,
+                    attrName,
+                    attrType,
+                    attrDescription,
+                    value.toString());
+        } else {
+            objectNameAttributeFilter.add(objectName, attrName);
+            LOGGER.trace("%s%s scrape: %s not exported", domain, beanProperties, attrType);
+        }
+    }
+
+    private void checkCancelled() {
+        if (cancelled.getAsBoolean()) {
+            // Unwind the labels of the rows being processed, the instance may be reused
+            removeLabels(0);
+            throw new CancellationException("Scrape cancelled");
+        }
+    }
+
+    private String uniqueLabel(String idx) {
+        labelBuilder.setLength(0);
+        labelBuilder.append(idx);
+        int suffixCount = 0;
+        String label;
+        do {
+            labelBuilder.append('_');
+            suffixCount++;
+            if (suffixCount > 1000) {
+                throw new IllegalStateException("Too many key collisions in TabularData processing");
+            }
+            label = labelBuilder.toString();
+        } while (rowProperties.containsKey(label));
+        return label;
+    }
+
+    private void addLabel(String label, String value) {
+        addedLabels.add(label);
+        replacedValues.add(rowProperties.put(label, value));
+    }
+
+    private void removeLabels(int mark) {
+        for (int i = addedLabels.size() - 1; i >= mark; i--) {
+            String label = addedLabels.remove(i);
+            String replacedValue = replacedValues.remove(i);
+            if (replacedValue == null) {
+                rowProperties.remove(label);
+            } else {
+                rowProperties.put(label, replacedValue);
+            }
+        }
+    }
+}
@@ -36,6 +36,9 @@ public class MatchedRule {
     final Double value;
     final double valueFactor;
 
+    // The index of the rule that produced this result, set before it is cached
+    int ruleIndex = -1;
+
     private static final MatchedRule _unmatched = new MatchedRule();
 
     /**
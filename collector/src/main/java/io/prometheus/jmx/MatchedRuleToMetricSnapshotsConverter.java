@@ -19,20 +19,36 @@ package io.prometheus.jmx;
 import io.prometheus.jmx.logger.Logger;
 import io.prometheus.jmx.logger.LoggerFactory;
 import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.DataPointSnapshot;
 import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
 import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
 import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 /**
  * Class to implement MatchedRuleToMetricSnapshotsConverter
+ *
+ * <p>An instance keeps a template per metric family, with the labels of its data points, whether
+ * they need an {@code _objectname} label and the family's type. The series of a family are almost
+ * always the same from one scrape to the next, so the template is only rebuilt for the families
+ * whose series changed, and otherwise only the values are taken from the matched rules.
+ *
+ * <p>Snapshots are immutable, so the values can't be written into the previous ones. A family
+ * keeps its previous snapshot and data points instead: data points are only created for the
+ * values that changed, and a family whose values didn't change returns its previous snapshot.
+ *
+ * <p>Thread-safety: An instance is thread-safe, conversions are serialized.
  */
 public class MatchedRuleToMetricSnapshotsConverter {
 
@@ -40,6 +56,8 @@ public class MatchedRuleToMetricSnapshotsConverter {
 
     private static final String OBJECTNAME = "_objectname";
 
+    private final Map<String, Family> families = new HashMap<>();
+
     private static String getDomainName(String matchName) {
         int lastColon = matchName.lastIndexOf(":");
         if (lastColon <= 0) {
@@ -62,77 +80,46 @@ public class MatchedRuleToMetricSnapshotsConverter {
      * @return a MetricSnapshots
      */
     public static MetricSnapshots convert(List<MatchedRule> matchedRules) {
-        Map<String, List<MatchedRule>> rulesByPrometheusMetricName = new HashMap<>();
+        return new MatchedRuleToMetricSnapshotsConverter().convertWithTemplates(matchedRules);
+    }
 
+    /**
+     * Method to convert a List of MatchedRules to MetricSnapshots, reusing the templates of the
+     * families whose series didn't change since the previous conversion
+     *
+     * @param matchedRules matchedRules
+     * @return a MetricSnapshots
+     */
+    public synchronized MetricSnapshots convertWithTemplates(List<MatchedRule> matchedRules) {
+        for (Family family : families.values()) {
+            family.rules.clear();
+        }
         for (MatchedRule matchedRule : matchedRules) {
-            List<MatchedRule> matchedRulesWithSameName =
-                    rulesByPrometheusMetricName.computeIfAbsent(matchedRule.name, name -> new ArrayList<>());
-            matchedRulesWithSameName.add(matchedRule);
+            families.computeIfAbsent(matchedRule.name, name -> new Family())
+                    .rules
+                    .add(matchedRule);
         }
 
         if (LOGGER.isTraceEnabled()) {
-            rulesByPrometheusMetricName
-                    .values()
-                    .forEach(matchedRules1 ->
-                            matchedRules1.forEach(matchedRule -> LOGGER.trace("matchedRule %s", matchedRule)));
+            matchedRules.forEach(matchedRule -> LOGGER.trace("matchedRule %s", matchedRule));
         }
 
         MetricSnapshots.Builder result = MetricSnapshots.builder();
-        for (List<MatchedRule> rulesWithSameName : rulesByPrometheusMetricName.values()) {
-            result.metricSnapshot(convertRulesWithSameName(rulesWithSameName));
+        for (Iterator<Family> iterator = families.values().iterator(); iterator.hasNext(); ) {
+            Family family = iterator.next();
+            // Families without series in this conversion are forgotten
+            if (family.rules.isEmpty()) {
+                iterator.remove();
+                continue;
+            }
+            if (!family.isTemplateFor(family.rules)) {
+                family.rebuildTemplate();
+            }
+            result.metricSnapshot(family.toMetricSnapshot());
         }
         return result.build();
     }
 
-    private static MetricSnapshot convertRulesWithSameName(List<MatchedRule> rulesWithSameName) {
-        boolean labelsUnique = isLabelsUnique(rulesWithSameName);
-        MatchedRule firstRule = rulesWithSameName.get(0);
-        switch (getType(rulesWithSameName)) {
-            case "COUNTER":
-                CounterSnapshot.Builder counterBuilder =
-                        CounterSnapshot.builder().name(firstRule.name).help(firstRule.help);
-                for (MatchedRule rule : rulesWithSameName) {
-                    Labels labels = rule.labels;
-                    if (!labelsUnique) {
-                        labels = labels.merge(Labels.of(OBJECTNAME, getDomainName(rule.matchName)));
-                    }
-                    counterBuilder.dataPoint(CounterSnapshot.CounterDataPointSnapshot.builder()
-                            .labels(labels)
-                            .value(rule.value)
-                            .build());
-                }
-                return counterBuilder.build();
-            case "GAUGE":
-                GaugeSnapshot.Builder gaugeBuilder =
-                        GaugeSnapshot.builder().name(firstRule.name).help(firstRule.help);
-                for (MatchedRule rule : rulesWithSameName) {
-                    Labels labels = rule.labels;
-                    if (!labelsUnique) {
-                        labels = labels.merge(Labels.of(OBJECTNAME, getDomainName(rule.matchName)));
-                    }
-                    gaugeBuilder.dataPoint(GaugeSnapshot.GaugeDataPointSnapshot.builder()
-                            .labels(labels)
-                            .value(rule.value)
-                            .build());
-                }
-                return gaugeBuilder.build();
-            default:
-                UnknownSnapshot.Builder unknownBuilder =
-                        UnknownSnapshot.builder().name(firstRule.name).help(firstRule.help);
-                for (MatchedRule rule : rulesWithSameName) {
-                    Labels labels = rule.labels;
-                    if (!labelsUnique) {
-                        labels = labels.merge(Labels.of(OBJECTNAME, getDomainName(rule.matchName)));
-                    }
-                    unknownBuilder.dataPoint(UnknownSnapshot.UnknownDataPointSnapshot.builder()
-                            .labels(labels)
-                            .value(rule.value)
-                            .build());
-                }
-                return unknownBuilder.build();
-        }
-    }
-
     /**
      * If all rules have the same type, that type is returned. Otherwise, "UNKNOWN" is returned.
      */
@@ -154,4 +141,146 @@ public class MatchedRuleToMetricSnapshotsConverter {
         }
         return true;
     }
+
+    /**
+     * The matched rules of a metric family in the current conversion, and the template built from
+     * the series of a previous one
+     */
+    private static final class Family {
+
+        final List<MatchedRule> rules = new ArrayList<>();
+
+        // The series the template was built for
+        private String help;
+        private Labels[] ruleLabels;
+        private String[] ruleTypes;
+        // The domain names of the _objectname labels, or null if the labels are unique
+        private String[] domainNames;
+
+        // The template
+        private String type;
+        private Labels[] labels;
+
+        // The snapshot of the previous conversion, with its data points and their values, or null
+        // if the template was rebuilt since
+        private MetricSnapshot snapshot;
+        private MetricMetadata metadata;
+        private DataPointSnapshot[] dataPoints;
+        private double[] values;
+
+        boolean isTemplateFor(List<MatchedRule> rules) {
+            if (labels == null || labels.length != rules.size() || !Objects.equals(help, rules.get(0).help)) {
+                return false;
+            }
+            for (int i = 0; i < labels.length; i++) {
+                MatchedRule rule = rules.get(i);
+                // Cached rules share their labels and type with the previous scrape, others are
+                // equal
+                if (!Objects.equals(ruleLabels[i], rule.labels)
+                        || !Objects.equals(ruleTypes[i], rule.type)
+                        || (domainNames != null && !hasDomainName(rule.matchName, domainNames[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Same as getDomainName(matchName).equals(domainName), without the substring
+        private static boolean hasDomainName(String matchName, String domainName) {
+            int lastColon = matchName.lastIndexOf(':');
+            if (lastColon <= 0) {
+                return matchName.equals(domainName);
+            }
+            return lastColon == domainName.length() && matchName.startsWith(domainName);
+        }
+
+        void rebuildTemplate() {
+            int size = rules.size();
+            help = rules.get(0).help;
+            ruleLabels = new Labels[size];
+            ruleTypes = new String[size];
+            domainNames = isLabelsUnique(rules) ? null : new String[size];
+            type = getType(rules);
+            labels = new Labels[size];
+            snapshot = null;
+            for (int i = 0; i < size; i++) {
+                MatchedRule rule = rules.get(i);
+                ruleLabels[i] = rule.labels;
+                ruleTypes[i] = rule.type;
+                labels[i] = rule.labels;
+                if (domainNames != null) {
+                    domainNames[i] = getDomainName(rule.matchName);
+                    labels[i] = labels[i].merge(Labels.of(OBJECTNAME, domainNames[i]));
+                }
+            }
+        }
+
+        MetricSnapshot toMetricSnapshot() {
+            boolean changed = snapshot == null;
+            if (changed) {
+                metadata = newMetadata(rules.get(0).name, help);
+                dataPoints = new DataPointSnapshot[labels.length];
+                values = new double[labels.length];
+            }
+            for (int i = 0; i < labels.length; i++) {
+                double value = rules.get(i).value;
+                if (dataPoints[i] == null || Double.doubleToLongBits(value) != Double.doubleToLongBits(values[i])) {
+                    dataPoints[i] = newDataPoint(value, labels[i]);
+                    values[i] = value;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                snapshot = newSnapshot();
+            }
+            return snapshot;
+        }
+
+        // Built by the builder of the type, as it derives the metadata from the name by type
+        private MetricMetadata newMetadata(String name, String help) {
+            switch (type) {
+                case "COUNTER":
+                    return CounterSnapshot.builder()
+                            .name(name)
+                            .help(help)
+                            .build()
+                            .getMetadata();
+                case "GAUGE":
+                    return GaugeSnapshot.builder().name(name).help(help).build().getMetadata();
+                default:
+                    return UnknownSnapshot.builder()
+                            .name(name)
+                            .help(help)
+                            .build()
+                            .getMetadata();
+            }
+        }
+
+        private DataPointSnapshot newDataPoint(double value, Labels labels) {
+            switch (type) {
+                case "COUNTER":
+                    return new CounterSnapshot.CounterDataPointSnapshot(value, labels, null, 0, 0);
+                case "GAUGE":
+                    return new GaugeSnapshot.GaugeDataPointSnapshot(value, labels, null, 0);
+                default:
+                    return new UnknownSnapshot.UnknownDataPointSnapshot(value, labels, null, 0);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private MetricSnapshot newSnapshot() {
+            // The snapshot copies the data points
+            List<? extends DataPointSnapshot> dataPointList = Arrays.asList(dataPoints);
+            switch (type) {
+                case "COUNTER":
+                    return new CounterSnapshot(
+                            metadata, (List<CounterSnapshot.CounterDataPointSnapshot>) dataPointList);
+                case "GAUGE":
+                    return new GaugeSnapshot(metadata, (List<GaugeSnapshot.GaugeDataPointSnapshot>) dataPointList);
+                default:
+                    return new UnknownSnapshot(
+                            metadata, (List<UnknownSnapshot.UnknownDataPointSnapshot>) dataPointList);
+            }
+        }
+    }
 }
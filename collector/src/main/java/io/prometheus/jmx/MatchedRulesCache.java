@@ -18,110 +18,288 @@ package io.prometheus.jmx;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /**
  * MatchedRulesCache is a cache for bean name to configured rule mapping (See
  * JmxCollector.Receiver). The cache also retains unmatched entries (a bean name not matching a rule
  * pattern) to avoid matching against the same pattern in later bean collections.
+ *
+ * <p>Every scrape gets a new generation, and every entry is stamped with the generation of the last
+ * scrape that used it, so entries not used by a scrape can be evicted after it without tracking
+ * the used keys separately. Lookups use a reusable {@link CacheKey}, so a cache hit allocates
+ * nothing.
+ *
+ * <p>The cache can be bounded. Every scrape looks up the same keys in about the same order, so
+ * evicting the least recently used entry to admit a new one would evict the entries the rest of
+ * the scrape needs, and with more keys than the bound every lookup would miss. Instead, a full
+ * cache only evicts entries that neither the current nor the previous scrape used, such as the
+ * entries of unregistered mBeans, and doesn't admit new entries if there are none. The entries it
+ * keeps are then hit on every scrape. The bound is approximate with concurrent receivers.
  */
 public class MatchedRulesCache {
 
-    private final Map<CacheKey, MatchedRule> cache;
+    // Rough sizes of the objects of an entry on a 64-bit JVM with compressed references: the
+    // map node, the Entry, the CacheKey and its attribute key list, and a MatchedRule
+    private static final long ENTRY_BYTES = 32 + 24 + 40 + 24;
+    private static final long MATCHED_RULE_BYTES = 48 + 24;
+    private static final long STRING_BYTES = 40;
+
+    private final Map<CacheKey, Entry> cache;
+    private final AtomicLong generations;
+    private final int maxSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final AtomicLong estimatedBytes;
+
+    // The generation in which the cache was full without entries to evict
+    private volatile long fullGeneration = -1;
 
     /**
-     * Constructs an empty cache
+     * Constructs an empty, unbounded cache
      */
     public MatchedRulesCache() {
+        this(0);
+    }
+
+    /**
+     * Constructs an empty cache
+     *
+     * @param maxSize the maximum number of entries, or 0 for an unbounded cache
+     */
+    public MatchedRulesCache(int maxSize) {
         this.cache = new ConcurrentHashMap<>();
+        this.generations = new AtomicLong();
+        this.maxSize = maxSize;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.estimatedBytes = new AtomicLong();
     }
 
     /**
-     * Adds a rule match to the cache
+     * Method to start a new generation, once per scrape
      *
-     * @param key the cache key
+     * @return the generation
+     */
+    public long nextGeneration() {
+        return generations.incrementAndGet();
+    }
+
+    /**
+     * Adds a rule match to the cache, or marks it as used if it's already cached
+     *
+     * @param key the cache key, copied if it is a lookup key
      * @param matchedRule the matched rule
+     * @param generation the generation of the current scrape
      */
-    public void put(final CacheKey key, final MatchedRule matchedRule) {
-        cache.put(key, matchedRule);
+    public void put(final CacheKey key, final MatchedRule matchedRule, final long generation) {
+        Entry entry = cache.get(key);
+        if (entry != null && entry.matchedRule == matchedRule) {
+            entry.markAsUsed(generation);
+            return;
+        }
+        if (entry == null && maxSize > 0 && cache.size() >= maxSize && !makeRoom(generation)) {
+            return;
+        }
+
+        CacheKey storedKey = key.lookup ? key.copy() : key;
+        Entry newEntry = new Entry(matchedRule, generation, estimateBytes(storedKey, matchedRule));
+        Entry previous = cache.put(storedKey, newEntry);
+        estimatedBytes.addAndGet(previous != null ? newEntry.bytes - previous.bytes : newEntry.bytes);
+    }
+
+    // Evict the entries neither this scrape nor the previous one used
+    private boolean makeRoom(long generation) {
+        if (fullGeneration == generation) {
+            return false;
+        }
+        evictOlderThan(generation - 1);
+        if (cache.size() >= maxSize) {
+            fullGeneration = generation;
+            return false;
+        }
+        return true;
+    }
+
+    private long evictOlderThan(long generation) {
+        long fresh = 0;
+        for (Map.Entry<CacheKey, Entry> mapEntry : cache.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            if (entry.generation < generation) {
+                if (cache.remove(mapEntry.getKey(), entry)) {
+                    estimatedBytes.addAndGet(-entry.bytes);
+                    evictions.increment();
+                }
+            } else if (entry.generation == generation) {
+                fresh++;
+            }
+        }
+        return fresh;
     }
 
     /**
-     * Retrieves the cached MatchedRule
+     * Retrieves the cached MatchedRule, and marks it as used by the current scrape
      *
      * @param key the cache key
+     * @param generation the generation of the current scrape
      * @return a MatchedRule from cache or null
      */
-    public MatchedRule get(final CacheKey key) {
-        return cache.get(key);
+    public MatchedRule get(final CacheKey key, final long generation) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entry.markAsUsed(generation);
+        return entry.matchedRule;
+    }
+
+    /**
+     * Method to remove stale rules (in the cache but not used by the scrape of a generation or a
+     * later one)
+     *
+     * @param generation the generation of the scrape
+     * @return the number of entries used by the scrape
+     */
+    public long evictStaleEntries(final long generation) {
+        return evictOlderThan(generation);
     }
 
     /**
-     * Method to remove stale rules (in the cache but not collected in the last run of the
-     * collector)
+     * Method to count the entries used by the scrape of a generation, without evicting any
      *
-     * @param stalenessTracker stalenessTracker
+     * @param generation the generation of the scrape
+     * @return the number of entries used by the scrape
      */
-    public void evictStaleEntries(final StalenessTracker stalenessTracker) {
-        for (CacheKey key : cache.keySet()) {
-            if (!stalenessTracker.isFresh(key)) {
-                cache.remove(key);
+    public long freshCount(final long generation) {
+        long fresh = 0;
+        for (Entry entry : cache.values()) {
+            if (entry.generation == generation) {
+                fresh++;
             }
         }
+        return fresh;
     }
 
     /**
-     * Tracks which cache entries were touched during current scrape, so that all that were not can
-     * be evicted from the cache
+     * Method to get the number of lookups that found an entry
+     *
+     * @return the number of hits
      */
-    public static class StalenessTracker {
+    public long getHits() {
+        return hits.sum();
+    }
 
-        private final Set<CacheKey> freshEntries;
+    /**
+     * Method to get the number of lookups that didn't find an entry
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
 
-        /**
-         * Constructor
-         */
-        public StalenessTracker() {
-            this.freshEntries = new HashSet<>();
+    /**
+     * Method to get the number of entries evicted, because they were stale or to make room
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Method to get the estimated heap size of the entries
+     *
+     * @return the estimated size in bytes
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    /**
+     * Method to get the number of entries
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Method to visit the entries, see {@link MatchedRulesCacheFile}
+     *
+     * @param action the action to call with the key and the matched rule of every entry
+     */
+    public void forEach(BiConsumer<CacheKey, MatchedRule> action) {
+        for (Map.Entry<CacheKey, Entry> mapEntry : cache.entrySet()) {
+            action.accept(mapEntry.getKey(), mapEntry.getValue().matchedRule);
         }
+    }
 
-        /**
-         * Marks a cache key as fresh (not stale)
-         *
-         * @param key the cache key
-         */
-        public void markAsFresh(final CacheKey key) {
-            freshEntries.add(key);
+    private static long estimateBytes(CacheKey key, MatchedRule matchedRule) {
+        // Domains, key properties and attribute names are shared with the mBeans, only the
+        // references are counted
+        long bytes = ENTRY_BYTES + 4L * key.attrKeys.size();
+        if (matchedRule.isMatched()) {
+            bytes += MATCHED_RULE_BYTES
+                    + estimateBytes(matchedRule.name)
+                    + estimateBytes(matchedRule.matchName)
+                    + estimateBytes(matchedRule.help);
+            for (int i = 0; i < matchedRule.labels.size(); i++) {
+                bytes += 8 + estimateBytes(matchedRule.labels.getValue(i));
+            }
         }
+        return bytes;
+    }
 
-        /**
-         * Returns true if {@link #markAsFresh(CacheKey)) was called for that key
-         *
-         * @param key the cache key
-         */
-        boolean isFresh(final CacheKey key) {
-            return freshEntries.contains(key);
+    private static long estimateBytes(String string) {
+        return string == null ? 0 : STRING_BYTES + 2L * string.length();
+    }
+
+    /**
+     * A cached rule match, with the generation of the last scrape that used it
+     */
+    private static final class Entry {
+
+        final MatchedRule matchedRule;
+        final long bytes;
+        volatile long generation;
+
+        Entry(MatchedRule matchedRule, long generation, long bytes) {
+            this.matchedRule = matchedRule;
+            this.generation = generation;
+            this.bytes = bytes;
         }
 
-        /**
-         * Returns the number of fresh rules
-         *
-         * @return the number of fresh rules
-         */
-        public long freshCount() {
-            return freshEntries.size();
+        void markAsUsed(long generation) {
+            // Concurrent scrapes may race, the later generation is kept
+            if (this.generation < generation) {
+                this.generation = generation;
+            }
         }
     }
 
     /**
      * CacheKey is a key for the cache. It contains the domain, bean properties, attribute keys and
      * attribute name.
+     *
+     * <p>A lookup key, created with {@link #CacheKey()}, is reused for every lookup of a receiver.
+     * It refers to the bean properties and attribute keys passed to {@link #set(String, Map, List,
+     * String)} without copying them, and is copied when it is added to the cache.
      */
     public static class CacheKey {
-        private final String domain;
-        private final LinkedHashMap<String, String> beanProperties;
-        private final List<String> attrKeys;
-        private final String attrName;
-        private final int cachedHashCode;
+        private final boolean lookup;
+        private String domain;
+        private Map<String, String> beanProperties;
+        private List<String> attrKeys;
+        private String attrName;
+        private int cachedHashCode;
 
         /**
          * Constructor
@@ -131,13 +309,72 @@ public class MatchedRulesCache {
          * @param attrKeys the attribute keys
          * @param attrName the attribute name
          */
-        public CacheKey(
-                String domain, LinkedHashMap<String, String> beanProperties, List<String> attrKeys, String attrName) {
+        public CacheKey(String domain, Map<String, String> beanProperties, List<String> attrKeys, String attrName) {
+            this.lookup = false;
             this.domain = domain;
-            this.beanProperties = new LinkedHashMap<>(beanProperties);
-            this.attrKeys = new ArrayList<>(attrKeys);
+            // Key properties of scraped mBeans are immutable and shared, only labels added for
+            // TabularData rows are copied
+            this.beanProperties = KeyProperties.copyOf(beanProperties);
+            this.attrKeys = attrKeys.isEmpty() ? Collections.emptyList() : new ArrayList<>(attrKeys);
             this.attrName = attrName;
-            this.cachedHashCode = Objects.hash(domain, this.beanProperties, this.attrKeys, attrName);
+            this.cachedHashCode = hashCode(domain, this.beanProperties, this.attrKeys, attrName);
+        }
+
+        /**
+         * Constructor for a reusable lookup key
+         */
+        public CacheKey() {
+            this.lookup = true;
+        }
+
+        /**
+         * Method to set the components of a lookup key
+         *
+         * @param domain the domain
+         * @param beanProperties the bean properties, not copied
+         * @param attrKeys the attribute keys, not copied
+         * @param attrName the attribute name
+         * @return this lookup key
+         */
+        public CacheKey set(String domain, Map<String, String> beanProperties, List<String> attrKeys, String attrName) {
+            if (!lookup) {
+                throw new IllegalStateException("Only lookup keys can be changed");
+            }
+            this.domain = domain;
+            this.beanProperties = beanProperties;
+            this.attrKeys = attrKeys;
+            this.attrName = attrName;
+            this.cachedHashCode = hashCode(domain, beanProperties, attrKeys, attrName);
+            return this;
+        }
+
+        String getDomain() {
+            return domain;
+        }
+
+        Map<String, String> getBeanProperties() {
+            return beanProperties;
+        }
+
+        List<String> getAttrKeys() {
+            return attrKeys;
+        }
+
+        String getAttrName() {
+            return attrName;
+        }
+
+        private CacheKey copy() {
+            return new CacheKey(domain, beanProperties, attrKeys, attrName);
+        }
+
+        private static int hashCode(
+                String domain, Map<String, String> beanProperties, List<String> attrKeys, String attrName) {
+            // Same as Objects.hash(), without the varargs array
+            int hash = 31 + Objects.hashCode(domain);
+            hash = 31 * hash + beanProperties.hashCode();
+            hash = 31 * hash + attrKeys.hashCode();
+            return 31 * hash + Objects.hashCode(attrName);
         }
 
         @Override
@@ -145,10 +382,11 @@ public class MatchedRulesCache {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             CacheKey cacheKey = (CacheKey) o;
-            return Objects.equals(domain, cacheKey.domain)
+            return cachedHashCode == cacheKey.cachedHashCode
+                    && Objects.equals(domain, cacheKey.domain)
+                    && Objects.equals(attrName, cacheKey.attrName)
                     && Objects.equals(beanProperties, cacheKey.beanProperties)
-                    && Objects.equals(attrKeys, cacheKey.attrKeys)
-                    && Objects.equals(attrName, cacheKey.attrName);
+                    && Objects.equals(attrKeys, cacheKey.attrKeys);
         }
 
         @Override
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.MatchedRulesCache.CacheKey;
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This object reads and writes the entries of a {@link MatchedRulesCache} from and to a file, so a
+ * restarted exporter doesn't have to match every attribute against the rules again.
+ *
+ * <p>The file starts with a hash of the configuration the cached matches depend on, and is ignored
+ * if the current configuration has another hash. Strings are written once and referenced by their
+ * index afterward, as the domains, key properties and attribute names of many entries are the
+ * same. A file that can't be read is ignored, and a file is replaced atomically, so a crash while
+ * writing it leaves the previous file.
+ *
+ * <p>Thread-safety: This class is immutable, the cache may be modified while it is written.
+ */
+class MatchedRulesCacheFile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MatchedRulesCacheFile.class);
+
+    private static final int MAGIC = 0x4A4D5243;
+    private static final int VERSION = 1;
+
+    private static final int UNMATCHED = 0;
+    private static final int MATCHED = 1;
+    private static final int END = 2;
+
+    private final Path path;
+    private final byte[] rulesHash;
+
+    /**
+     * Constructor
+     *
+     * @param path the file
+     * @param rulesHash the hash of the configuration the cached matches depend on, see {@link
+     *     #hash(String)}
+     */
+    public MatchedRulesCacheFile(Path path, byte[] rulesHash) {
+        this.path = path;
+        this.rulesHash = rulesHash;
+    }
+
+    /**
+     * Method to hash the configuration the cached matches depend on
+     *
+     * @param rules the rules and the settings that change the matched rules, as a string
+     * @return the hash
+     */
+    public static byte[] hash(String rules) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(rules.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform implements SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method to get the file
+     *
+     * @return the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Method to add the entries of the file to a cache
+     *
+     * @param rulesCache the cache
+     * @return the number of entries read, 0 if the file doesn't exist, is for another configuration
+     *     or can't be read
+     */
+    public int read(MatchedRulesCache rulesCache) {
+        List<CacheKey> keys = new ArrayList<>();
+        List<MatchedRule> matchedRules = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                LOGGER.warn("Ignoring rules cache file %s, it has an unknown format", path);
+                return 0;
+            }
+            byte[] fileRulesHash = new byte[in.readUnsignedByte()];
+            in.readFully(fileRulesHash);
+            if (!Arrays.equals(fileRulesHash, rulesHash)) {
+                LOGGER.info("Ignoring rules cache file %s, it was written for other rules", path);
+                return 0;
+            }
+
+            List<String> strings = new ArrayList<>();
+            for (int type = in.readUnsignedByte(); type != END; type = in.readUnsignedByte()) {
+                String domain = readString(in, strings);
+                int propertyCount = readVarInt(in);
+                Map<String, String> beanProperties = new LinkedHashMap<>();
+                for (int i = 0; i < propertyCount; i++) {
+                    beanProperties.put(readString(in, strings), readString(in, strings));
+                }
+                List<String> attrKeys = readStrings(in, strings);
+                String attrName = readString(in, strings);
+                keys.add(new CacheKey(domain, beanProperties, attrKeys, attrName));
+
+                if (type == UNMATCHED) {
+                    matchedRules.add(MatchedRule.unmatched());
+                } else if (type == MATCHED) {
+                    matchedRules.add(readMatchedRule(in, strings));
+                } else {
+                    throw new IOException("Unknown entry type " + type);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Ignoring rules cache file %s, it can't be read: %s", path, e);
+            return 0;
+        }
+
+        // The entries are stamped with generation 0, entries the first scrape doesn't use are
+        // evicted after it
+        for (int i = 0; i < keys.size(); i++) {
+            rulesCache.put(keys.get(i), matchedRules.get(i), 0);
+        }
+        LOGGER.trace("Read %s rules cache entries from %s", keys.size(), path);
+        return keys.size();
+    }
+
+    /**
+     * Method to replace the file with the entries of a cache
+     *
+     * @param rulesCache the cache
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(MatchedRulesCache rulesCache) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Path temporaryFile = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeByte(rulesHash.length);
+                out.write(rulesHash);
+
+                Map<String, Integer> strings = new HashMap<>();
+                IOException[] exception = new IOException[1];
+                rulesCache.forEach((key, matchedRule) -> {
+                    if (exception[0] != null) {
+                        return;
+                    }
+                    try {
+                        out.writeByte(matchedRule.isMatched() ? MATCHED : UNMATCHED);
+                        writeString(out, strings, key.getDomain());
+                        writeVarInt(out, key.getBeanProperties().size());
+                        for (Map.Entry<String, String> property :
+                                key.getBeanProperties().entrySet()) {
+                            writeString(out, strings, property.getKey());
+                            writeString(out, strings, property.getValue());
+                        }
+                        writeStrings(out, strings, key.getAttrKeys());
+                        writeString(out, strings, key.getAttrName());
+                        if (matchedRule.isMatched()) {
+                            writeMatchedRule(out, strings, matchedRule);
+                        }
+                    } catch (IOException e) {
+                        exception[0] = e;
+                    }
+                });
+                if (exception[0] != null) {
+                    throw exception[0];
+                }
+                out.writeByte(END);
+            }
+            Files.move(temporaryFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static MatchedRule readMatchedRule(DataInputStream in, List<String> strings) throws IOException {
+        String name = readString(in, strings);
+        String matchName = readString(in, strings);
+        String type = readString(in, strings);
+        String help = readString(in, strings);
+        List<String> labelNames = readStrings(in, strings);
+        List<String> labelValues = readStrings(in, strings);
+        Double value = in.readBoolean() ? in.readDouble() : null;
+        double valueFactor = in.readDouble();
+        MatchedRule matchedRule =
+                new MatchedRule(name, matchName, type, help, labelNames, labelValues, value, valueFactor);
+        matchedRule.ruleIndex = readVarInt(in) - 1;
+        return matchedRule;
+    }
+
+    private static void writeMatchedRule(DataOutputStream out, Map<String, Integer> strings, MatchedRule matchedRule)
+            throws IOException {
+        writeString(out, strings, matchedRule.name);
+        writeString(out, strings, matchedRule.matchName);
+        writeString(out, strings, matchedRule.type);
+        writeString(out, strings, matchedRule.help);
+        int labelCount = matchedRule.labels.size();
+        writeVarInt(out, labelCount);
+        for (int i = 0; i < labelCount; i++) {
+            writeString(out, strings, matchedRule.labels.getName(i));
+        }
+        writeVarInt(out, labelCount);
+        for (int i = 0; i < labelCount; i++) {
+            writeString(out, strings, matchedRule.labels.getValue(i));
+        }
+        out.writeBoolean(matchedRule.value != null);
+        if (matchedRule.value != null) {
+            out.writeDouble(matchedRule.value);
+        }
+        out.writeDouble(matchedRule.valueFactor);
+        writeVarInt(out, matchedRule.ruleIndex + 1);
+    }
+
+    private static List<String> readStrings(DataInputStream in, List<String> strings) throws IOException {
+        int count = readVarInt(in);
+        List<String> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(readString(in, strings));
+        }
+        return list;
+    }
+
+    private static void writeStrings(DataOutputStream out, Map<String, Integer> strings, List<String> list)
+            throws IOException {
+        writeVarInt(out, list.size());
+        for (String string : list) {
+            writeString(out, strings, string);
+        }
+    }
+
+    // 0 is null, 1 to n are the strings read so far, n + 1 is a new string that follows
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        int index = readVarInt(in);
+        if (index == 0) {
+            return null;
+        }
+        if (index <= strings.size()) {
+            return strings.get(index - 1);
+        }
+        if (index != strings.size() + 1) {
+            throw new IOException("Invalid string reference " + index);
+        }
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        String string = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(string);
+        return string;
+    }
+
+    private static void writeString(DataOutputStream out, Map<String, Integer> strings, String string)
+            throws IOException {
+        if (string == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        Integer index = strings.get(string);
+        if (index != null) {
+            writeVarInt(out, index);
+            return;
+        }
+        index = strings.size() + 1;
+        strings.put(string, index);
+        writeVarInt(out, index);
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Invalid length " + value);
+                }
+                return value;
+            }
+        }
+        throw new IOException("Invalid variable length integer");
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.ObjectName;
+
+/**
+ * This object remembers attributes that repeatedly produced no sample, because no rule matched
+ * them or their value is not exported, and excludes them from being fetched. Excluded attributes
+ * are fetched again once the TTL expires, in case the rules or the values changed.
+ */
+class NegativeMatchFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegativeMatchFilter.class);
+
+    /**
+     * Number of consecutive scrapes without a sample after which an attribute is excluded
+     */
+    static final int MISSES_BEFORE_EXCLUSION = 3;
+
+    private final long ttlNanos;
+    private final Map<ObjectName, Map<String, Entry>> entries;
+
+    /**
+     * Constructor
+     *
+     * @param ttlNanos how long an attribute is excluded before it is fetched again
+     */
+    public NegativeMatchFilter(long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Method to check if an attribute should be excluded
+     *
+     * @param mBeanName the mBean name
+     * @param attributeName the attribute name
+     * @param nowNanos the current System.nanoTime()
+     * @return true if the attribute should not be fetched, else false
+     */
+    public boolean exclude(ObjectName mBeanName, String attributeName, long nowNanos) {
+        Map<String, Entry> attributeEntries = entries.get(mBeanName);
+        if (attributeEntries == null) {
+            return false;
+        }
+
+        Entry entry = attributeEntries.get(attributeName);
+        if (entry == null) {
+            return false;
+        }
+
+        synchronized (entry) {
+            return entry.misses >= MISSES_BEFORE_EXCLUSION && nowNanos - entry.excludedUntilNanos < 0;
+        }
+    }
+
+    /**
+     * Method to record whether a fetched attribute produced samples
+     *
+     * @param mBeanName the mBean name
+     * @param attributeName the attribute name
+     * @param sampled true if the attribute produced at least one sample
+     * @param nowNanos the current System.nanoTime()
+     */
+    public void record(ObjectName mBeanName, String attributeName, boolean sampled, long nowNanos) {
+        if (sampled) {
+            Map<String, Entry> attributeEntries = entries.get(mBeanName);
+            if (attributeEntries != null) {
+                attributeEntries.remove(attributeName);
+            }
+            return;
+        }
+
+        Entry entry = entries.computeIfAbsent(mBeanName, name -> new ConcurrentHashMap<>())
+                .computeIfAbsent(attributeName, name -> new Entry());
+        synchronized (entry) {
+            entry.misses++;
+            if (entry.misses >= MISSES_BEFORE_EXCLUSION) {
+                LOGGER.trace("excluding %s_%s, it produced no sample", mBeanName, attributeName);
+                entry.excludedUntilNanos = nowNanos + ttlNanos;
+            }
+        }
+    }
+
+    /**
+     * Method to only keep "alive" mBeans, remove old mBeans to prevent memory growth
+     *
+     * @param latestBeans latestBeans
+     */
+    public void onlyKeepMBeans(Set<ObjectName> latestBeans) {
+        entries.keySet().retainAll(latestBeans);
+    }
+
+    private static class Entry {
+
+        int misses;
+        long excludedUntilNanos;
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.MalformedObjectNameException;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+/**
+ * This object scrapes many remote JVMs from one process, in the style of the blackbox exporter.
+ * Each probe names a target, the host:port of the JVM, and a module, the collector configuration
+ * to scrape it with. Targets are untrusted input, so only a host:port is accepted and the JMX url
+ * is always built from the RMI template, a probe can't make the exporter look up other urls.
+ *
+ * <p>Every target gets its own JmxCollector, so its connection, MBeanInfo and rule caches are kept
+ * between probes. Targets are scraped concurrently on their own scrape thread, limited to
+ * maxConcurrentProbes at a time, and are closed once they weren't probed for targetIdleSeconds.
+ * At most maxTargets targets are kept, a new target closes the least recently probed idle target.
+ */
+public class ProbeTargets {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProbeTargets.class);
+
+    // A host name, an IPv4 address or a bracketed IPv6 address, and a port
+    private static final Pattern TARGET_PATTERN =
+            Pattern.compile("(\\[[0-9A-Fa-f:.]+\\]|[A-Za-z0-9](?:[A-Za-z0-9._-]*[A-Za-z0-9])?):([0-9]{1,5})");
+
+    /**
+     * Interface to implement what is done with the registry of a target while probing it
+     */
+    public interface Prober {
+
+        /**
+         * Method to probe a target, typically by scraping its registry
+         *
+         * @param prometheusRegistry the registry of the target
+         * @throws IOException IOException
+         */
+        void probe(PrometheusRegistry prometheusRegistry) throws IOException;
+    }
+
+    private final Map<String, Map<String, Object>> modules = new LinkedHashMap<>();
+    private final Semaphore concurrencyLimit;
+    private final long targetIdleNanos;
+    private final int maxTargets;
+    private final Map<List<String>, Target> targets = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param in the configuration file, with the collector configuration of every module under
+     *     "modules", must not be null
+     * @throws IOException if an I/O error occurs
+     * @throws MalformedObjectNameException if an ObjectName of a module is invalid
+     */
+    public ProbeTargets(File in) throws IOException, MalformedObjectNameException {
+        this(loadYaml(in));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param yamlConfig the parsed YAML configuration, with the collector configuration of every
+     *     module under "modules"
+     * @throws MalformedObjectNameException if an ObjectName of a module is invalid
+     */
+    @SuppressWarnings("unchecked")
+    ProbeTargets(Map<String, Object> yamlConfig) throws MalformedObjectNameException {
+        if (!(yamlConfig.get("modules") instanceof Map)) {
+            throw new IllegalArgumentException("modules must be a map of module names to configurations");
+        }
+
+        for (Map.Entry<String, Object> module : ((Map<String, Object>) yamlConfig.get("modules")).entrySet()) {
+            Map<String, Object> moduleConfig =
+                    module.getValue() != null ? (Map<String, Object>) module.getValue() : new HashMap<>();
+            if (moduleConfig.containsKey("jmxUrl") || moduleConfig.containsKey("hostPort")) {
+                throw new IllegalArgumentException(
+                        "module " + module.getKey() + " must not configure jmxUrl or hostPort, the target is probed");
+            }
+            // Fail on invalid configurations at startup, instead of on the first probe. The rules
+            // cache file is left out, so validating doesn't read it or persist it on exit.
+            Map<String, Object> validationConfig = new HashMap<>(moduleConfig);
+            Object ruleCacheFile = validationConfig.remove("ruleCacheFile");
+            if (ruleCacheFile != null && !(ruleCacheFile instanceof String)) {
+                throw new IllegalArgumentException("ruleCacheFile of module " + module.getKey() + " must be a path");
+            }
+            new JmxCollector(validationConfig, null, null);
+            modules.put(module.getKey(), moduleConfig);
+        }
+
+        int maxConcurrentProbes = 10;
+        if (yamlConfig.containsKey("maxConcurrentProbes")) {
+            try {
+                maxConcurrentProbes = (Integer) yamlConfig.get("maxConcurrentProbes");
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for maxConcurrentProbes", e);
+            }
+            if (maxConcurrentProbes < 1) {
+                throw new IllegalArgumentException("maxConcurrentProbes must be at least 1");
+            }
+        }
+        concurrencyLimit = new Semaphore(maxConcurrentProbes, true);
+
+        int targetIdleSeconds = 600;
+        if (yamlConfig.containsKey("targetIdleSeconds")) {
+            try {
+                targetIdleSeconds = (Integer) yamlConfig.get("targetIdleSeconds");
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for targetIdleSeconds", e);
+            }
+            if (targetIdleSeconds < 1) {
+                throw new IllegalArgumentException("targetIdleSeconds must be at least 1");
+            }
+        }
+        targetIdleNanos = TimeUnit.SECONDS.toNanos(targetIdleSeconds);
+
+        int maxTargets = 1000;
+        if (yamlConfig.containsKey("maxTargets")) {
+            try {
+                maxTargets = (Integer) yamlConfig.get("maxTargets");
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Invalid number provided for maxTargets", e);
+            }
+            if (maxTargets < 1) {
+                throw new IllegalArgumentException("maxTargets must be at least 1");
+            }
+        }
+        this.maxTargets = maxTargets;
+    }
+
+    /**
+     * Registers the metrics of the probed targets with the specified Prometheus registry.
+     *
+     * @param prometheusRegistry the registry to register with, must not be null
+     * @return this ProbeTargets instance for method chaining
+     */
+    public ProbeTargets register(PrometheusRegistry prometheusRegistry) {
+        GaugeWithCallback.builder()
+                .name("jmx_probe_targets")
+                .help("Number of targets probed within targetIdleSeconds.")
+                .callback(callback -> callback.call(targets.size()))
+                .register(prometheusRegistry);
+        return this;
+    }
+
+    /**
+     * Method to check if a module is configured
+     *
+     * @param module the module name
+     * @return true if the module is configured, else false
+     */
+    public boolean hasModule(String module) {
+        return modules.containsKey(module);
+    }
+
+    /**
+     * Method to check if a target is a valid host:port
+     *
+     * @param target the target
+     * @return true if the target is a valid host:port, else false
+     */
+    public static boolean isValidTarget(String target) {
+        if (target == null) {
+            return false;
+        }
+        Matcher matcher = TARGET_PATTERN.matcher(target);
+        if (!matcher.matches()) {
+            return false;
+        }
+        int port = Integer.parseInt(matcher.group(2));
+        return port >= 1 && port <= 65535;
+    }
+
+    /**
+     * Method to probe a target. Waits while maxConcurrentProbes other probes are running.
+     *
+     * @param module the module name
+     * @param target the host:port of the target
+     * @param prober what to do with the registry of the target
+     * @throws IOException IOException
+     * @throws InterruptedException if interrupted while waiting for other probes
+     */
+    public void probe(String module, String target, Prober prober) throws IOException, InterruptedException {
+        if (!modules.containsKey(module)) {
+            throw new IllegalArgumentException("Unknown module " + module);
+        }
+        String jmxUrl = toJmxUrl(target);
+
+        long now = System.nanoTime();
+        closeIdleTargets(now);
+
+        concurrencyLimit.acquire();
+        try {
+            List<String> key = Arrays.asList(module, jmxUrl);
+            Target probed = targets.get(key);
+            while (probed == null || !probed.acquire(now)) {
+                if (probed != null) {
+                    // Closed while idle, replace it
+                    targets.remove(key, probed);
+                }
+                probed = getOrCreateTarget(key, module, jmxUrl);
+            }
+
+            try {
+                prober.probe(probed.prometheusRegistry);
+            } finally {
+                probed.release(System.nanoTime());
+            }
+        } finally {
+            concurrencyLimit.release();
+        }
+    }
+
+    /**
+     * Method to close all targets
+     */
+    public void close() {
+        for (Map.Entry<List<String>, Target> entry : targets.entrySet()) {
+            if (targets.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().close();
+            }
+        }
+    }
+
+    /**
+     * Method to get the JMX url of a target
+     *
+     * @param target the host:port of the target
+     * @return the JMX url
+     */
+    static String toJmxUrl(String target) {
+        if (!isValidTarget(target)) {
+            throw new IllegalArgumentException("target must be host:port");
+        }
+        return "service:jmx:rmi:///jndi/rmi://" + target + "/jmxrmi";
+    }
+
+    /**
+     * Method to get the rules cache file of a target, as the targets of a module must not share
+     * the file of the module
+     *
+     * @param ruleCacheFile the rules cache file of the module
+     * @param module the module name
+     * @param jmxUrl the JMX url of the target
+     * @return the rules cache file of the target
+     */
+    static String toTargetRuleCacheFile(String ruleCacheFile, String module, String jmxUrl) {
+        byte[] hash = MatchedRulesCacheFile.hash(module + "\n" + jmxUrl);
+        StringBuilder targetRuleCacheFile = new StringBuilder(ruleCacheFile).append('-');
+        for (int i = 0; i < 8; i++) {
+            targetRuleCacheFile.append(String.format("%02x", hash[i]));
+        }
+        return targetRuleCacheFile.toString();
+    }
+
+    private static Map<String, Object> loadYaml(File in) throws IOException {
+        Objects.requireNonNull(in, "configuration file must not be null");
+        try (FileReader fr = new FileReader(in)) {
+            return new Yaml(new SafeConstructor(new LoaderOptions())).load(fr);
+        }
+    }
+
+    /**
+     * Method to get the target of a key, or create it. The target is created outside of the map,
+     * as creating it builds the collector and may read its rules cache file, and the map must not
+     * block other probes meanwhile.
+     */
+    private Target getOrCreateTarget(List<String> key, String module, String jmxUrl) {
+        Target target = targets.get(key);
+        if (target != null) {
+            return target;
+        }
+
+        while (targets.size() >= maxTargets && closeLeastRecentlyProbedTarget()) {
+            // Make room for the new target
+        }
+        Target created = new Target(module, modules.get(module), jmxUrl);
+        target = targets.putIfAbsent(key, created);
+        if (target != null) {
+            // Another probe created the target first
+            created.close();
+            return target;
+        }
+        return created;
+    }
+
+    /**
+     * Method to close the least recently probed target that isn't being probed
+     *
+     * @return true if a target was closed, false if all targets are being probed
+     */
+    private boolean closeLeastRecentlyProbedTarget() {
+        while (true) {
+            Map.Entry<List<String>, Target> leastRecentlyProbed = null;
+            long leastRecentProbeNanos = 0;
+            for (Map.Entry<List<String>, Target> entry : targets.entrySet()) {
+                Target target = entry.getValue();
+                long lastProbeNanos = target.getLastProbeNanos();
+                if (target.isIdle() && (leastRecentlyProbed == null || lastProbeNanos - leastRecentProbeNanos < 0)) {
+                    leastRecentlyProbed = entry;
+                    leastRecentProbeNanos = lastProbeNanos;
+                }
+            }
+            if (leastRecentlyProbed == null) {
+                return false;
+            }
+
+            Target target = leastRecentlyProbed.getValue();
+            if (target.closeIfIdle()) {
+                LOGGER.trace("Closing %s, maxTargets targets are kept", leastRecentlyProbed.getKey());
+                targets.remove(leastRecentlyProbed.getKey(), target);
+                target.close();
+                return true;
+            }
+            // Probed meanwhile, look again
+        }
+    }
+
+    private void closeIdleTargets(long now) {
+        for (Map.Entry<List<String>, Target> entry : targets.entrySet()) {
+            Target target = entry.getValue();
+            if (target.closeIfIdle(now, targetIdleNanos)) {
+                LOGGER.trace("Closing %s, it wasn't probed recently", entry.getKey());
+                targets.remove(entry.getKey(), target);
+                target.close();
+            }
+        }
+    }
+
+    /**
+     * Class to implement the collector of a target, and its use by probes
+     */
+    private static class Target {
+
+        final ExecutorService scrapeExecutor;
+        final JmxCollector jmxCollector;
+        final PrometheusRegistry prometheusRegistry;
+
+        private int probes;
+        private long lastProbeNanos;
+        private boolean closed;
+
+        Target(String module, Map<String, Object> moduleConfig, String jmxUrl) {
+            Map<String, Object> targetConfig = new HashMap<>(moduleConfig);
+            targetConfig.put("jmxUrl", jmxUrl);
+            if (moduleConfig.containsKey("ruleCacheFile")) {
+                targetConfig.put(
+                        "ruleCacheFile",
+                        toTargetRuleCacheFile((String) moduleConfig.get("ruleCacheFile"), module, jmxUrl));
+            }
+
+            // Scrapes of a target never overlap, and the thread exits while the target is idle
+            ThreadPoolExecutor executor =
+                    new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "jmx-probe-scrape");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            scrapeExecutor = executor;
+
+            try {
+                jmxCollector = new JmxCollector(targetConfig, JmxCollector.Mode.STANDALONE, scrapeExecutor);
+            } catch (MalformedObjectNameException e) {
+                // The module configuration was validated on startup
+                scrapeExecutor.shutdown();
+                throw new IllegalStateException(e);
+            }
+            prometheusRegistry = new PrometheusRegistry();
+            jmxCollector.register(prometheusRegistry);
+            lastProbeNanos = System.nanoTime();
+        }
+
+        synchronized boolean acquire(long now) {
+            if (closed) {
+                return false;
+            }
+            probes++;
+            lastProbeNanos = now;
+            return true;
+        }
+
+        synchronized void release(long now) {
+            probes--;
+            lastProbeNanos = now;
+        }
+
+        synchronized boolean isIdle() {
+            return !closed && probes == 0;
+        }
+
+        synchronized long getLastProbeNanos() {
+            return lastProbeNanos;
+        }
+
+        synchronized boolean closeIfIdle() {
+            if (isIdle()) {
+                closed = true;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized boolean closeIfIdle(long now, long idleNanos) {
+            if (!closed && probes == 0 && now - lastProbeNanos > idleNanos) {
+                closed = true;
+                return true;
+            }
+            return false;
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            jmxCollector.close();
+            scrapeExecutor.shutdownNow();
+        }
+    }
+}
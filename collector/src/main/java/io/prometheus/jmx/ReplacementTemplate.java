@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This object is a rule's name, value, help or label template, parsed once when the configuration
+ * is loaded.
+ *
+ * <p>The template is split into literal text and capture group references, with the same syntax
+ * as {@link Matcher#appendReplacement(StringBuffer, String)}: {@code $n}, {@code ${name}} and
+ * backslash escapes. Applying it copies the literal text and the captured regions of the match
+ * name into a buffer, instead of parsing the template and searching the match name again with
+ * {@link Matcher#replaceAll(String)}. Templates without group references are returned as is.
+ *
+ * <p>Templates that can't be parsed, for example because they reference a group the pattern
+ * doesn't have, fall back to {@link Matcher#replaceAll(String)} when applied, so they fail with
+ * the same exception as before, during the scrape.
+ *
+ * <p>Thread-safety: This class is immutable.
+ */
+class ReplacementTemplate {
+
+    private final String source;
+
+    // literals[i] precedes the group of slot i, the last literal follows the last slot
+    private final String[] literals;
+    private final int[] groups;
+    private final String[] groupNames;
+
+    private ReplacementTemplate(String source, String[] literals, int[] groups, String[] groupNames) {
+        this.source = source;
+        this.literals = literals;
+        this.groups = groups;
+        this.groupNames = groupNames;
+    }
+
+    /**
+     * Method to compile a template for a pattern
+     *
+     * @param template the template
+     * @param pattern the pattern whose groups the template references
+     * @return the compiled template
+     */
+    public static ReplacementTemplate compile(String template, Pattern pattern) {
+        if (template == null) {
+            return invalid(null);
+        }
+
+        int groupCount = pattern.matcher("").groupCount();
+        List<String> literals = new ArrayList<>();
+        List<Integer> groups = new ArrayList<>();
+        List<String> groupNames = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int cursor = 0;
+        while (cursor < template.length()) {
+            char c = template.charAt(cursor++);
+            if (c == '\\') {
+                if (cursor == template.length()) {
+                    return invalid(template);
+                }
+                literal.append(template.charAt(cursor++));
+            } else if (c == '$') {
+                if (cursor == template.length()) {
+                    return invalid(template);
+                }
+                if (template.charAt(cursor) == '{') {
+                    int nameStart = ++cursor;
+                    while (cursor < template.length() && isAsciiLetterOrDigit(template.charAt(cursor))) {
+                        cursor++;
+                    }
+                    if (cursor == nameStart
+                            || cursor == template.length()
+                            || template.charAt(cursor) != '}'
+                            || Character.isDigit(template.charAt(nameStart))) {
+                        return invalid(template);
+                    }
+                    literals.add(literal.toString());
+                    groups.add(-1);
+                    groupNames.add(template.substring(nameStart, cursor++));
+                } else {
+                    int group = template.charAt(cursor) - '0';
+                    if (group < 0 || group > 9) {
+                        return invalid(template);
+                    }
+                    cursor++;
+                    // Digits are added to the group number as long as the group exists
+                    while (cursor < template.length()) {
+                        int digit = template.charAt(cursor) - '0';
+                        if (digit < 0 || digit > 9 || group * 10 + digit > groupCount) {
+                            break;
+                        }
+                        group = group * 10 + digit;
+                        cursor++;
+                    }
+                    if (group > groupCount) {
+                        return invalid(template);
+                    }
+                    literals.add(literal.toString());
+                    groups.add(group);
+                    groupNames.add(null);
+                }
+                literal.setLength(0);
+            } else {
+                literal.append(c);
+            }
+        }
+        literals.add(literal.toString());
+
+        return new ReplacementTemplate(
+                template,
+                literals.toArray(new String[0]),
+                groups.stream().mapToInt(Integer::intValue).toArray(),
+                groupNames.toArray(new String[0]));
+    }
+
+    private static ReplacementTemplate invalid(String template) {
+        return new ReplacementTemplate(template, null, null, null);
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Method to apply the template to a match
+     *
+     * @param matcher the matcher, after a successful {@link Matcher#matches()} of the input
+     * @param input the input that was matched
+     * @param buffer a buffer to assemble the result in, its content is replaced
+     * @return the result, equal to {@code matcher.replaceAll(template)}
+     */
+    public String apply(Matcher matcher, String input, StringBuilder buffer) {
+        if (literals == null) {
+            return matcher.replaceAll(source);
+        }
+        if (groups.length == 0) {
+            return literals[0];
+        }
+
+        buffer.setLength(0);
+        buffer.append(literals[0]);
+        for (int i = 0; i < groups.length; i++) {
+            int start;
+            int end;
+            if (groupNames[i] != null) {
+                start = matcher.start(groupNames[i]);
+                end = matcher.end(groupNames[i]);
+            } else {
+                start = matcher.start(groups[i]);
+                end = matcher.end(groups[i]);
+            }
+            // Groups that didn't participate in the match are replaced with nothing
+            if (start >= 0) {
+                buffer.append(input, start, end);
+            }
+            buffer.append(literals[i + 1]);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.MBeanAttributeInfo;
+import javax.management.ObjectName;
+
+/**
+ * This object decides, before attributes are fetched, which attributes no rule can ever match. The
+ * main purpose of it is to not fetch values that are discarded after matching anyway.
+ *
+ * <p>Only attributes with a numeric or boolean declared type are excluded, because the value part
+ * of their match name ({@code ": " + value}) is known to only contain characters of numbers and
+ * booleans. A rule can match such an attribute only if its pattern matches within the value
+ * independent part of the match name, or if the literal text its pattern ends with can end inside
+ * the value part. Patterns that don't end with literal text, or that use constructs that look past
+ * the end of their match (lookarounds, boundaries, {@code $}), are not analyzed, and then no
+ * attribute is excluded.
+ */
+class RuleBasedAttributeFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RuleBasedAttributeFilter.class);
+
+    // Rule patterns are compiled as "^.*(?:" + pattern + ").*$"
+    private static final String RULE_PATTERN_PREFIX = "^.*(?:";
+    private static final String RULE_PATTERN_SUFFIX = ").*$";
+
+    private static final Set<String> NUMERIC_OR_BOOLEAN_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "byte",
+            "short",
+            "int",
+            "long",
+            "float",
+            "double",
+            "boolean",
+            "java.lang.Byte",
+            "java.lang.Short",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Float",
+            "java.lang.Double",
+            "java.lang.Boolean",
+            "java.math.BigInteger",
+            "java.math.BigDecimal",
+            "java.util.Date")));
+
+    // Characters of numbers (including NaN, Infinity and exponents), booleans, and the "<cache>"
+    // placeholder used for cached rules
+    private static final String VALUE_CHARACTERS = "0123456789-+.EINaefilnrstuy<>ch";
+
+    private final List<AnalyzedRule> analyzedRules;
+    private final Map<ObjectName, Map<String, Boolean>> includedAttributesPerBean;
+
+    private RuleBasedAttributeFilter(List<AnalyzedRule> analyzedRules) {
+        this.analyzedRules = analyzedRules;
+        this.includedAttributesPerBean = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Method to create a RuleBasedAttributeFilter for a list of rules
+     *
+     * @param rules rules
+     * @return a RuleBasedAttributeFilter, or null if the rules can match any attribute
+     */
+    public static RuleBasedAttributeFilter create(List<JmxCollector.Rule> rules) {
+        List<AnalyzedRule> analyzedRules = new ArrayList<>(rules.size());
+        for (JmxCollector.Rule rule : rules) {
+            if (rule.pattern == null) {
+                return null;
+            }
+            String source = rule.pattern.pattern();
+            String literalSuffix = getLiteralSuffix(
+                    source.substring(RULE_PATTERN_PREFIX.length(), source.length() - RULE_PATTERN_SUFFIX.length()));
+            if (literalSuffix == null) {
+                LOGGER.trace("Rule pattern %s can't be analyzed, fetching all attributes", source);
+                return null;
+            }
+            analyzedRules.add(new AnalyzedRule(rule, literalSuffix));
+        }
+        return new RuleBasedAttributeFilter(analyzedRules);
+    }
+
+    /**
+     * Method to determine whether an attribute may match a rule and needs to be fetched
+     *
+     * @param mBeanName the mBean name
+     * @param beanProperties the key properties of the mBean, as passed to the receiver
+     * @param mBeanAttributeInfo the attribute
+     * @return true if the attribute may match a rule, false if no rule can match it
+     */
+    public boolean include(
+            ObjectName mBeanName, Map<String, String> beanProperties, MBeanAttributeInfo mBeanAttributeInfo) {
+        if (!NUMERIC_OR_BOOLEAN_TYPES.contains(mBeanAttributeInfo.getType())) {
+            return true;
+        }
+
+        Map<String, Boolean> includedAttributes =
+                includedAttributesPerBean.computeIfAbsent(mBeanName, name -> new ConcurrentHashMap<>());
+        return includedAttributes.computeIfAbsent(
+                mBeanAttributeInfo.getName(),
+                attributeName -> mayMatch(mBeanName.getDomain(), beanProperties, attributeName));
+    }
+
+    /**
+     * Method to only keep "alive" mBeans, remove old mBeans to prevent memory growth
+     *
+     * @param latestBeans latestBeans
+     */
+    public void onlyKeepMBeans(Set<ObjectName> latestBeans) {
+        includedAttributesPerBean.keySet().retainAll(latestBeans);
+    }
+
+    private boolean mayMatch(String domain, Map<String, String> beanProperties, String attributeName) {
+        String beanName = JmxCollector.Receiver.beanName(domain, beanProperties.toString(), "[]");
+        for (AnalyzedRule analyzedRule : analyzedRules) {
+            String matchNamePrefix = beanName
+                    + (analyzedRule.rule.attrNameSnakeCase
+                            ? JmxCollector.toSnakeAndLowerCase(attributeName)
+                            : attributeName);
+            if (analyzedRule.rule.pattern.matcher(matchNamePrefix).matches()
+                    || canEndInValue(matchNamePrefix, analyzedRule.literalSuffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to determine whether a literal can end inside the value part of a match name
+     *
+     * @param matchNamePrefix the match name up to the value part
+     * @param literal the literal
+     * @return true if the literal can end after the end of matchNamePrefix in matchNamePrefix + ": "
+     *     + value, for some value consisting of VALUE_CHARACTERS
+     */
+    static boolean canEndInValue(String matchNamePrefix, String literal) {
+        int prefixLength = matchNamePrefix.length();
+        int literalLength = literal.length();
+        // Ending further in the value than this only leaves positions in the value itself
+        for (int end = prefixLength + 1; end <= prefixLength + literalLength + 2; end++) {
+            int start = end - literalLength;
+            if (start < 0) {
+                continue;
+            }
+            boolean placeable = true;
+            for (int i = 0; i < literalLength && placeable; i++) {
+                int position = start + i;
+                char c = literal.charAt(i);
+                if (position < prefixLength) {
+                    placeable = matchNamePrefix.charAt(position) == c;
+                } else if (position == prefixLength) {
+                    placeable = c == ':';
+                } else if (position == prefixLength + 1) {
+                    placeable = c == ' ';
+                } else {
+                    placeable = VALUE_CHARACTERS.indexOf(c) >= 0;
+                }
+            }
+            if (placeable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to get the literal text every match of a pattern ends with
+     *
+     * @param pattern the pattern
+     * @return the literal text, or null if the pattern doesn't end with literal text or uses
+     *     constructs that can't be analyzed
+     */
+    static String getLiteralSuffix(String pattern) {
+        List<Character> atoms = getTopLevelAtoms(pattern);
+        if (atoms == null) {
+            return null;
+        }
+
+        StringBuilder literalSuffix = new StringBuilder();
+        for (int j = atoms.size() - 1; j >= 0 && atoms.get(j) != null; j--) {
+            literalSuffix.append(atoms.get(j).charValue());
+        }
+        return literalSuffix.length() > 0 ? literalSuffix.reverse().toString() : null;
+    }
+
+    /**
+     * Method to get the top level atoms of a pattern, in order. Every match of the pattern is a
+     * concatenation of matches of its top level atoms.
+     *
+     * @param pattern the pattern
+     * @return the atoms, a literal character for atoms that only match that character and null for
+     *     anything else (groups, classes, quantified atoms), or null if the pattern has top level
+     *     alternatives or uses constructs that can't be analyzed
+     */
+    static List<Character> getTopLevelAtoms(String pattern) {
+        List<String> sources = getTopLevelAtomSources(pattern);
+        if (sources == null) {
+            return null;
+        }
+
+        List<Character> atoms = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            Character atom = null;
+            if (source.length() == 1 && ".^()[{*+?|$\\".indexOf(source.charAt(0)) < 0) {
+                atom = source.charAt(0);
+            } else if (source.length() == 2
+                    && source.charAt(0) == '\\'
+                    && !Character.isLetterOrDigit(source.charAt(1))) {
+                atom = source.charAt(1);
+            }
+            atoms.add(atom);
+        }
+        return atoms;
+    }
+
+    /**
+     * Method to split a pattern into its top level atoms, including their quantifiers
+     *
+     * @param pattern the pattern
+     * @return the source of the atoms, in order, or null if the pattern has top level alternatives
+     *     or uses constructs that can't be analyzed
+     */
+    static List<String> getTopLevelAtomSources(String pattern) {
+        List<String> sources = new ArrayList<>();
+        int depth = 0;
+        int groupStart = 0;
+        int length = pattern.length();
+        int i = 0;
+        while (i < length) {
+            char c = pattern.charAt(i);
+            int atomStart = i;
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= length) {
+                        return null;
+                    }
+                    char escaped = pattern.charAt(i + 1);
+                    if (!Character.isLetterOrDigit(escaped)) {
+                        i += 2;
+                    } else if ("bBAGzZQEk".indexOf(escaped) >= 0) {
+                        // Boundaries, quoting and named back references
+                        return null;
+                    } else if (i + 2 < length && pattern.charAt(i + 2) == '{') {
+                        // \p{...}, \x{...}, \N{...}
+                        int end = pattern.indexOf('}', i + 2);
+                        if (end < 0) {
+                            return null;
+                        }
+                        i = end + 1;
+                    } else if (escaped == 'x') {
+                        i += 4;
+                    } else if (escaped == 'u') {
+                        i += 6;
+                    } else if (escaped == 'c') {
+                        i += 3;
+                    } else if (escaped == '0') {
+                        i += 2;
+                        while (i < length && pattern.charAt(i) >= '0' && pattern.charAt(i) <= '7') {
+                            i++;
+                        }
+                    } else {
+                        i += 2;
+                    }
+                    break;
+                case '[':
+                    i = skipCharacterClass(pattern, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    break;
+                case '(':
+                    if (i + 1 < length && pattern.charAt(i + 1) == '?') {
+                        if (i + 2 < length && pattern.charAt(i + 2) == ':') {
+                            i += 3;
+                        } else if (i + 3 < length
+                                && pattern.charAt(i + 2) == '<'
+                                && Character.isLetter(pattern.charAt(i + 3))) {
+                            i = pattern.indexOf('>', i) + 1;
+                            if (i == 0) {
+                                return null;
+                            }
+                        } else {
+                            // Lookarounds, atomic groups and inline flags
+                            return null;
+                        }
+                    } else {
+                        i++;
+                    }
+                    if (depth == 0) {
+                        groupStart = atomStart;
+                    }
+                    depth++;
+                    // The group is added as an atom once it is closed
+                    continue;
+                case ')':
+                    depth--;
+                    if (depth < 0) {
+                        return null;
+                    }
+                    atomStart = groupStart;
+                    i++;
+                    break;
+                case '|':
+                    if (depth == 0) {
+                        return null;
+                    }
+                    i++;
+                    break;
+                case '*':
+                case '+':
+                case '?':
+                    i++;
+                    appendQuantifier(sources, depth, pattern, atomStart, i);
+                    continue;
+                case '{':
+                    int end = pattern.indexOf('}', i);
+                    if (end < 0) {
+                        return null;
+                    }
+                    i = end + 1;
+                    appendQuantifier(sources, depth, pattern, atomStart, i);
+                    continue;
+                case '$':
+                    return null;
+                default:
+                    i++;
+                    break;
+            }
+            if (depth == 0) {
+                sources.add(pattern.substring(atomStart, i));
+            }
+        }
+
+        if (depth != 0) {
+            return null;
+        }
+        return sources;
+    }
+
+    private static void appendQuantifier(List<String> sources, int depth, String pattern, int start, int end) {
+        if (depth == 0 && !sources.isEmpty()) {
+            int last = sources.size() - 1;
+            sources.set(last, sources.get(last) + pattern.substring(start, end));
+        }
+    }
+
+    /**
+     * Method to skip a character class, including nested classes
+     *
+     * @param pattern the pattern
+     * @param start the index of the opening bracket
+     * @return the index after the closing bracket, or -1 if it can't be found
+     */
+    private static int skipCharacterClass(String pattern, int start) {
+        int i = start + 1;
+        if (i < pattern.length() && pattern.charAt(i) == '^') {
+            i++;
+        }
+        if (i < pattern.length() && pattern.charAt(i) == ']') {
+            // A leading closing bracket is ambiguous, don't guess
+            return -1;
+        }
+        int depth = 1;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == 'Q') {
+                    return -1;
+                }
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static class AnalyzedRule {
+
+        final JmxCollector.Rule rule;
+        final String literalSuffix;
+
+        AnalyzedRule(JmxCollector.Rule rule, String literalSuffix) {
+            this.rule = rule;
+            this.literalSuffix = literalSuffix;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import io.prometheus.jmx.logger.Logger;
+import io.prometheus.jmx.logger.LoggerFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * This object determines which rules can match a match name without evaluating their patterns.
+ * The main purpose of it is to skip the regular expression of most rules for most attributes.
+ *
+ * <p>For every rule, the longest run of literal characters that every match of its pattern must
+ * contain is extracted when the configuration is loaded. All literals are searched for at once
+ * with an Aho-Corasick automaton, so a single pass over the match name gives the rules whose
+ * literal it contains. Rules without a pattern, and rules whose pattern can't be analyzed, are
+ * always candidates. Rules are still evaluated in order, so the first matching rule wins as before.
+ *
+ * <p>Thread-safety: This class is immutable once created.
+ */
+class RulePrefilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RulePrefilter.class);
+
+    // Rule patterns are compiled as "^.*(?:" + pattern + ").*$"
+    private static final String RULE_PATTERN_PREFIX = "^.*(?:";
+    private static final String RULE_PATTERN_SUFFIX = ").*$";
+
+    // Literals are limited to ASCII characters, so the transitions fit into a small table
+    private static final int ALPHABET_LIMIT = 128;
+
+    private final BitSet alwaysCandidates;
+    private final int[] characterClasses;
+    private final int[][] transitions;
+    private final int[][] outputs;
+    private final int[][] rulesPerLiteral;
+
+    private RulePrefilter(
+            BitSet alwaysCandidates,
+            int[] characterClasses,
+            int[][] transitions,
+            int[][] outputs,
+            int[][] rulesPerLiteral) {
+        this.alwaysCandidates = alwaysCandidates;
+        this.characterClasses = characterClasses;
+        this.transitions = transitions;
+        this.outputs = outputs;
+        this.rulesPerLiteral = rulesPerLiteral;
+    }
+
+    /**
+     * Method to create a RulePrefilter for a list of rules
+     *
+     * @param rules rules
+     * @return a RulePrefilter, or null if no rule has a required literal
+     */
+    public static RulePrefilter create(List<JmxCollector.Rule> rules) {
+        BitSet alwaysCandidates = new BitSet(rules.size());
+        Map<String, List<Integer>> rulesByLiteral = new HashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            JmxCollector.Rule rule = rules.get(i);
+            String literal = null;
+            if (rule.pattern != null) {
+                String source = rule.pattern.pattern();
+                literal = getRequiredLiteral(
+                        source.substring(RULE_PATTERN_PREFIX.length(), source.length() - RULE_PATTERN_SUFFIX.length()));
+            }
+            if (literal == null) {
+                LOGGER.trace("Rule pattern %s has no required literal, always evaluating it", rule.pattern);
+                alwaysCandidates.set(i);
+            } else {
+                rulesByLiteral.computeIfAbsent(literal, l -> new ArrayList<>()).add(i);
+            }
+        }
+
+        if (rulesByLiteral.isEmpty()) {
+            return null;
+        }
+
+        List<String> literals = new ArrayList<>(rulesByLiteral.keySet());
+        int[][] rulesPerLiteral = new int[literals.size()][];
+        for (int i = 0; i < literals.size(); i++) {
+            rulesPerLiteral[i] = rulesByLiteral.get(literals.get(i)).stream()
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        // Class 0 is every character that doesn't occur in a literal
+        int[] characterClasses = new int[ALPHABET_LIMIT];
+        int classCount = 1;
+        for (String literal : literals) {
+            for (int i = 0; i < literal.length(); i++) {
+                char c = literal.charAt(i);
+                if (characterClasses[c] == 0) {
+                    characterClasses[c] = classCount++;
+                }
+            }
+        }
+
+        // Trie of the literals
+        List<int[]> gotos = new ArrayList<>();
+        List<int[]> nodeOutputs = new ArrayList<>();
+        gotos.add(newNode(classCount));
+        nodeOutputs.add(new int[0]);
+        for (int i = 0; i < literals.size(); i++) {
+            String literal = literals.get(i);
+            int node = 0;
+            for (int j = 0; j < literal.length(); j++) {
+                int characterClass = characterClasses[literal.charAt(j)];
+                if (gotos.get(node)[characterClass] < 0) {
+                    gotos.get(node)[characterClass] = gotos.size();
+                    gotos.add(newNode(classCount));
+                    nodeOutputs.add(new int[0]);
+                }
+                node = gotos.get(node)[characterClass];
+            }
+            nodeOutputs.set(node, append(nodeOutputs.get(node), i));
+        }
+
+        // Turn the trie into a deterministic automaton, breadth first so the failure state of a
+        // node is complete before the node is
+        int[][] transitions = gotos.toArray(new int[0][]);
+        int[][] outputs = nodeOutputs.toArray(new int[0][]);
+        int[] failures = new int[transitions.length];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int characterClass = 0; characterClass < classCount; characterClass++) {
+            int next = transitions[0][characterClass];
+            if (next < 0) {
+                transitions[0][characterClass] = 0;
+            } else {
+                failures[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.remove();
+            outputs[node] = concat(outputs[node], outputs[failures[node]]);
+            for (int characterClass = 0; characterClass < classCount; characterClass++) {
+                int next = transitions[node][characterClass];
+                if (next < 0) {
+                    transitions[node][characterClass] = transitions[failures[node]][characterClass];
+                } else {
+                    failures[next] = transitions[failures[node]][characterClass];
+                    queue.add(next);
+                }
+            }
+        }
+
+        return new RulePrefilter(alwaysCandidates, characterClasses, transitions, outputs, rulesPerLiteral);
+    }
+
+    /**
+     * Method to get the rules that can match a match name
+     *
+     * @param matchName the match name
+     * @return the indexes of the rules that can match, a superset of the rules that match
+     */
+    public BitSet getCandidates(String matchName) {
+        BitSet candidates = (BitSet) alwaysCandidates.clone();
+        int state = 0;
+        for (int i = 0; i < matchName.length(); i++) {
+            char c = matchName.charAt(i);
+            state = transitions[state][c < ALPHABET_LIMIT ? characterClasses[c] : 0];
+            for (int literal : outputs[state]) {
+                for (int rule : rulesPerLiteral[literal]) {
+                    candidates.set(rule);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Method to get the longest run of literal characters every match of a pattern contains
+     *
+     * @param pattern the pattern
+     * @return the literal, or null if the pattern can't be analyzed or has no literal
+     */
+    static String getRequiredLiteral(String pattern) {
+        List<Character> atoms = RuleBasedAttributeFilter.getTopLevelAtoms(pattern);
+        if (atoms == null) {
+            return null;
+        }
+
+        String longest = null;
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i <= atoms.size(); i++) {
+            Character atom = i < atoms.size() ? atoms.get(i) : null;
+            if (atom != null && atom < ALPHABET_LIMIT) {
+                run.append(atom.charValue());
+            } else {
+                if (run.length() > 0 && (longest == null || run.length() > longest.length())) {
+                    longest = run.toString();
+                }
+                run.setLength(0);
+            }
+        }
+        return longest;
+    }
+
+    private static int[] newNode(int classCount) {
+        int[] node = new int[classCount];
+        Arrays.fill(node, -1);
+        return node;
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        if (second.length == 0) {
+            return first;
+        }
+        int[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This object counts, per rule, how often its pattern was evaluated, how often it matched, how
+ * often its cached result was used and how long its pattern took to evaluate.
+ *
+ * <p>Rules are identified by their {@code id}, or by their index in the configuration if they
+ * have none. Rules skipped without evaluating their pattern, for example by the {@link
+ * RulePrefilter}, are not counted as evaluated.
+ *
+ * <p>Thread-safety: This class is thread-safe, the receivers of a parallel scrape record into the
+ * same instance.
+ */
+class RuleStatistics {
+
+    private final String[] ruleLabels;
+    private final LongAdder[] evaluations;
+    private final LongAdder[] matches;
+    private final LongAdder[] cacheHits;
+    private final LongAdder[] matchingNanos;
+
+    /**
+     * Constructor
+     *
+     * @param rules rules
+     */
+    public RuleStatistics(List<JmxCollector.Rule> rules) {
+        int size = rules.size();
+        this.ruleLabels = new String[size];
+        this.evaluations = new LongAdder[size];
+        this.matches = new LongAdder[size];
+        this.cacheHits = new LongAdder[size];
+        this.matchingNanos = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            String id = rules.get(i).id;
+            ruleLabels[i] = id != null ? id : String.valueOf(i);
+            evaluations[i] = new LongAdder();
+            matches[i] = new LongAdder();
+            cacheHits[i] = new LongAdder();
+            matchingNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Method to record the evaluation of a rule's pattern
+     *
+     * @param rule the index of the rule
+     * @param nanos the time the evaluation took
+     * @param matched true if the pattern matched
+     */
+    public void recordEvaluation(int rule, long nanos, boolean matched) {
+        evaluations[rule].increment();
+        matchingNanos[rule].add(nanos);
+        if (matched) {
+            matches[rule].increment();
+        }
+    }
+
+    /**
+     * Method to record that a rule's cached result was used
+     *
+     * @param rule the index of the rule
+     */
+    public void recordCacheHit(int rule) {
+        cacheHits[rule].increment();
+    }
+
+    /**
+     * Method to get the number of rules
+     *
+     * @return the number of rules
+     */
+    public int size() {
+        return ruleLabels.length;
+    }
+
+    /**
+     * Method to get the label value of a rule
+     *
+     * @param rule the index of the rule
+     * @return the id of the rule, or its index if it has none
+     */
+    public String getRuleLabel(int rule) {
+        return ruleLabels[rule];
+    }
+
+    /**
+     * Method to get the number of times a rule's pattern was evaluated
+     *
+     * @param rule the index of the rule
+     * @return the number of evaluations
+     */
+    public long getEvaluations(int rule) {
+        return evaluations[rule].sum();
+    }
+
+    /**
+     * Method to get the number of times a rule's pattern matched
+     *
+     * @param rule the index of the rule
+     * @return the number of matches
+     */
+    public long getMatches(int rule) {
+        return matches[rule].sum();
+    }
+
+    /**
+     * Method to get the number of times a rule's cached result was used
+     *
+     * @param rule the index of the rule
+     * @return the number of cache hits
+     */
+    public long getCacheHits(int rule) {
+        return cacheHits[rule].sum();
+    }
+
+    /**
+     * Method to get the total time spent evaluating a rule's pattern
+     *
+     * @param rule the index of the rule
+     * @return the time in seconds
+     */
+    public double getMatchingSeconds(int rule) {
+        return matchingNanos[rule].sum() / 1.0E9;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import java.util.List;
+
+/**
+ * Class to determine whether the result of a rule can depend on the value part of the match name
+ * ({@code ": " + value}), so rules that can't are cached automatically.
+ *
+ * <p>The analysis only covers numeric and boolean values, whose text only contains characters of
+ * numbers and booleans. A rule is value independent if every match of its pattern ends before the
+ * value part: the pattern must end with literal text that can't end inside the value part,
+ * optionally followed by atoms that can't match the colon in front of the value, such as {@code
+ * (\w+)} or {@code (Count|Value)}. Its name, value, help and label templates must not use the
+ * whole match ({@code $0}), as it contains the value.
+ */
+class RuleValueDependency {
+
+    // Rule patterns are compiled as "^.*(?:" + pattern + ").*$"
+    private static final String RULE_PATTERN_PREFIX = "^.*(?:";
+    private static final String RULE_PATTERN_SUFFIX = ").*$";
+
+    // Characters of numbers (including NaN, Infinity and exponents) and booleans
+    private static final String NUMERIC_OR_BOOLEAN_CHARACTERS = "0123456789-+.EINaefilnrstuy";
+
+    private RuleValueDependency() {
+        // Intentionally empty
+    }
+
+    /**
+     * Method to determine whether a rule produces the same result for every numeric or boolean
+     * value of an attribute
+     *
+     * @param rule rule
+     * @return true if the rule is value independent, false if it may be value dependent
+     */
+    static boolean isValueIndependent(JmxCollector.Rule rule) {
+        if (usesWholeMatch(rule.name) || usesWholeMatch(rule.value) || usesWholeMatch(rule.help)) {
+            return false;
+        }
+        if (rule.labelNames != null) {
+            for (int i = 0; i < rule.labelNames.size(); i++) {
+                if (usesWholeMatch(rule.labelNames.get(i)) || usesWholeMatch(rule.labelValues.get(i))) {
+                    return false;
+                }
+            }
+        }
+
+        if (rule.pattern == null) {
+            // Matches everything, and is exported with the default format
+            return rule.value == null || rule.value.isEmpty();
+        }
+
+        String source = rule.pattern.pattern();
+        String pattern = source.substring(RULE_PATTERN_PREFIX.length(), source.length() - RULE_PATTERN_SUFFIX.length());
+        List<String> atoms = RuleBasedAttributeFilter.getTopLevelAtomSources(pattern);
+        List<Character> literals = RuleBasedAttributeFilter.getTopLevelAtoms(pattern);
+        if (atoms == null || literals == null) {
+            return false;
+        }
+
+        // A match that reaches into the value part contains the colon in front of it, which the
+        // trailing atoms can't match, so the literal text before them must reach into it
+        int end = atoms.size();
+        while (end > 0 && literals.get(end - 1) == null && !canMatchColon(atoms.get(end - 1))) {
+            end--;
+        }
+        StringBuilder literal = new StringBuilder();
+        for (int i = end - 1; i >= 0 && literals.get(i) != null; i--) {
+            literal.append(literals.get(i).charValue());
+        }
+        return literal.length() > 0 && !canEndInValue(literal.reverse().toString());
+    }
+
+    /**
+     * Method to determine whether a literal can end inside the value part of any match name
+     *
+     * @param literal the literal
+     * @return true if the literal can end after the end of some match name prefix in prefix + ": " +
+     *     value, for some numeric or boolean value
+     */
+    static boolean canEndInValue(String literal) {
+        int length = literal.length();
+        // Offsets are relative to the colon, the characters before it can be anything
+        for (int start = 1 - length; start <= 2; start++) {
+            boolean placeable = true;
+            for (int i = 0; i < length && placeable; i++) {
+                int offset = start + i;
+                char c = literal.charAt(i);
+                if (offset == 0) {
+                    placeable = c == ':';
+                } else if (offset == 1) {
+                    placeable = c == ' ';
+                } else if (offset > 1) {
+                    placeable = NUMERIC_OR_BOOLEAN_CHARACTERS.indexOf(c) >= 0;
+                }
+            }
+            if (placeable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to determine whether an atom of a pattern can match a colon
+     *
+     * @param atom the source of the atom, including its quantifier
+     * @return false if the atom can't match a colon, true if it may
+     */
+    static boolean canMatchColon(String atom) {
+        int length = atom.length();
+        int i = 0;
+        while (i < length) {
+            char c = atom.charAt(i);
+            switch (c) {
+                case ':':
+                case '.':
+                    return true;
+                case '\\':
+                    if (i + 1 >= length) {
+                        return true;
+                    }
+                    char escaped = atom.charAt(i + 1);
+                    if (escaped == ':' || (Character.isLetterOrDigit(escaped) && "wds".indexOf(escaped) < 0)) {
+                        // Other classes, unicode and hexadecimal escapes, back references
+                        return true;
+                    }
+                    i += 2;
+                    break;
+                case '[':
+                    int end = findClassEnd(atom, i);
+                    if (end < 0 || classCanMatchColon(atom.substring(i + 1, end))) {
+                        return true;
+                    }
+                    i = end + 1;
+                    break;
+                case '(':
+                    if (i + 1 < length && atom.charAt(i + 1) == '?') {
+                        if (i + 2 < length && atom.charAt(i + 2) == ':') {
+                            i += 3;
+                        } else if (i + 3 < length
+                                && atom.charAt(i + 2) == '<'
+                                && Character.isLetter(atom.charAt(i + 3))) {
+                            int nameEnd = atom.indexOf('>', i);
+                            if (nameEnd < 0) {
+                                return true;
+                            }
+                            i = nameEnd + 1;
+                        } else {
+                            return true;
+                        }
+                    } else {
+                        i++;
+                    }
+                    break;
+                case '{':
+                    // Quantifier bounds
+                    int quantifierEnd = atom.indexOf('}', i);
+                    if (quantifierEnd < 0) {
+                        return true;
+                    }
+                    i = quantifierEnd + 1;
+                    break;
+                default:
+                    i++;
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private static int findClassEnd(String atom, int start) {
+        int i = start + 1;
+        while (i < atom.length()) {
+            char c = atom.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '[') {
+                // Nested classes and intersections are not analyzed
+                return -1;
+            } else if (c == ']' && i > start + 1) {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean classCanMatchColon(String members) {
+        if (members.startsWith("^") || members.contains("&&")) {
+            return true;
+        }
+        int i = 0;
+        while (i < members.length()) {
+            char first;
+            if (members.charAt(i) == '\\') {
+                if (i + 1 >= members.length()) {
+                    return true;
+                }
+                char escaped = members.charAt(i + 1);
+                if ("wds".indexOf(escaped) >= 0) {
+                    i += 2;
+                    continue;
+                }
+                if (Character.isLetterOrDigit(escaped)) {
+                    return true;
+                }
+                first = escaped;
+                i += 2;
+            } else {
+                first = members.charAt(i);
+                i++;
+            }
+
+            char last = first;
+            if (i + 1 < members.length() && members.charAt(i) == '-') {
+                last = members.charAt(i + 1);
+                if (last == '\\') {
+                    return true;
+                }
+                i += 2;
+            }
+            if (first <= ':' && ':' <= last) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to determine whether a replacement template uses the whole match
+     *
+     * @param template the template, may be null
+     * @return true if the template contains {@code $0}
+     */
+    private static boolean usesWholeMatch(String template) {
+        return template != null && template.contains("$0");
+    }
+}
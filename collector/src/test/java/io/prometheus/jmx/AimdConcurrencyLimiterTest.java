@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AimdConcurrencyLimiterTest {
+
+    private static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private AimdConcurrencyLimiter limiter;
+
+    @BeforeEach
+    public void setUp() {
+        limiter = new AimdConcurrencyLimiter(4, TARGET_NANOS);
+    }
+
+    private void succeed(int calls) throws Exception {
+        for (int i = 0; i < calls; i++) {
+            long start = limiter.acquire();
+            limiter.release(start, start + 1, false);
+        }
+    }
+
+    @Test
+    public void testLimitIncreasesAdditivelyUpToMax() throws Exception {
+        assertThat(limiter.getLimit()).isEqualTo(1);
+
+        // Only calls that used the whole limit increase it
+        succeed(1);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        succeed(10);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+
+        for (int round = 0; round < 20; round++) {
+            int limit = limiter.getLimit();
+            long[] starts = new long[limit];
+            for (int i = 0; i < limit; i++) {
+                starts[i] = limiter.acquire();
+            }
+            for (int i = 0; i < limit; i++) {
+                limiter.release(starts[i], starts[i] + 1, false);
+            }
+        }
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    public void testSlowOrFailedCallHalvesLimitOncePerCongestionEvent() throws Exception {
+        long[] starts = new long[4];
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < limiter.getLimit(); i++) {
+                starts[i] = limiter.acquire();
+            }
+            for (int i = limiter.getLimit() - 1; i >= 0; i--) {
+                limiter.release(starts[i], starts[i] + 1, false);
+            }
+        }
+        assertThat(limiter.getLimit()).isEqualTo(4);
+
+        for (int i = 0; i < 4; i++) {
+            starts[i] = limiter.acquire();
+        }
+        long end = starts[3] + TARGET_NANOS + 1;
+        // All four calls saw the same slow JVM
+        for (int i = 0; i < 4; i++) {
+            limiter.release(starts[i], end, false);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(2);
+
+        // A call started after the decrease sees a new congestion event
+        limiter.acquire();
+        limiter.release(end + 1, end + 2, true);
+        assertThat(limiter.getLimit()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        long start = limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                limiter.release(limiter.acquire(), false);
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+
+        assertThat(acquired.await(100, TimeUnit.MILLISECONDS)).isFalse();
+        limiter.release(start, false);
+        assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue();
+        thread.join();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+public class BeanSamplesTest {
+
+    private static MatchedRule sample(String name, double value) {
+        return new MatchedRule(
+                name, name, "GAUGE", "help", Collections.emptyList(), Collections.emptyList(), value, 1.0);
+    }
+
+    @Test
+    public void testCompleteWithLastGood() throws Exception {
+        ObjectName first = new ObjectName("io.prometheus.jmx:type=first");
+        ObjectName second = new ObjectName("io.prometheus.jmx:type=second");
+        ObjectName third = new ObjectName("io.prometheus.jmx:type=third");
+
+        BeanSamples lastGood = new BeanSamples();
+        lastGood.add(first, Collections.singletonList(sample("first", 1)));
+        lastGood.add(second, Arrays.asList(sample("second_a", 1), sample("second_b", 1)));
+        lastGood.add(third, Collections.emptyList());
+
+        BeanSamples partial = new BeanSamples();
+        partial.add(first, Collections.singletonList(sample("first", 2)));
+
+        BeanSamples completed = partial.complete(lastGood);
+
+        assertThat(completed.getMatchedRules())
+                .extracting(matchedRule -> matchedRule.name + "=" + matchedRule.value)
+                .containsExactly("first=2.0", "second_a=1.0", "second_b=1.0");
+        assertThat(completed.getStaleSampleCount()).isEqualTo(2);
+        assertThat(partial.getStaleSampleCount()).isZero();
+    }
+
+    @Test
+    public void testCompleteWithoutLastGood() throws Exception {
+        BeanSamples partial = new BeanSamples();
+        partial.add(new ObjectName("io.prometheus.jmx:type=first"), Collections.singletonList(sample("first", 2)));
+
+        BeanSamples completed = partial.complete(null);
+
+        assertThat(completed.getMatchedRules()).hasSize(1);
+        assertThat(completed.getStaleSampleCount()).isZero();
+    }
+}
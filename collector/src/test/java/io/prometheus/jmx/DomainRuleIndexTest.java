@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class DomainRuleIndexTest {
+
+    private static JmxCollector.Rule rule(String pattern) {
+        JmxCollector.Rule rule = new JmxCollector.Rule();
+        rule.pattern = Pattern.compile("^.*(?:" + pattern + ").*$");
+        return rule;
+    }
+
+    @Test
+    public void testGetDomain() {
+        // The unescaped dot matches any character
+        assertThat(DomainRuleIndex.getDomain("kafka.server<type=(.+), name=(.+)><>Count"))
+                .isEqualTo("server");
+        assertThat(DomainRuleIndex.getDomain("^hadoop<service=DataNode><>replaceBlockOpMinTime"))
+                .isEqualTo("hadoop");
+        assertThat(DomainRuleIndex.getDomain("org\\.apache\\.cassandra\\.metrics<type=(\\w+)><>Count"))
+                .isEqualTo("org.apache.cassandra.metrics");
+    }
+
+    @Test
+    public void testPatternsWithoutDomain() {
+        assertThat(DomainRuleIndex.getDomain("kafka.(\\w+)<type=(.+)><>Value")).isNull();
+        assertThat(DomainRuleIndex.getDomain("<>Count")).isNull();
+        assertThat(DomainRuleIndex.getDomain(".*<type=Memory>")).isNull();
+        assertThat(DomainRuleIndex.getDomain("kafka.server<|other")).isNull();
+        assertThat(DomainRuleIndex.getDomain("Count: <cache>")).isNull();
+    }
+
+    @Test
+    public void testNoRuleWithDomain() {
+        assertThat(DomainRuleIndex.create(Collections.singletonList(new JmxCollector.Rule())))
+                .isNull();
+    }
+
+    @Test
+    public void testCandidates() {
+        List<JmxCollector.Rule> rules = Arrays.asList(
+                rule("kafka.server<type=(.+), name=(.+)><>Count"),
+                rule("java.lang<type=Memory><HeapMemoryUsage>used"),
+                rule("<>Value"),
+                rule("kafka.server<type=(.+)><>Value"),
+                new JmxCollector.Rule());
+        DomainRuleIndex domainRuleIndex = DomainRuleIndex.create(rules);
+
+        assertThat(domainRuleIndex.getCandidates("kafka.server<type=Broker, name=Bytes><>"))
+                .containsExactly(0, 2, 3, 4);
+        assertThat(domainRuleIndex.getCandidates("java.lang<type=Memory><HeapMemoryUsage>"))
+                .containsExactly(1, 2, 4);
+        // Patterns are not anchored
+        assertThat(domainRuleIndex.getCandidates("my.kafka.server<type=Broker><>"))
+                .containsExactly(0, 2, 3, 4);
+        // A key property value can contain another domain
+        assertThat(domainRuleIndex.getCandidates("other<name=java.lang<type=Memory><>"))
+                .containsExactly(1, 2, 4);
+        assertThat(domainRuleIndex.getCandidates("other<type=Memory><>")).containsExactly(2, 4);
+    }
+
+    @Test
+    public void testIsApplicable() {
+        assertThat(DomainRuleIndex.isApplicable("Count", 1L)).isTrue();
+        assertThat(DomainRuleIndex.isApplicable("Count", true)).isTrue();
+        assertThat(DomainRuleIndex.isApplicable("Name", "value")).isTrue();
+        assertThat(DomainRuleIndex.isApplicable("Name", "java.lang<type=Memory>"))
+                .isFalse();
+        assertThat(DomainRuleIndex.isApplicable("Count<1>", 1L)).isFalse();
+    }
+}
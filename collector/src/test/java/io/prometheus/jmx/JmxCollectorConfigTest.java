@@ -21,11 +21,23 @@ import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException
 
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.LogManager;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
 
 @SuppressWarnings("unchecked")
 public class JmxCollectorConfigTest {
@@ -69,6 +81,359 @@ public class JmxCollectorConfigTest {
         }
     }
 
+    @Nested
+    class ScrapeParallelismTests {
+
+        @Test
+        public void testScrapeParallelismAsStringThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\nscrapeParallelism: not_a_number"));
+        }
+
+        @Test
+        public void testZeroScrapeParallelismThrowsException() {
+            assertThatIllegalArgumentException().isThrownBy(() -> new JmxCollector("---\nscrapeParallelism: 0"));
+        }
+
+        @Test
+        public void testZeroRemoteConnectionPoolSizeThrowsException() {
+            assertThatIllegalArgumentException().isThrownBy(() -> new JmxCollector("---\nremoteConnectionPoolSize: 0"));
+        }
+
+        @Test
+        public void testRemoteConnectionLatencyTargetAsStringThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\nremoteConnectionLatencyTargetMilliseconds: fast"));
+        }
+
+        @Test
+        public void testScrapeParallelismProducesSameSamples() throws Exception {
+            new JmxCollector("---\n"
+                            + "scrapeParallelism: 4\n"
+                            + "rules:\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime:'\n"
+                            + "  name: parallel_hadoop_metric")
+                    .register(prometheusRegistry);
+
+            assertThat(getSampleValue("parallel_hadoop_metric", new String[] {}, new String[] {}))
+                    .isCloseTo(200, org.assertj.core.data.Offset.offset(0.001));
+        }
+    }
+
+    @Nested
+    class BackgroundScrapeTests {
+
+        @Test
+        public void testBackgroundScrapeIntervalAsStringThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\nbackgroundScrapeIntervalSeconds: not_a_number"));
+        }
+
+        @Test
+        public void testZeroBackgroundScrapeIntervalThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\nbackgroundScrapeIntervalSeconds: 0"));
+        }
+
+        @Test
+        public void testCollectReturnsLatestSnapshot() throws Exception {
+            JmxCollector jmxCollector = new JmxCollector("---\n"
+                            + "backgroundScrapeIntervalSeconds: 3600\n"
+                            + "rules:\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime:'\n"
+                            + "  name: background_hadoop_metric")
+                    .register(prometheusRegistry);
+
+            MetricSnapshots first = jmxCollector.collect();
+            MetricSnapshots second = jmxCollector.collect();
+
+            assertThat(second).isSameAs(first);
+            assertThat(getSampleValue("background_hadoop_metric", new String[] {}, new String[] {}))
+                    .isCloseTo(200, org.assertj.core.data.Offset.offset(0.001));
+            assertThat(getSampleValue("jmx_scrape_snapshot_age_seconds", new String[] {}, new String[] {}))
+                    .isGreaterThanOrEqualTo(0);
+        }
+    }
+
+    @Nested
+    class SlowMBeanTests {
+
+        @Test
+        public void testSlowMBeanBudgetAsStringThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\nslowMBeanBudgetMilliseconds: not_a_number"));
+        }
+
+        @Test
+        public void testZeroSlowMBeanRefreshSecondsThrowsException() {
+            assertThatIllegalArgumentException().isThrownBy(() -> new JmxCollector("---\nslowMBeanRefreshSeconds: 0"));
+        }
+
+        @Test
+        public void testNegativeSlowMBeanTopNThrowsException() {
+            assertThatIllegalArgumentException().isThrownBy(() -> new JmxCollector("---\nslowMBeanTopN: -1"));
+        }
+
+        @Test
+        public void testSlowMBeansAreExposed() throws Exception {
+            new JmxCollector("---\n"
+                            + "slowMBeanBudgetMilliseconds: 1000\n"
+                            + "slowMBeanTopN: 3\n"
+                            + "rules:\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime:'\n"
+                            + "  name: tracked_hadoop_metric")
+                    .register(prometheusRegistry);
+
+            assertThat(getSampleValue("tracked_hadoop_metric", new String[] {}, new String[] {}))
+                    .isCloseTo(200, org.assertj.core.data.Offset.offset(0.001));
+            assertThat(getSampleValue("jmx_scrape_slow_mbeans", new String[] {}, new String[] {}))
+                    .isEqualTo(0);
+        }
+    }
+
+    @Nested
+    class RuleMetricsTests {
+
+        @Test
+        public void testDuplicateRuleIdThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\n"
+                            + "rules:\n"
+                            + "- pattern: 'foo'\n"
+                            + "  id: same\n"
+                            + "- pattern: 'bar'\n"
+                            + "  id: same"));
+        }
+
+        @Test
+        public void testRuleMetricsAreExposed() throws Exception {
+            new JmxCollector("---\n"
+                            + "ruleMetrics: true\n"
+                            + "rules:\n"
+                            + "- pattern: 'never_matching_pattern'\n"
+                            + "  name: never\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime:'\n"
+                            + "  id: hadoop\n"
+                            + "  name: tracked_hadoop_metric")
+                    .register(prometheusRegistry);
+
+            prometheusRegistry.scrape();
+
+            assertThat(getSampleValue("jmx_rule_evaluations", new String[] {"rule"}, new String[] {"hadoop"}))
+                    .isGreaterThan(0);
+            assertThat(getSampleValue("jmx_rule_matches", new String[] {"rule"}, new String[] {"hadoop"}))
+                    .isGreaterThanOrEqualTo(1);
+            assertThat(getSampleValue("jmx_rule_matching_seconds", new String[] {"rule"}, new String[] {"hadoop"}))
+                    .isGreaterThan(0);
+            // Skipped by the prefilter, as no match name contains its literal
+            assertThat(getSampleValue("jmx_rule_evaluations", new String[] {"rule"}, new String[] {"0"}))
+                    .isEqualTo(0);
+            assertThat(getSampleValue("jmx_rule_cached_matches", new String[] {"rule"}, new String[] {"0"}))
+                    .isEqualTo(0);
+        }
+
+        @Test
+        public void testRuleCacheHitsAreCounted() throws Exception {
+            new JmxCollector("---\n"
+                            + "ruleMetrics: true\n"
+                            + "rules:\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime'\n"
+                            + "  id: hadoop\n"
+                            + "  name: tracked_hadoop_metric\n"
+                            + "  cache: true")
+                    .register(prometheusRegistry);
+
+            prometheusRegistry.scrape();
+            prometheusRegistry.scrape();
+
+            assertThat(getSampleValue("jmx_rule_cached_matches", new String[] {"rule"}, new String[] {"hadoop"}))
+                    .isGreaterThanOrEqualTo(1);
+        }
+
+        @Test
+        public void testZeroRuleCacheMaxSizeThrowsException() {
+            assertThatIllegalArgumentException().isThrownBy(() -> new JmxCollector("---\nruleCacheMaxSize: 0"));
+        }
+
+        @Test
+        public void testRuleCachePersistIntervalSecondsAsStringThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\nruleCachePersistIntervalSeconds: not_a_number"));
+        }
+
+        @Test
+        public void testRuleCacheFileWarmsUpARestartedCollector(@TempDir Path directory) throws Exception {
+            String yaml = "---\n"
+                    + "ruleCacheFile: " + directory.resolve("rules.cache") + "\n"
+                    + "rules:\n"
+                    + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime'\n"
+                    + "  name: tracked_hadoop_metric\n"
+                    + "  cache: true";
+            JmxCollector collector = new JmxCollector(yaml).register(new PrometheusRegistry());
+            collector.collect();
+            collector.close();
+
+            new JmxCollector(yaml).register(prometheusRegistry);
+            prometheusRegistry.scrape();
+
+            assertThat(getSampleValue("jmx_rule_cache_hits", new String[] {}, new String[] {}))
+                    .isGreaterThanOrEqualTo(1);
+            assertThat(getSampleValue("tracked_hadoop_metric", new String[] {}, new String[] {}))
+                    .isNotNull();
+        }
+
+        @Test
+        public void testRuleCacheFileIsNotWrittenOnTheScrapeThread(@TempDir Path directory) throws Exception {
+            Path ruleCacheFile = directory.resolve("rules.cache");
+            Map<String, Object> yamlConfig = new Yaml(new SafeConstructor(new LoaderOptions()))
+                    .load("---\n"
+                            + "ruleCacheFile: " + ruleCacheFile + "\n"
+                            + "ruleCachePersistIntervalSeconds: 1\n"
+                            + "rules:\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime'\n"
+                            + "  name: tracked_hadoop_metric\n"
+                            + "  cache: true");
+            // Counts the tasks run on the scrape thread
+            AtomicInteger scrapeTasks = new AtomicInteger();
+            ExecutorService scrapeExecutor =
+                    new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+                        @Override
+                        public void execute(Runnable command) {
+                            scrapeTasks.incrementAndGet();
+                            super.execute(command);
+                        }
+                    };
+            try {
+                JmxCollector collector = new JmxCollector(yamlConfig, null, scrapeExecutor);
+                collector.register(new PrometheusRegistry());
+                Thread.sleep(1100);
+                collector.collect();
+
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (!Files.exists(ruleCacheFile) && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertThat(ruleCacheFile).exists();
+                assertThat(scrapeTasks.get()).isEqualTo(1);
+                collector.close();
+            } finally {
+                scrapeExecutor.shutdownNow();
+            }
+        }
+
+        @Test
+        public void testRuleCacheMetricsAreExposed() throws Exception {
+            new JmxCollector("---\n"
+                            + "ruleCacheMaxSize: 1\n"
+                            + "rules:\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime'\n"
+                            + "  name: tracked_hadoop_metric\n"
+                            + "  cache: true")
+                    .register(prometheusRegistry);
+
+            prometheusRegistry.scrape();
+            prometheusRegistry.scrape();
+
+            assertThat(getSampleValue("jmx_rule_cache_hits", new String[] {}, new String[] {}))
+                    .isGreaterThanOrEqualTo(1);
+            assertThat(getSampleValue("jmx_rule_cache_misses", new String[] {}, new String[] {}))
+                    .isGreaterThanOrEqualTo(1);
+            assertThat(getSampleValue("jmx_rule_cache_evictions", new String[] {}, new String[] {}))
+                    .isNotNull();
+            assertThat(getSampleValue("jmx_rule_cache_size_bytes", new String[] {}, new String[] {}))
+                    .isGreaterThan(0);
+            assertThat(getSampleValue("jmx_scrape_cached_beans", new String[] {}, new String[] {}))
+                    .isEqualTo(1);
+        }
+
+        @Test
+        public void testRuleMetricsAreDisabledByDefault() throws Exception {
+            new JmxCollector("---\n"
+                            + "rules:\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime:'\n"
+                            + "  id: hadoop\n"
+                            + "  name: tracked_hadoop_metric")
+                    .register(prometheusRegistry);
+
+            prometheusRegistry.scrape();
+
+            assertThat(getSampleValue("jmx_rule_evaluations", new String[] {"rule"}, new String[] {"hadoop"}))
+                    .isNull();
+        }
+    }
+
+    @Nested
+    class RefreshIntervalsTests {
+
+        @Test
+        public void testRefreshIntervalWithoutObjectNameThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\nrefreshIntervals:\n- refreshSeconds: 300"));
+        }
+
+        @Test
+        public void testRefreshIntervalWithoutRefreshSecondsThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\nrefreshIntervals:\n- objectName: 'hadoop:*'"));
+        }
+
+        @Test
+        public void testZeroRefreshSecondsThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() ->
+                            new JmxCollector("---\nrefreshIntervals:\n- objectName: 'hadoop:*'\n  refreshSeconds: 0"));
+        }
+
+        @Test
+        public void testMBeanWithRefreshIntervalIsInEveryCollection() throws Exception {
+            JmxCollector jmxCollector = new JmxCollector("---\n"
+                            + "refreshIntervals:\n"
+                            + "- objectName: 'hadoop:service=DataNode,*'\n"
+                            + "  refreshSeconds: 3600\n"
+                            + "rules:\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime:'\n"
+                            + "  name: refreshed_hadoop_metric")
+                    .register(prometheusRegistry);
+
+            jmxCollector.collect();
+
+            assertThat(getSampleValue("refreshed_hadoop_metric", new String[] {}, new String[] {}))
+                    .isCloseTo(200, org.assertj.core.data.Offset.offset(0.001));
+        }
+    }
+
+    @Nested
+    class NegativeMatchTests {
+
+        @Test
+        public void testZeroNegativeMatchTtlThrowsException() {
+            assertThatIllegalArgumentException().isThrownBy(() -> new JmxCollector("---\nnegativeMatchTtlSeconds: 0"));
+        }
+
+        @Test
+        public void testInvalidNegativeMatchTtlThrowsException() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> new JmxCollector("---\nnegativeMatchTtlSeconds: soon"));
+        }
+
+        @Test
+        public void testMatchedAttributeIsInEveryCollection() throws Exception {
+            JmxCollector jmxCollector = new JmxCollector("---\n"
+                            + "negativeMatchTtlSeconds: 3600\n"
+                            + "rules:\n"
+                            + "- pattern: '^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime:'\n"
+                            + "  name: negative_match_hadoop_metric")
+                    .register(prometheusRegistry);
+
+            for (int i = 0; i < NegativeMatchFilter.MISSES_BEFORE_EXCLUSION + 1; i++) {
+                jmxCollector.collect();
+            }
+
+            assertThat(getSampleValue("negative_match_hadoop_metric", new String[] {}, new String[] {}))
+                    .isCloseTo(200, org.assertj.core.data.Offset.offset(0.001));
+        }
+    }
+
     @Nested
     class HostPortAndJmxUrlTests {
 
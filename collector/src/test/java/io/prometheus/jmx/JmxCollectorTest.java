@@ -22,10 +22,29 @@ import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.within;
 
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.DataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.LogManager;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import javax.management.remote.MBeanServerForwarder;
+import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -82,6 +101,16 @@ public class JmxCollectorTest {
         assertThat(getSampleValue("foo", new String[] {}, new String[] {})).isCloseTo(200, within(0.001));
     }
 
+    @Test
+    public void testSnakeCaseAttrNameAfterOtherRules() throws Exception {
+        new JmxCollector(
+                        "\n---\nrules:\n- pattern: `^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replace_block_op_min_time:`\n  name: bar\n- pattern: `^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replace_block_op_min_time:`\n  name: foo\n  attrNameSnakeCase: true"
+                                .replace('`', '"'))
+                .register(prometheusRegistry);
+        assertThat(getSampleValue("bar", new String[] {}, new String[] {})).isNull();
+        assertThat(getSampleValue("foo", new String[] {}, new String[] {})).isCloseTo(200, within(0.001));
+    }
+
     @Test
     public void testLabelsAreSet() throws Exception {
         new JmxCollector(
@@ -544,6 +573,30 @@ public class JmxCollectorTest {
         assertThat(actual).isEqualTo(Camel.EXPECTED_SECONDS);
     }
 
+    @Test
+    public void testValueIndependentRulesAreCachedAutomatically() throws Exception {
+        new JmxCollector(
+                        "\n---\nrules:\n- pattern: `^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime`\n  name: foo"
+                                .replace('`', '"'))
+                .register(prometheusRegistry);
+        assertThat(getSampleValue("foo", new String[] {}, new String[] {})).isCloseTo(200, within(0.001));
+        assertThat(getSampleValue("jmx_scrape_cached_beans", new String[] {}, new String[] {}))
+                .isGreaterThan(0);
+        // Cached rules give the same result
+        assertThat(getSampleValue("foo", new String[] {}, new String[] {})).isCloseTo(200, within(0.001));
+    }
+
+    @Test
+    public void testValueDependentRulesAreNotCachedAutomatically() throws Exception {
+        new JmxCollector(
+                        "\n---\nrules:\n- pattern: `^hadoop<service=DataNode, name=DataNodeActivity-ams-hdd001-50010><>replaceBlockOpMinTime: (\\\\d+)`\n  name: foo"
+                                .replace('`', '"'))
+                .register(prometheusRegistry);
+        assertThat(getSampleValue("foo", new String[] {}, new String[] {})).isCloseTo(200, within(0.001));
+        assertThat(getSampleValue("jmx_scrape_cached_beans", new String[] {}, new String[] {}))
+                .isCloseTo(0, within(0.001));
+    }
+
     /*
     @Test
     public void testCachedBeansDisabled() throws Exception {
@@ -816,6 +869,222 @@ public class JmxCollectorTest {
         assertThat(timeoutCount).isCloseTo(0.0, within(0.001));
     }
 
+    @Test
+    public void timedOutScrapeIsCancelled() throws Exception {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        SlowValue.registerBeans(mbs, 10);
+        try {
+            SlowValue.delayMillis = 2000;
+            new JmxCollector("---\nscrapeTimeoutSeconds: 1\nincludeObjectNames: [`io.prometheus.jmx.slow:*`]"
+                            .replace('`', '"'))
+                    .register(prometheusRegistry);
+            long start = System.nanoTime();
+            getSampleValue("jmx_scrape_timeout", new String[] {}, new String[] {});
+            SlowValue.delayMillis = 0;
+
+            // Without cancellation the first scrape holds up the next ones for 20 seconds
+            Double abandonedBeans = getSampleValue("jmx_scrape_abandoned_beans", new String[] {}, new String[] {});
+            while (abandonedBeans == 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+                Thread.sleep(10);
+                abandonedBeans = getSampleValue("jmx_scrape_abandoned_beans", new String[] {}, new String[] {});
+            }
+
+            assertThat(abandonedBeans).isGreaterThan(0.0);
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(10));
+        } finally {
+            SlowValue.delayMillis = 0;
+            SlowValue.unregisterBeans(mbs);
+        }
+    }
+
+    @Test
+    public void timedOutScrapeIsCompletedWithLastGoodValues() throws Exception {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        SlowValue.registerBeans(mbs, 10);
+        try {
+            JmxCollector jmxCollector = new JmxCollector(
+                            "---\nscrapeTimeoutSeconds: 1\nscrapeTimeoutPartialResults: true\nincludeObjectNames: [`io.prometheus.jmx.slow:*`]"
+                                    .replace('`', '"'))
+                    .register(prometheusRegistry);
+            Assertions.assertThat(getSlowValues(jmxCollector.collect()))
+                    .hasSize(10)
+                    .containsOnly(1.0);
+
+            // Only the first few beans are scraped before the timeout
+            SlowValue.value = 2;
+            SlowValue.delayMillis = 300;
+            List<Double> values = getSlowValues(jmxCollector.collect());
+
+            Assertions.assertThat(values).hasSize(10).contains(1.0, 2.0);
+            assertThat(getSampleValue("jmx_scrape_partial", new String[] {}, new String[] {}))
+                    .isEqualTo(1.0);
+            assertThat(getSampleValue("jmx_scrape_stale_series", new String[] {}, new String[] {}))
+                    .isGreaterThan(0.0);
+        } finally {
+            SlowValue.delayMillis = 0;
+            SlowValue.value = 1;
+            SlowValue.unregisterBeans(mbs);
+        }
+    }
+
+    @Test
+    public void timedOutBackgroundScrapeIsCancelled() throws Exception {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        SlowValue.registerBeans(mbs, 10);
+        JmxCollector jmxCollector = null;
+        try {
+            SlowValue.value = 2;
+            SlowValue.delayMillis = 300;
+            jmxCollector = new JmxCollector(
+                            "---\nbackgroundScrapeIntervalSeconds: 60\nscrapeTimeoutSeconds: 1\nscrapeTimeoutPartialResults: true\nincludeObjectNames: [`io.prometheus.jmx.slow:*`]"
+                                    .replace('`', '"'))
+                    .register(prometheusRegistry);
+            long start = System.nanoTime();
+
+            // Without a timeout the first collect waits for all beans, 3 seconds
+            List<Double> values = getSlowValues(jmxCollector.collect());
+
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(2500));
+            Assertions.assertThat(values).isNotEmpty().hasSizeLessThan(10).containsOnly(2.0);
+            assertThat(getSampleValue("jmx_scrape_timeout", new String[] {}, new String[] {}))
+                    .isEqualTo(1.0);
+            assertThat(getSampleValue("jmx_scrape_partial", new String[] {}, new String[] {}))
+                    .isEqualTo(1.0);
+        } finally {
+            if (jmxCollector != null) {
+                jmxCollector.close();
+            }
+            SlowValue.delayMillis = 0;
+            SlowValue.value = 1;
+            SlowValue.unregisterBeans(mbs);
+        }
+    }
+
+    @Test
+    public void reRegisteredMBeanIsScrapedWithItsNewAttributesWithoutReusedConnection() throws Exception {
+        MBeanServer mbs = MBeanServerFactory.newMBeanServer();
+        ObjectName mBeanName = new ObjectName("replaced:type=Test");
+        mbs.registerMBean(new CustomValue(), mBeanName);
+        JMXConnectorServer connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+                new JMXServiceURL("service:jmx:rmi://localhost"), null, mbs);
+        connectorServer.start();
+        JmxCollector jmxCollector = null;
+        try {
+            jmxCollector = new JmxCollector("---\njmxUrl: " + connectorServer.getAddress() + "\nreuseConnection: false")
+                    .register(prometheusRegistry);
+            assertThat(getSampleValue("replaced_Test_Value", new String[] {}, new String[] {}))
+                    .isEqualTo(345.0);
+
+            // Replaced between two scrapes, with other attributes
+            mbs.unregisterMBean(mBeanName);
+            mbs.registerMBean(new Bool(), mBeanName);
+
+            assertThat(getSampleValue("replaced_Test_True", new String[] {}, new String[] {}))
+                    .isEqualTo(1.0);
+            assertThat(getSampleValue("replaced_Test_Value", new String[] {}, new String[] {}))
+                    .isNull();
+        } finally {
+            if (jmxCollector != null) {
+                jmxCollector.close();
+            }
+            connectorServer.stop();
+        }
+    }
+
+    @Test
+    public void beanContextIsKeptBetweenScrapesOfTheMBean() throws Exception {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName mBeanName = new ObjectName("beancontext:type=Test");
+        mbs.registerMBean(new CustomValue(), mBeanName);
+        JmxCollector jmxCollector = null;
+        try {
+            jmxCollector =
+                    new JmxCollector("---\nincludeObjectNames: [\"beancontext:*\"]").register(prometheusRegistry);
+            assertThat(getSampleValue("beancontext_Test_Value", new String[] {}, new String[] {}))
+                    .isEqualTo(345.0);
+            Object beanContext = jmxCollector.getBeanContexts().get(mBeanName);
+
+            assertThat(getSampleValue("beancontext_Test_Value", new String[] {}, new String[] {}))
+                    .isEqualTo(345.0);
+            assertThat(beanContext).isNotNull();
+            assertThat(jmxCollector.getBeanContexts().get(mBeanName)).isSameAs(beanContext);
+
+            mbs.unregisterMBean(mBeanName);
+            assertThat(getSampleValue("beancontext_Test_Value", new String[] {}, new String[] {}))
+                    .isNull();
+            assertThat(jmxCollector.getBeanContexts().containsKey(mBeanName)).isFalse();
+        } finally {
+            if (jmxCollector != null) {
+                jmxCollector.close();
+            }
+            if (mbs.isRegistered(mBeanName)) {
+                mbs.unregisterMBean(mBeanName);
+            }
+        }
+    }
+
+    @Test
+    public void pooledScrapeUsesTheMBeanInfoCache() throws Exception {
+        MBeanServer mbs = MBeanServerFactory.newMBeanServer();
+        for (int i = 0; i < 4; i++) {
+            mbs.registerMBean(new CustomValue(), new ObjectName("pooled:type=Test,name=" + i));
+        }
+        AtomicInteger getMBeanInfoCalls = new AtomicInteger();
+        JMXConnectorServer connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+                new JMXServiceURL("service:jmx:rmi://localhost"), null, null);
+        connectorServer.setMBeanServerForwarder((MBeanServerForwarder) Proxy.newProxyInstance(
+                MBeanServerForwarder.class.getClassLoader(),
+                new Class<?>[] {MBeanServerForwarder.class},
+                (proxy, method, args) -> {
+                    if ("getMBeanServer".equals(method.getName())) {
+                        return mbs;
+                    }
+                    if ("setMBeanServer".equals(method.getName())) {
+                        return null;
+                    }
+                    if ("getMBeanInfo".equals(method.getName())
+                            && "pooled".equals(((ObjectName) args[0]).getDomain())) {
+                        getMBeanInfoCalls.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(mbs, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+        connectorServer.start();
+        JmxCollector jmxCollector = null;
+        try {
+            jmxCollector = new JmxCollector("---\njmxUrl: " + connectorServer.getAddress()
+                            + "\nscrapeParallelism: 2\nremoteConnectionPoolSize: 2"
+                            + "\nincludeObjectNames: [\"pooled:*\"]")
+                    .register(prometheusRegistry);
+            for (int i = 0; i < 3; i++) {
+                assertThat(getSampleValue("pooled_Test_Value", new String[] {"name"}, new String[] {"0"}))
+                        .isEqualTo(345.0);
+            }
+
+            assertThat(getMBeanInfoCalls.get()).isEqualTo(4);
+        } finally {
+            if (jmxCollector != null) {
+                jmxCollector.close();
+            }
+            connectorServer.stop();
+        }
+    }
+
+    private static List<Double> getSlowValues(MetricSnapshots metricSnapshots) {
+        List<Double> values = new ArrayList<>();
+        for (MetricSnapshot metricSnapshot : metricSnapshots) {
+            if (metricSnapshot.getMetadata().getName().startsWith("io_prometheus_jmx_slow")) {
+                for (DataPointSnapshot dataPoint : metricSnapshot.getDataPoints()) {
+                    values.add(((UnknownSnapshot.UnknownDataPointSnapshot) dataPoint).getValue());
+                }
+            }
+        }
+        return values;
+    }
+
     @Test
     public void collectDoesNotThrowOnNormalScrape() throws Exception {
         new JmxCollector("---\nscrapeTimeoutSeconds: 60").register(prometheusRegistry);
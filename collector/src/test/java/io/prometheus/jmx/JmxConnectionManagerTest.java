@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class JmxConnectionManagerTest {
+
+    private JMXConnectorServer connectorServer;
+    private String jmxUrl;
+    private CountingConnector connector;
+    private JmxConnectionManager manager;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+        connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+                new JMXServiceURL("service:jmx:rmi://localhost"), null, mBeanServer);
+        connectorServer.start();
+        jmxUrl = connectorServer.getAddress().toString();
+        connector = new CountingConnector();
+        manager = new JmxConnectionManager();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        manager.close();
+        connectorServer.stop();
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        MBeanServerConnection first = manager.getConnection(jmxUrl, "settings", connector);
+        MBeanServerConnection second = manager.getConnection(jmxUrl, "settings", connector);
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.getMBeanCount()).isPositive();
+        assertThat(connector.connects.get()).isEqualTo(1);
+        assertThat(manager.getLastConnectDurationSeconds()).isNotNaN();
+        assertThat(manager.getReconnects()).isZero();
+    }
+
+    @Test
+    public void testFailedNotificationCausesReconnect() throws Exception {
+        MBeanServerConnection first = manager.getConnection(jmxUrl, "settings", connector);
+
+        JMXConnector jmxConnector = connector.jmxConnectors.get(0);
+        manager.handleNotification(
+                new JMXConnectionNotification(
+                        JMXConnectionNotification.FAILED, jmxConnector, jmxConnector.getConnectionId(), 1, null, null),
+                jmxConnector);
+        MBeanServerConnection second = manager.getConnection(jmxUrl, "settings", connector);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(connector.connects.get()).isEqualTo(2);
+        assertThat(connector.disconnects.get()).isEqualTo(1);
+        assertThat(manager.getReconnects()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNotificationOfReplacedConnectionIsIgnored() throws Exception {
+        manager.getConnection(jmxUrl, "settings", connector);
+        manager.invalidate();
+        MBeanServerConnection second = manager.getConnection(jmxUrl, "settings", connector);
+
+        JMXConnector replaced = connector.jmxConnectors.get(0);
+        manager.handleNotification(
+                new JMXConnectionNotification(JMXConnectionNotification.CLOSED, replaced, "id", 1, null, null),
+                replaced);
+
+        assertThat(manager.getConnection(jmxUrl, "settings", connector)).isSameAs(second);
+        assertThat(connector.connects.get()).isEqualTo(2);
+        assertThat(manager.getReconnects()).isEqualTo(1);
+    }
+
+    @Test
+    public void testChangedSettingsOpenNewConnection() throws Exception {
+        MBeanServerConnection first = manager.getConnection(jmxUrl, "settings", connector);
+        MBeanServerConnection second = manager.getConnection(jmxUrl, "other settings", connector);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(connector.connects.get()).isEqualTo(2);
+        assertThat(connector.disconnects.get()).isEqualTo(1);
+        assertThat(manager.getReconnects()).isZero();
+    }
+
+    // Every configuration load creates new SslProperties
+    private static JmxCollector.SslProperties loadSslProperties() {
+        JmxCollector.KeyStoreProperties keyStoreProperties = new JmxCollector.KeyStoreProperties();
+        keyStoreProperties.path = Paths.get("/path/to/keystore");
+        keyStoreProperties.type = "JKS";
+        keyStoreProperties.password = "changeit".toCharArray();
+        JmxCollector.SslProperties sslProperties = new JmxCollector.SslProperties(true);
+        sslProperties.keyStoreProperties = keyStoreProperties;
+        sslProperties.protocols = Arrays.asList("TLSv1.2", "TLSv1.3");
+        return sslProperties;
+    }
+
+    @Test
+    public void testEqualSettingsOfReloadedConfigurationKeepConnection() throws Exception {
+        MBeanServerConnection first =
+                manager.getConnection(jmxUrl, Arrays.asList("user", "secret", loadSslProperties()), connector);
+        MBeanServerConnection second =
+                manager.getConnection(jmxUrl, Arrays.asList("user", "secret", loadSslProperties()), connector);
+
+        assertThat(second).isSameAs(first);
+        assertThat(connector.connects.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testChangedSslPropertiesOpenNewConnection() throws Exception {
+        JmxCollector.SslProperties changed = loadSslProperties();
+        changed.keyStoreProperties.password = "other".toCharArray();
+
+        MBeanServerConnection first =
+                manager.getConnection(jmxUrl, Arrays.asList("user", "secret", loadSslProperties()), connector);
+        MBeanServerConnection second =
+                manager.getConnection(jmxUrl, Arrays.asList("user", "secret", changed), connector);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(connector.connects.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFailedConnectBacksOff() throws Exception {
+        connector.fail = true;
+
+        assertThatThrownBy(() -> manager.getConnection(jmxUrl, "settings", connector))
+                .isInstanceOf(IOException.class)
+                .hasMessage("connect failed");
+        assertThatThrownBy(() -> manager.getConnection(jmxUrl, "settings", connector))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("after 1 failed attempts");
+
+        assertThat(connector.connects.get()).isEqualTo(1);
+        assertThat(connector.disconnects.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBackoffIsExponentialAndCapped() {
+        assertThat(JmxConnectionManager.getBackoffMillis(1)).isEqualTo(1000L);
+        assertThat(JmxConnectionManager.getBackoffMillis(2)).isEqualTo(2000L);
+        assertThat(JmxConnectionManager.getBackoffMillis(6)).isEqualTo(32000L);
+        assertThat(JmxConnectionManager.getBackoffMillis(7)).isEqualTo(60000L);
+        assertThat(JmxConnectionManager.getBackoffMillis(100)).isEqualTo(60000L);
+    }
+
+    private class CountingConnector implements JmxConnectionManager.Connector {
+
+        final AtomicInteger connects = new AtomicInteger();
+        final AtomicInteger disconnects = new AtomicInteger();
+        final List<JMXConnector> jmxConnectors = new ArrayList<>();
+        boolean fail;
+
+        @Override
+        public JMXConnector connect() throws IOException {
+            connects.incrementAndGet();
+            if (fail) {
+                throw new IOException("connect failed");
+            }
+            JMXConnector jmxConnector = JMXConnectorFactory.connect(new JMXServiceURL(jmxUrl));
+            jmxConnectors.add(jmxConnector);
+            return jmxConnector;
+        }
+
+        @Override
+        public void disconnected() {
+            disconnects.incrementAndGet();
+        }
+    }
+}
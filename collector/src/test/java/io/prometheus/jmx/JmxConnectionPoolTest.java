@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class JmxConnectionPoolTest {
+
+    private JMXConnectorServer connectorServer;
+    private String jmxUrl;
+    private JMXConnector primaryConnector;
+    private MBeanServerConnection primary;
+    private AtomicInteger connects;
+    private JmxConnectionPool pool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+        SlowValue.registerBeans(mBeanServer, 1);
+        connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+                new JMXServiceURL("service:jmx:rmi://localhost"), null, mBeanServer);
+        connectorServer.start();
+        jmxUrl = connectorServer.getAddress().toString();
+        primaryConnector = JMXConnectorFactory.connect(new JMXServiceURL(jmxUrl));
+        primary = primaryConnector.getMBeanServerConnection();
+        connects = new AtomicInteger();
+        pool = new JmxConnectionPool(3, TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        SlowValue.delayMillis = 0;
+        pool.close();
+        primaryConnector.close();
+        connectorServer.stop();
+    }
+
+    private MBeanServerConnection getConnection() {
+        return pool.getConnection(primary, jmxUrl, "settings", new JmxConnectionManager.Connector() {
+            @Override
+            public JMXConnector connect() throws IOException {
+                connects.incrementAndGet();
+                return JMXConnectorFactory.connect(new JMXServiceURL(jmxUrl));
+            }
+
+            @Override
+            public void disconnected() {}
+        });
+    }
+
+    @Test
+    public void testSequentialCallsUsePrimaryConnection() throws Exception {
+        MBeanServerConnection connection = getConnection();
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(connection.isRegistered(MBeanServerDelegate.DELEGATE_NAME))
+                    .isTrue();
+        }
+
+        assertThat(connects.get()).isZero();
+    }
+
+    @Test
+    public void testConcurrentCallsOpenPooledConnections() throws Exception {
+        MBeanServerConnection connection = getConnection();
+        ObjectName slowValue = new ObjectName("io.prometheus.jmx.slow:type=slowValue,name=0");
+        SlowValue.delayMillis = 20;
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int round = 0; round < 10; round++) {
+                List<Future<Object>> futures = new ArrayList<>();
+                for (int i = 0; i < 3; i++) {
+                    futures.add(executor.submit(() -> connection.getAttribute(slowValue, "Value")));
+                }
+                for (Future<Object> future : futures) {
+                    future.get();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(pool.getConcurrencyLimit()).isEqualTo(3);
+        assertThat(connects.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testJmxExceptionDoesNotDecreaseLimit() throws Exception {
+        MBeanServerConnection connection = getConnection();
+        connection.getMBeanCount();
+        int limit = pool.getConcurrencyLimit();
+
+        assertThatThrownBy(() -> connection.getMBeanInfo(new ObjectName("io.prometheus.jmx:type=missing")))
+                .isInstanceOf(InstanceNotFoundException.class);
+
+        assertThat(pool.getConcurrencyLimit()).isEqualTo(limit);
+    }
+}
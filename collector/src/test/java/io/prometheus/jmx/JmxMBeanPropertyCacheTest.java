@@ -22,7 +22,6 @@ import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,15 +33,14 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testSingleObjectName() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
-                testCache.getKeyPropertyList(new ObjectName("com.organisation:name=value"));
+        Map<String, String> parameterList = testCache.getKeyPropertyList(new ObjectName("com.organisation:name=value"));
         assertSameElementsAndOrder(parameterList, "name", "value");
     }
 
     @Test
     public void testSimpleObjectName() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
+        Map<String, String> parameterList =
                 testCache.getKeyPropertyList(new ObjectName("com.organisation:name=value,name2=value2"));
         assertSameElementsAndOrder(parameterList, "name", "value", "name2", "value2");
     }
@@ -50,7 +48,7 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testQuotedObjectName() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
+        Map<String, String> parameterList =
                 testCache.getKeyPropertyList(new ObjectName("com.organisation:name=value,name2=\"value2\""));
         assertSameElementsAndOrder(parameterList, "name", "value", "name2", "\"value2\"");
     }
@@ -58,7 +56,7 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testQuotedObjectNameWithComma() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
+        Map<String, String> parameterList =
                 testCache.getKeyPropertyList(new ObjectName("com.organisation:name=\"value,more\",name2=value2"));
         assertSameElementsAndOrder(parameterList, "name", "\"value,more\"", "name2", "value2");
     }
@@ -66,7 +64,7 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testQuotedObjectNameWithEquals() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
+        Map<String, String> parameterList =
                 testCache.getKeyPropertyList(new ObjectName("com.organisation:name=\"value=more\",name2=value2"));
         assertSameElementsAndOrder(parameterList, "name", "\"value=more\"", "name2", "value2");
     }
@@ -74,7 +72,7 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testQuotedObjectNameWithQuote() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
+        Map<String, String> parameterList =
                 testCache.getKeyPropertyList(new ObjectName("com.organisation:name=\"value\\\"more\",name2=value2"));
         assertSameElementsAndOrder(parameterList, "name", "\"value\\\"more\"", "name2", "value2");
     }
@@ -82,7 +80,7 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testQuotedObjectNameWithBackslash() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
+        Map<String, String> parameterList =
                 testCache.getKeyPropertyList(new ObjectName("com.organisation:name=\"value\\\\more\",name2=value2"));
         assertSameElementsAndOrder(parameterList, "name", "\"value\\\\more\"", "name2", "value2");
     }
@@ -90,7 +88,7 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testQuotedObjectNameWithMultipleQuoted() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList = testCache.getKeyPropertyList(
+        Map<String, String> parameterList = testCache.getKeyPropertyList(
                 new ObjectName("com.organisation:name=\"value\\\\\\?\\*\\n" + "\\\",:=more\",name2= value2 "));
         assertSameElementsAndOrder(parameterList, "name", "\"value\\\\\\?\\*\\n\\\",:=more\"", "name2", " value2 ");
     }
@@ -98,7 +96,7 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testIssue52() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList = testCache.getKeyPropertyList(
+        Map<String, String> parameterList = testCache.getKeyPropertyList(
                 new ObjectName(
                         "org.apache.camel:context=ourinternalname,type=endpoints,name=\"seda://endpointName\\?concurrentConsumers=8&size=50000\""));
         assertSameElementsAndOrder(
@@ -115,8 +113,8 @@ public class JmxMBeanPropertyCacheTest {
     public void testIdempotentGet() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
         ObjectName testObjectName = new ObjectName("com.organisation:name=value");
-        LinkedHashMap<String, String> parameterListFirst = testCache.getKeyPropertyList(testObjectName);
-        LinkedHashMap<String, String> parameterListSecond = testCache.getKeyPropertyList(testObjectName);
+        Map<String, String> parameterListFirst = testCache.getKeyPropertyList(testObjectName);
+        Map<String, String> parameterListSecond = testCache.getKeyPropertyList(testObjectName);
         assertThat(parameterListFirst).isEqualTo(parameterListSecond);
     }
 
@@ -124,11 +122,11 @@ public class JmxMBeanPropertyCacheTest {
     public void testGetAfterDeleteOneObject() throws Throwable {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
         ObjectName testObjectName = new ObjectName("com.organisation:name=value");
-        LinkedHashMap<String, String> parameterListFirst = testCache.getKeyPropertyList(testObjectName);
+        Map<String, String> parameterListFirst = testCache.getKeyPropertyList(testObjectName);
         assertThat(parameterListFirst).isNotNull();
         testCache.onlyKeepMBeans(Collections.<ObjectName>emptySet());
         assertThat(testCache.getKeyPropertiesPerBean()).isEmpty();
-        LinkedHashMap<String, String> parameterListSecond = testCache.getKeyPropertyList(testObjectName);
+        Map<String, String> parameterListSecond = testCache.getKeyPropertyList(testObjectName);
         assertThat(parameterListSecond).isNotNull();
     }
 
@@ -161,8 +159,7 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testEmptyValue() throws javax.management.MalformedObjectNameException {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
-                testCache.getKeyPropertyList(new ObjectName("com.organisation:name="));
+        Map<String, String> parameterList = testCache.getKeyPropertyList(new ObjectName("com.organisation:name="));
         assertThat(parameterList).hasSize(1);
         assertThat(parameterList.get("name")).isEqualTo("");
     }
@@ -199,7 +196,7 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testAsteriskInValue() throws javax.management.MalformedObjectNameException {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
+        Map<String, String> parameterList =
                 testCache.getKeyPropertyList(new ObjectName("com.organisation:name=value*"));
         assertThat(parameterList).hasSize(1);
         assertThat(parameterList.get("name")).isEqualTo("value*");
@@ -208,13 +205,13 @@ public class JmxMBeanPropertyCacheTest {
     @Test
     public void testQuestionMarkInValue() throws javax.management.MalformedObjectNameException {
         JmxMBeanPropertyCache testCache = new JmxMBeanPropertyCache();
-        LinkedHashMap<String, String> parameterList =
+        Map<String, String> parameterList =
                 testCache.getKeyPropertyList(new ObjectName("com.organisation:name=value?"));
         assertThat(parameterList).hasSize(1);
         assertThat(parameterList.get("name")).isEqualTo("value?");
     }
 
-    private void assertSameElementsAndOrder(LinkedHashMap<?, ?> actual, Object... expected) {
+    private void assertSameElementsAndOrder(Map<?, ?> actual, Object... expected) {
         assert expected.length % 2 == 0;
         List<Map.Entry<?, ?>> actualList = new ArrayList<>(actual.entrySet());
         List<Map.Entry<?, ?>> expectedList = new ArrayList<>();
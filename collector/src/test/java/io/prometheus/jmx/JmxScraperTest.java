@@ -28,16 +28,22 @@ import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.management.Attribute;
 import javax.management.AttributeList;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -108,7 +114,7 @@ public class JmxScraperTest {
         @Override
         public void recordBean(
                 String domain,
-                LinkedHashMap<String, String> beanProperties,
+                Map<String, String> beanProperties,
                 Map<String, String> attributesAsLabelsWithValues,
                 List<String> attrKeys,
                 String attrName,
@@ -134,7 +140,7 @@ public class JmxScraperTest {
     static class RecordedBean {
 
         final String domain;
-        final LinkedHashMap<String, String> beanProperties;
+        final Map<String, String> beanProperties;
         final Map<String, String> attributesAsLabelsWithValues;
         final List<String> attrKeys;
         final String attrName;
@@ -144,7 +150,7 @@ public class JmxScraperTest {
 
         RecordedBean(
                 String domain,
-                LinkedHashMap<String, String> beanProperties,
+                Map<String, String> beanProperties,
                 Map<String, String> attributesAsLabelsWithValues,
                 List<String> attrKeys,
                 String attrName,
@@ -152,9 +158,9 @@ public class JmxScraperTest {
                 String attrDescription,
                 Object value) {
             this.domain = domain;
-            this.beanProperties = beanProperties;
+            this.beanProperties = new LinkedHashMap<>(beanProperties);
             this.attributesAsLabelsWithValues = attributesAsLabelsWithValues;
-            this.attrKeys = attrKeys;
+            this.attrKeys = new ArrayList<>(attrKeys);
             this.attrName = attrName;
             this.attrType = attrType;
             this.attrDescription = attrDescription;
@@ -468,6 +474,136 @@ public class JmxScraperTest {
         }
     }
 
+    @Nested
+    class ParallelScrapeTests {
+
+        private ExecutorService executor;
+
+        @BeforeEach
+        void setUp() throws Exception {
+            TestMBeanRegistry.registerTestMBeans();
+            executor = Executors.newFixedThreadPool(4);
+        }
+
+        @AfterEach
+        void tearDown() {
+            executor.shutdownNow();
+        }
+
+        private JmxScraper createScraper(JmxScraper.MBeanReceiver receiver, ExecutorService executor) throws Exception {
+            return new JmxScraper(
+                    "",
+                    "",
+                    "",
+                    new SslProperties(false),
+                    Collections.singletonList(new ObjectName("io.prometheus.jmx*:*")),
+                    Collections.emptyList(),
+                    false,
+                    ObjectNameAttributeFilter.create(new HashMap<>()),
+                    Collections.emptyList(),
+                    receiver,
+                    new JmxMBeanPropertyCache(),
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    executor,
+                    null);
+        }
+
+        private List<String> describe(List<RecordedBean> recordedBeans) {
+            List<String> descriptions = new ArrayList<>();
+            for (RecordedBean b : recordedBeans) {
+                descriptions.add(b.domain + b.beanProperties + b.attrKeys + b.attrName + ": " + b.value);
+            }
+            return descriptions;
+        }
+
+        @Test
+        void parallelScrapeRecordsSameValuesInSameOrderAsSequentialScrape() throws Exception {
+            RecordingMBeanReceiver sequentialReceiver = new RecordingMBeanReceiver();
+            createScraper(sequentialReceiver, null).doScrape();
+
+            RecordingMBeanReceiver parallelReceiver = new RecordingMBeanReceiver();
+            createScraper(parallelReceiver, executor).doScrape();
+
+            assertThat(sequentialReceiver.getRecordedBeans()).isNotEmpty();
+            assertThat(describe(parallelReceiver.getRecordedBeans()))
+                    .containsExactlyElementsOf(describe(sequentialReceiver.getRecordedBeans()));
+        }
+
+        @Test
+        void parallelScrapeCallsReceiverFromScrapingThreadOnly() throws Exception {
+            Thread scrapingThread = Thread.currentThread();
+            List<Thread> callingThreads = new ArrayList<>();
+            RecordingMBeanReceiver receiver = new RecordingMBeanReceiver() {
+                @Override
+                public void recordBean(
+                        String domain,
+                        Map<String, String> beanProperties,
+                        Map<String, String> attributesAsLabelsWithValues,
+                        List<String> attrKeys,
+                        String attrName,
+                        String attrType,
+                        String attrDescription,
+                        Object value) {
+                    callingThreads.add(Thread.currentThread());
+                    super.recordBean(
+                            domain,
+                            beanProperties,
+                            attributesAsLabelsWithValues,
+                            attrKeys,
+                            attrName,
+                            attrType,
+                            attrDescription,
+                            value);
+                }
+            };
+
+            createScraper(receiver, executor).doScrape();
+
+            assertThat(callingThreads).isNotEmpty().containsOnly(scrapingThread);
+        }
+
+        @Test
+        void cancelledScrapeStopsAndReportsAbandonedBeans() throws Exception {
+            for (ExecutorService beanScrapeExecutor : Arrays.asList(null, executor)) {
+                AtomicReference<JmxScraper> scraper = new AtomicReference<>();
+                RecordingMBeanReceiver receiver = new RecordingMBeanReceiver() {
+                    @Override
+                    public void recordBean(
+                            String domain,
+                            Map<String, String> beanProperties,
+                            Map<String, String> attributesAsLabelsWithValues,
+                            List<String> attrKeys,
+                            String attrName,
+                            String attrType,
+                            String attrDescription,
+                            Object value) {
+                        scraper.get().cancel();
+                        super.recordBean(
+                                domain,
+                                beanProperties,
+                                attributesAsLabelsWithValues,
+                                attrKeys,
+                                attrName,
+                                attrType,
+                                attrDescription,
+                                value);
+                    }
+                };
+                scraper.set(createScraper(receiver, beanScrapeExecutor));
+
+                assertThatExceptionOfType(CancellationException.class)
+                        .isThrownBy(() -> scraper.get().doScrape());
+                assertThat(scraper.get().isCancelled()).isTrue();
+                assertThat(scraper.get().getAbandonedBeans()).isGreaterThan(0);
+            }
+        }
+    }
+
     @Nested
     class StdoutWriterTests {
 
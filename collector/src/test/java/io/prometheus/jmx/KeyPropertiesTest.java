@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.LinkedHashMap;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+public class KeyPropertiesTest {
+
+    private static KeyProperties parse(String objectName) throws Exception {
+        return KeyProperties.parse(new ObjectName(objectName).getKeyPropertyListString());
+    }
+
+    @Test
+    public void testBehavesLikeLinkedHashMap() throws Exception {
+        KeyProperties keyProperties = parse("kafka.log:type=Log,topic=orders,partition=7");
+
+        LinkedHashMap<String, String> expected = new LinkedHashMap<>();
+        expected.put("type", "Log");
+        expected.put("topic", "orders");
+        expected.put("partition", "7");
+
+        assertThat(keyProperties).isEqualTo(expected);
+        assertThat(expected).isEqualTo(keyProperties);
+        assertThat(keyProperties.hashCode()).isEqualTo(expected.hashCode());
+        assertThat(keyProperties.toString()).isEqualTo(expected.toString());
+        assertThat(keyProperties.get("topic")).isEqualTo("orders");
+        assertThat(keyProperties.get("missing")).isNull();
+        assertThat(keyProperties.values().iterator().next()).isEqualTo("Log");
+    }
+
+    @Test
+    public void testKeysAndValuesAreShared() throws Exception {
+        KeyProperties first = parse("kafka.log:type=Log,topic=orders,partition=7");
+        KeyProperties second = parse("kafka.log:type=Log,topic=payments,partition=7");
+
+        assertThat(first.keySet().iterator().next())
+                .isSameAs(second.keySet().iterator().next());
+        assertThat(first.get("partition")).isSameAs(second.get("partition"));
+        assertThat(first).isNotEqualTo(second);
+    }
+
+    @Test
+    public void testCopyOf() throws Exception {
+        KeyProperties keyProperties = parse("kafka.log:type=Log,topic=orders");
+
+        assertThat(KeyProperties.copyOf(keyProperties)).isSameAs(keyProperties);
+        assertThat(KeyProperties.copyOf(new LinkedHashMap<>(keyProperties)))
+                .isEqualTo(keyProperties)
+                .hasToString(keyProperties.toString());
+        assertThat(KeyProperties.copyOf(new LinkedHashMap<>())).isSameAs(KeyProperties.EMPTY);
+    }
+
+    @Test
+    public void testEqualsIgnoresOrder() throws Exception {
+        KeyProperties keyProperties = parse("kafka.log:type=Log,topic=orders");
+        KeyProperties reversed = parse("kafka.log:topic=orders,type=Log");
+
+        assertThat(keyProperties).isEqualTo(reversed);
+        assertThat(keyProperties.hashCode()).isEqualTo(reversed.hashCode());
+        assertThat(keyProperties.toString()).isNotEqualTo(reversed.toString());
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MBeanInfoCacheTest {
+
+    private MBeanServer mBeanServer;
+    private AtomicInteger getMBeanInfoCalls;
+    private MBeanServerConnection countingConnection;
+    private ObjectName standardName;
+    private ObjectName dynamicName;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        mBeanServer = MBeanServerFactory.newMBeanServer();
+        getMBeanInfoCalls = new AtomicInteger();
+        countingConnection = (MBeanServerConnection) Proxy.newProxyInstance(
+                MBeanServerConnection.class.getClassLoader(),
+                new Class<?>[] {MBeanServerConnection.class},
+                (proxy, method, args) -> {
+                    if ("getMBeanInfo".equals(method.getName())) {
+                        getMBeanInfoCalls.incrementAndGet();
+                    }
+                    return method.invoke(mBeanServer, args);
+                });
+
+        standardName = new ObjectName("io.prometheus.jmx:type=customValue");
+        CustomValue.registerBean(mBeanServer);
+        dynamicName = new ObjectName("io.prometheus.jmx:type=dynamic");
+        mBeanServer.registerMBean(new MutableInfoMBean(), dynamicName);
+    }
+
+    @Test
+    public void testImmutableMBeanInfoIsCached() throws Exception {
+        MBeanInfoCache cache = new MBeanInfoCache();
+        cache.subscribe(countingConnection);
+
+        MBeanInfo first = cache.getMBeanInfo(countingConnection, standardName);
+        MBeanInfo second = cache.getMBeanInfo(countingConnection, standardName);
+
+        assertThat(second).isSameAs(first);
+        assertThat(getMBeanInfoCalls.get()).isEqualTo(1);
+        assertThat(cache.getMBeanInfoPerBean()).containsOnlyKeys(standardName);
+    }
+
+    @Test
+    public void testMBeanInfoWithoutImmutableInfoIsNotCached() throws Exception {
+        MBeanInfoCache cache = new MBeanInfoCache();
+        cache.subscribe(countingConnection);
+
+        cache.getMBeanInfo(countingConnection, dynamicName);
+        cache.getMBeanInfo(countingConnection, dynamicName);
+
+        assertThat(getMBeanInfoCalls.get()).isEqualTo(2);
+        assertThat(cache.getMBeanInfoPerBean()).isEmpty();
+    }
+
+    @Test
+    public void testUnregistrationNotificationRemovesEntry() throws Exception {
+        MBeanInfoCache cache = new MBeanInfoCache();
+        cache.subscribe(mBeanServer);
+        cache.getMBeanInfo(mBeanServer, standardName);
+        assertThat(cache.getMBeanInfoPerBean()).containsOnlyKeys(standardName);
+
+        mBeanServer.unregisterMBean(standardName);
+
+        assertThat(cache.getMBeanInfoPerBean()).isEmpty();
+    }
+
+    @Test
+    public void testSubscribingToSameConnectionAgainKeepsEntries() throws Exception {
+        MBeanInfoCache cache = new MBeanInfoCache();
+        cache.subscribe(mBeanServer);
+        cache.getMBeanInfo(mBeanServer, standardName);
+
+        cache.subscribe(mBeanServer);
+
+        assertThat(cache.getMBeanInfoPerBean()).containsOnlyKeys(standardName);
+    }
+
+    @Test
+    public void testOnlyKeepMBeansRemovesOldEntries() throws Exception {
+        MBeanInfoCache cache = new MBeanInfoCache();
+        cache.subscribe(mBeanServer);
+        cache.getMBeanInfo(mBeanServer, standardName);
+
+        cache.onlyKeepMBeans(Collections.singleton(dynamicName));
+
+        assertThat(cache.getMBeanInfoPerBean()).isEmpty();
+    }
+
+    @Test
+    public void testMBeanInfoOfOtherConnectionOfSubscribedConnectionIsCached() throws Exception {
+        MBeanInfoCache cache = new MBeanInfoCache();
+        cache.subscribe(mBeanServer);
+
+        // A pooled connection to the same MBeanServer
+        MBeanInfo first = cache.getMBeanInfo(mBeanServer, countingConnection, standardName);
+        MBeanInfo second = cache.getMBeanInfo(mBeanServer, countingConnection, standardName);
+
+        assertThat(second).isSameAs(first);
+        assertThat(getMBeanInfoCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testMBeanInfoOfUnsubscribedConnectionIsNotCached() throws Exception {
+        MBeanInfoCache cache = new MBeanInfoCache();
+
+        cache.getMBeanInfo(countingConnection, standardName);
+        MBeanInfo second = cache.getMBeanInfo(countingConnection, standardName);
+
+        assertThat(second.getClassName()).isEqualTo(CustomValue.class.getName());
+        assertThat(getMBeanInfoCalls.get()).isEqualTo(2);
+        assertThat(cache.getMBeanInfoPerBean()).isEmpty();
+    }
+
+    @Test
+    public void testReRegisteredMBeanOfUnsubscribedConnectionHasNewMBeanInfo() throws Exception {
+        MBeanInfoCache cache = new MBeanInfoCache();
+        cache.getMBeanInfo(countingConnection, standardName);
+
+        // Replaced between two scrapes, without a notification
+        mBeanServer.unregisterMBean(standardName);
+        mBeanServer.registerMBean(new Bool(), standardName);
+
+        assertThat(cache.getMBeanInfo(countingConnection, standardName).getClassName())
+                .isEqualTo(Bool.class.getName());
+    }
+
+    /**
+     * A DynamicMBean whose MBeanInfo has no descriptor, so it may change over its lifetime
+     */
+    public static class MutableInfoMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) {
+            return 1;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            // Intentionally empty
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList attributeList = new AttributeList();
+            for (String attribute : attributes) {
+                attributeList.add(new Attribute(attribute, 1));
+            }
+            return attributeList;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return new MBeanInfo(
+                    MutableInfoMBean.class.getName(),
+                    "",
+                    new MBeanAttributeInfo[] {
+                        new MBeanAttributeInfo("Value", "java.lang.Integer", "", true, false, false)
+                    },
+                    new MBeanConstructorInfo[0],
+                    new MBeanOperationInfo[0],
+                    new MBeanNotificationInfo[0]);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerFactory;
+import javax.management.Notification;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MBeanNameIndexTest {
+
+    private MBeanServer mBeanServer;
+    private AtomicInteger queryMBeansCalls;
+    private MBeanServerConnection countingConnection;
+    private List<ObjectName> includeObjectNames;
+    private List<ObjectName> excludeObjectNames;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        mBeanServer = MBeanServerFactory.newMBeanServer();
+        queryMBeansCalls = new AtomicInteger();
+        countingConnection = (MBeanServerConnection) Proxy.newProxyInstance(
+                MBeanServerConnection.class.getClassLoader(),
+                new Class<?>[] {MBeanServerConnection.class},
+                (proxy, method, args) -> {
+                    if ("queryMBeans".equals(method.getName())) {
+                        queryMBeansCalls.incrementAndGet();
+                    }
+                    return method.invoke(mBeanServer, args);
+                });
+
+        includeObjectNames = Collections.singletonList(new ObjectName("io.prometheus.jmx:*"));
+        excludeObjectNames = Collections.singletonList(new ObjectName("io.prometheus.jmx:type=excluded,*"));
+        CustomValue.registerBean(mBeanServer);
+    }
+
+    private Set<ObjectName> getMBeanNames(MBeanNameIndex index) throws Exception {
+        return index.getMBeanNames(countingConnection, includeObjectNames, excludeObjectNames, false);
+    }
+
+    @Test
+    public void testOnlyFirstCallQueriesMBeans() throws Exception {
+        MBeanNameIndex index = new MBeanNameIndex();
+
+        Set<ObjectName> first = getMBeanNames(index);
+        int queries = queryMBeansCalls.get();
+        Set<ObjectName> second = getMBeanNames(index);
+
+        assertThat(first).containsExactly(new ObjectName("io.prometheus.jmx:type=customValue"));
+        assertThat(second).isEqualTo(first);
+        assertThat(queries).isEqualTo(2);
+        assertThat(queryMBeansCalls.get()).isEqualTo(queries);
+    }
+
+    @Test
+    public void testRegistrationIsAppliedWithoutQuery() throws Exception {
+        MBeanNameIndex index = new MBeanNameIndex();
+        getMBeanNames(index);
+        int queries = queryMBeansCalls.get();
+
+        ObjectName included = new ObjectName("io.prometheus.jmx:type=registered");
+        ObjectName excluded = new ObjectName("io.prometheus.jmx:type=excluded,name=a");
+        ObjectName notIncluded = new ObjectName("other:type=registered");
+        mBeanServer.registerMBean(new CustomValue(), included);
+        mBeanServer.registerMBean(new CustomValue(), excluded);
+        mBeanServer.registerMBean(new CustomValue(), notIncluded);
+
+        assertThat(getMBeanNames(index))
+                .containsExactlyInAnyOrder(new ObjectName("io.prometheus.jmx:type=customValue"), included);
+        assertThat(queryMBeansCalls.get()).isEqualTo(queries);
+    }
+
+    @Test
+    public void testUnregistrationIsAppliedWithoutQuery() throws Exception {
+        MBeanNameIndex index = new MBeanNameIndex();
+        getMBeanNames(index);
+        int queries = queryMBeansCalls.get();
+
+        mBeanServer.unregisterMBean(new ObjectName("io.prometheus.jmx:type=customValue"));
+
+        assertThat(getMBeanNames(index)).isEmpty();
+        assertThat(queryMBeansCalls.get()).isEqualTo(queries);
+    }
+
+    @Test
+    public void testChangedPatternsCauseResync() throws Exception {
+        MBeanNameIndex index = new MBeanNameIndex();
+        getMBeanNames(index);
+        int queries = queryMBeansCalls.get();
+
+        Set<ObjectName> mBeanNames =
+                index.getMBeanNames(countingConnection, Collections.singletonList(null), excludeObjectNames, false);
+
+        assertThat(mBeanNames)
+                .contains(new ObjectName("io.prometheus.jmx:type=customValue"), MBeanServerDelegate.DELEGATE_NAME);
+        assertThat(queryMBeansCalls.get()).isGreaterThan(queries);
+    }
+
+    @Test
+    public void testLostNotificationsCauseResync() throws Exception {
+        MBeanNameIndex index = new MBeanNameIndex();
+        getMBeanNames(index);
+        int queries = queryMBeansCalls.get();
+
+        index.handleNotification(
+                new JMXConnectionNotification(JMXConnectionNotification.NOTIFS_LOST, this, "id", 1, null, 1L), null);
+        getMBeanNames(index);
+
+        assertThat(queryMBeansCalls.get()).isEqualTo(queries * 2);
+    }
+
+    @Test
+    public void testOtherNotificationsAreIgnored() throws Exception {
+        MBeanNameIndex index = new MBeanNameIndex();
+        getMBeanNames(index);
+        int queries = queryMBeansCalls.get();
+
+        index.handleNotification(new Notification("other", this, 1), null);
+        getMBeanNames(index);
+
+        assertThat(queryMBeansCalls.get()).isEqualTo(queries);
+    }
+
+    @Test
+    public void testIsSelectedMatchesQuery() throws Exception {
+        MBeanServer platformServer = ManagementFactory.getPlatformMBeanServer();
+        TestMBeanRegistry.registerTestMBeans();
+
+        List<List<ObjectName>> includes = Arrays.asList(
+                Collections.singletonList(null),
+                Collections.singletonList(new ObjectName("java.lang:type=Runtime")),
+                Arrays.asList(null, new ObjectName("java.lang:type=Memory*")));
+        List<ObjectName> excludes = Collections.singletonList(new ObjectName("io.prometheus.jmx:type=customValue"));
+
+        for (List<ObjectName> include : includes) {
+            for (boolean excludeJvmMetrics : new boolean[] {false, true}) {
+                Set<ObjectName> queried =
+                        JmxScraper.queryMBeanNames(platformServer, include, excludes, excludeJvmMetrics);
+                for (ObjectName objectName : platformServer.queryNames(null, null)) {
+                    assertThat(JmxScraper.isSelected(objectName, include, excludes, excludeJvmMetrics))
+                            .as("%s with include %s and excludeJvmMetrics %s", objectName, include, excludeJvmMetrics)
+                            .isEqualTo(queried.contains(objectName));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MBeanRefreshTrackerTest {
+
+    private static final long BUDGET_NANOS = 1000L;
+    private static final long REFRESH_NANOS = 60000L;
+
+    private ObjectName slowName;
+    private ObjectName fastName;
+    private MBeanRefreshTracker tracker;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        slowName = new ObjectName("io.prometheus.jmx:type=slow");
+        fastName = new ObjectName("io.prometheus.jmx:type=fast");
+        tracker = new MBeanRefreshTracker(BUDGET_NANOS, REFRESH_NANOS, Collections.emptyMap());
+    }
+
+    private static MBeanValueBuffer values(Object value) {
+        MBeanValueBuffer values = new MBeanValueBuffer();
+        values.recordBean(
+                "io.prometheus.jmx",
+                new LinkedHashMap<>(),
+                Collections.emptyMap(),
+                new ArrayList<>(),
+                "Value",
+                "java.lang.Integer",
+                "Value",
+                value);
+        return values;
+    }
+
+    private static List<Object> replayedValues(MBeanRefreshTracker tracker, ObjectName name, long nowNanos) {
+        List<Object> replayed = new ArrayList<>();
+        tracker.replay(
+                name,
+                nowNanos,
+                (domain,
+                        beanProperties,
+                        attributesAsLabelsWithValues,
+                        attrKeys,
+                        attrName,
+                        attrType,
+                        attrDescription,
+                        value) -> replayed.add(value));
+        return replayed;
+    }
+
+    @Test
+    public void testFastMBeanIsAlwaysScraped() {
+        tracker.record(fastName, 0, BUDGET_NANOS, null);
+
+        assertThat(tracker.isBuffered(fastName)).isFalse();
+        assertThat(replayedValues(tracker, fastName, 1)).isEmpty();
+        assertThat(tracker.getSlowCount()).isZero();
+    }
+
+    @Test
+    public void testSlowMBeanIsServedLastValuesUntilRefresh() {
+        tracker.record(slowName, 0, 10 * BUDGET_NANOS, null);
+        assertThat(tracker.isBuffered(slowName)).isTrue();
+        assertThat(replayedValues(tracker, slowName, 1)).isEmpty();
+
+        tracker.record(slowName, 100, 10 * BUDGET_NANOS, values(42));
+
+        assertThat(tracker.getSlowCount()).isEqualTo(1);
+        assertThat(replayedValues(tracker, slowName, 100 + REFRESH_NANOS - 1)).containsExactly(42);
+        assertThat(replayedValues(tracker, slowName, 100 + REFRESH_NANOS)).isEmpty();
+    }
+
+    @Test
+    public void testSlowMBeanThatGetsFastIsScrapedAgain() {
+        tracker.record(slowName, 0, 2 * BUDGET_NANOS, values(1));
+        assertThat(tracker.getSlowCount()).isEqualTo(1);
+
+        for (int i = 0; i < 10; i++) {
+            tracker.record(slowName, 0, 0, null);
+        }
+
+        assertThat(tracker.isBuffered(slowName)).isFalse();
+        assertThat(tracker.getSlowCount()).isZero();
+        assertThat(replayedValues(tracker, slowName, 1)).isEmpty();
+    }
+
+    @Test
+    public void testMBeanWithRefreshIntervalIsServedLastValuesUntilRefresh() throws Exception {
+        Map<ObjectName, Long> refreshNanosPerPattern = new LinkedHashMap<>();
+        refreshNanosPerPattern.put(new ObjectName("io.prometheus.jmx:type=static*"), REFRESH_NANOS);
+        tracker = new MBeanRefreshTracker(BUDGET_NANOS, 10 * REFRESH_NANOS, refreshNanosPerPattern);
+        ObjectName staticName = new ObjectName("io.prometheus.jmx:type=staticCapacity");
+
+        assertThat(tracker.isBuffered(staticName)).isTrue();
+        assertThat(tracker.isBuffered(fastName)).isFalse();
+
+        tracker.record(staticName, 100, 0, values(7));
+
+        assertThat(replayedValues(tracker, staticName, 100 + REFRESH_NANOS - 1)).containsExactly(7);
+        assertThat(replayedValues(tracker, staticName, 100 + REFRESH_NANOS)).isEmpty();
+        assertThat(tracker.getSlowCount()).isZero();
+    }
+
+    @Test
+    public void testSlowMBeanWithRefreshIntervalUsesLongestInterval() throws Exception {
+        Map<ObjectName, Long> refreshNanosPerPattern = new LinkedHashMap<>();
+        refreshNanosPerPattern.put(slowName, REFRESH_NANOS);
+        tracker = new MBeanRefreshTracker(BUDGET_NANOS, 10 * REFRESH_NANOS, refreshNanosPerPattern);
+
+        tracker.record(slowName, 0, 2 * BUDGET_NANOS, values(3));
+
+        assertThat(replayedValues(tracker, slowName, 10 * REFRESH_NANOS - 1)).containsExactly(3);
+        assertThat(tracker.getSlowCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetSlowestIsOrderedAndLimited() throws Exception {
+        ObjectName slowestName = new ObjectName("io.prometheus.jmx:type=slowest");
+        tracker.record(fastName, 0, 1_000_000L, null);
+        tracker.record(slowName, 0, 2_000_000L, null);
+        tracker.record(slowestName, 0, 3_000_000L, null);
+
+        List<Map.Entry<ObjectName, Double>> slowest = tracker.getSlowest(2);
+
+        assertThat(slowest).extracting(Map.Entry::getKey).containsExactly(slowestName, slowName);
+        assertThat(slowest.get(0).getValue()).isEqualTo(0.003);
+    }
+
+    @Test
+    public void testOnlyKeepMBeansRemovesOldEntries() {
+        tracker.record(slowName, 0, 2 * BUDGET_NANOS, values(1));
+        tracker.record(fastName, 0, 0, null);
+
+        tracker.onlyKeepMBeans(Collections.singleton(fastName));
+
+        assertThat(tracker.getSlowest(10)).extracting(Map.Entry::getKey).containsExactly(fastName);
+        assertThat(tracker.getSlowCount()).isZero();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MBeanValueFlattenerTest {
+
+    private static final int ROWS = 100;
+
+    private ObjectName objectName;
+    private LinkedHashMap<String, String> beanProperties;
+    private MBeanValueFlattener flattener;
+    private JmxScraperTest.RecordingMBeanReceiver receiver;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        objectName = new ObjectName("io.prometheus.jmx:type=flattener,name=test");
+        beanProperties = new LinkedHashMap<>();
+        beanProperties.put("type", "flattener");
+        beanProperties.put("name", "test");
+        flattener = new MBeanValueFlattener(ObjectNameAttributeFilter.create(new HashMap<>()));
+        receiver = new JmxScraperTest.RecordingMBeanReceiver();
+    }
+
+    private static TabularDataSupport table(int rows) throws Exception {
+        CompositeType rowType = new CompositeType(
+                "row",
+                "row",
+                new String[] {"key", "value", "count"},
+                new String[] {"key", "value", "count"},
+                new OpenType<?>[] {SimpleType.STRING, SimpleType.LONG, SimpleType.LONG});
+        TabularDataSupport table =
+                new TabularDataSupport(new TabularType("table", "table", rowType, new String[] {"key"}));
+        for (int i = 0; i < rows; i++) {
+            table.put(new CompositeDataSupport(
+                    rowType, new String[] {"key", "value", "count"}, new Object[] {"row" + i, (long) i, (long) -i}));
+        }
+        return table;
+    }
+
+    private void flatten(String attrName, Object value) {
+        flattener.flatten(
+                receiver,
+                objectName,
+                "io.prometheus.jmx",
+                beanProperties,
+                Collections.emptyMap(),
+                attrName,
+                "type",
+                "description",
+                value);
+    }
+
+    @Test
+    public void testCompositeDataKeys() throws Exception {
+        CompositeType innerType = new CompositeType(
+                "inner", "inner", new String[] {"used"}, new String[] {"used"}, new OpenType<?>[] {SimpleType.LONG});
+        CompositeType outerType = new CompositeType(
+                "outer", "outer", new String[] {"inner", "max"}, new String[] {"inner", "max"}, new OpenType<?>[] {
+                    innerType, SimpleType.LONG
+                });
+        CompositeData composite = new CompositeDataSupport(outerType, new String[] {"inner", "max"}, new Object[] {
+            new CompositeDataSupport(innerType, new String[] {"used"}, new Object[] {1L}), 2L
+        });
+
+        flatten("Usage", composite);
+        flatten("Count", 3L);
+
+        List<JmxScraperTest.RecordedBean> recordedBeans = receiver.getRecordedBeans();
+        assertThat(recordedBeans).hasSize(3);
+        assertThat(recordedBeans.get(0).attrKeys).containsExactly("Usage", "inner");
+        assertThat(recordedBeans.get(0).attrName).isEqualTo("used");
+        assertThat(recordedBeans.get(1).attrKeys).containsExactly("Usage");
+        assertThat(recordedBeans.get(1).attrName).isEqualTo("max");
+        assertThat(recordedBeans.get(2).attrKeys).isEmpty();
+        assertThat(recordedBeans.get(2).attrName).isEqualTo("Count");
+    }
+
+    @Test
+    public void testTabularDataRowLabels() throws Exception {
+        flatten("Table", table(2));
+        flatten("Count", 3L);
+
+        List<JmxScraperTest.RecordedBean> recordedBeans = receiver.getRecordedBeans();
+        assertThat(recordedBeans).hasSize(5);
+        for (int i = 0; i < 4; i++) {
+            JmxScraperTest.RecordedBean recordedBean = recordedBeans.get(i);
+            assertThat(recordedBean.beanProperties).containsOnlyKeys("type", "name", "key");
+            if (recordedBean.attrName.equals("Table")) {
+                // The 'value' column is named after the attribute
+                assertThat(recordedBean.attrKeys).isEmpty();
+            } else {
+                assertThat(recordedBean.attrName).isEqualTo("count");
+                assertThat(recordedBean.attrKeys).containsExactly("Table");
+            }
+        }
+        assertThat(recordedBeans.get(4).beanProperties).containsOnlyKeys("type", "name");
+        assertThat(beanProperties).containsOnlyKeys("type", "name");
+    }
+
+    @Test
+    public void testTabularDataKeyCollision() throws Exception {
+        beanProperties.put("key", "bean");
+
+        flatten("Table", table(1));
+
+        for (JmxScraperTest.RecordedBean recordedBean : receiver.getRecordedBeans()) {
+            assertThat(recordedBean.beanProperties).containsEntry("key", "bean").containsEntry("key_", "row0");
+        }
+        assertThat(beanProperties).containsOnlyKeys("type", "name", "key");
+    }
+
+    @Test
+    public void testCancellationBetweenRows() throws Exception {
+        MBeanValueFlattener cancellableFlattener = new MBeanValueFlattener(
+                ObjectNameAttributeFilter.create(new HashMap<>()),
+                () -> receiver.getRecordedBeans().size() >= 4);
+
+        assertThatThrownBy(() -> cancellableFlattener.flatten(
+                        receiver,
+                        objectName,
+                        "io.prometheus.jmx",
+                        beanProperties,
+                        Collections.emptyMap(),
+                        "Table",
+                        "type",
+                        "description",
+                        table(ROWS)))
+                .isInstanceOf(CancellationException.class);
+
+        // Two values per row
+        assertThat(receiver.getRecordedBeans()).hasSize(4);
+        assertThat(beanProperties).containsOnlyKeys("type", "name");
+    }
+
+    @Test
+    public void testTabularDataAllocation() throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported());
+        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        TabularDataSupport table = table(ROWS);
+        CountingMBeanReceiver countingReceiver = new CountingMBeanReceiver();
+        int iterations = 2000;
+        for (int i = 0; i < iterations; i++) {
+            flattener.flatten(
+                    countingReceiver,
+                    objectName,
+                    "io.prometheus.jmx",
+                    beanProperties,
+                    Collections.emptyMap(),
+                    "Table",
+                    "type",
+                    "description",
+                    table);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocationMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            flattener.flatten(
+                    countingReceiver,
+                    objectName,
+                    "io.prometheus.jmx",
+                    beanProperties,
+                    Collections.emptyMap(),
+                    "Table",
+                    "type",
+                    "description",
+                    table);
+        }
+        long bytesPerRow = (allocationMXBean.getThreadAllocatedBytes(threadId) - before) / ((long) iterations * ROWS);
+
+        // Copying the bean properties for every row allocates several hundred bytes per row
+        assertThat(countingReceiver.count).isEqualTo(2L * iterations * ROWS * 2);
+        assertThat(bytesPerRow).isLessThan(256);
+    }
+
+    private static class CountingMBeanReceiver implements JmxScraper.MBeanReceiver {
+
+        long count;
+
+        @Override
+        public void recordBean(
+                String domain,
+                Map<String, String> beanProperties,
+                Map<String, String> attributesAsLabelsWithValues,
+                List<String> attrKeys,
+                String attrName,
+                String attrType,
+                String attrDescription,
+                Object value) {
+            count++;
+        }
+    }
+}
@@ -487,9 +487,125 @@ public class MatchedRuleToMetricSnapshotsConverterTest {
         }
     }
 
-    private static List<String> of(String... strings) {
-        List<String> list = new ArrayList<>();
-        Collections.addAll(list, strings);
+    @Nested
+    class TemplateTests {
+
+        private final MatchedRuleToMetricSnapshotsConverter converter = new MatchedRuleToMetricSnapshotsConverter();
+
+        private MetricSnapshot convertSingle(MatchedRule... matchedRules) {
+            MetricSnapshots metricSnapshots = converter.convertWithTemplates(of(matchedRules));
+            assertThat(metricSnapshots).hasSize(1);
+            return metricSnapshots.iterator().next();
+        }
+
+        @Test
+        void unchangedSeriesGetTheNewValues() {
+            MatchedRule rule1 = new MatchedRule("m", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v"), 1.0, 1.0);
+            MatchedRule rule2 = new MatchedRule("m", "b<type=T>attr: 2", "GAUGE", "help", of("l"), of("v"), 2.0, 1.0);
+            convertSingle(rule1, rule2);
+
+            MetricSnapshot snapshot = convertSingle(rule1.withValue(3.0), rule2.withValue(4.0));
+
+            assertThat(snapshot).isInstanceOf(GaugeSnapshot.class);
+            GaugeSnapshot.GaugeDataPointSnapshot dataPoint0 = (GaugeSnapshot.GaugeDataPointSnapshot)
+                    snapshot.getDataPoints().get(0);
+            GaugeSnapshot.GaugeDataPointSnapshot dataPoint1 = (GaugeSnapshot.GaugeDataPointSnapshot)
+                    snapshot.getDataPoints().get(1);
+            assertThat(dataPoint0.getValue()).isEqualTo(3.0);
+            assertThat(dataPoint0.getLabels().get("_objectname")).isEqualTo("a<type=T>attr");
+            assertThat(dataPoint1.getValue()).isEqualTo(4.0);
+            assertThat(dataPoint1.getLabels().get("_objectname")).isEqualTo("b<type=T>attr");
+        }
+
+        @Test
+        void unchangedValuesReuseTheSnapshot() {
+            MatchedRule rule1 = new MatchedRule("m", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v1"), 1.0, 1.0);
+            MatchedRule rule2 = new MatchedRule("m", "b<type=T>attr: 2", "GAUGE", "help", of("l"), of("v2"), 2.0, 1.0);
+            MetricSnapshot first = convertSingle(rule1, rule2);
+
+            MetricSnapshot second = convertSingle(rule1.withValue(1.0), rule2.withValue(2.0));
+
+            assertThat(second).isSameAs(first);
+        }
+
+        @Test
+        void onlyChangedValuesGetNewDataPoints() {
+            MatchedRule rule1 =
+                    new MatchedRule("m", "a<type=T>attr: 1", "COUNTER", "help", of("l"), of("v1"), 1.0, 1.0);
+            MatchedRule rule2 =
+                    new MatchedRule("m", "b<type=T>attr: 2", "COUNTER", "help", of("l"), of("v2"), 2.0, 1.0);
+            MetricSnapshot first = convertSingle(rule1, rule2);
+
+            MetricSnapshot second = convertSingle(rule1.withValue(1.0), rule2.withValue(5.0));
+
+            assertThat(second).isNotSameAs(first).isInstanceOf(CounterSnapshot.class);
+            assertThat(second.getMetadata()).isSameAs(first.getMetadata());
+            assertThat(second.getDataPoints().get(0))
+                    .isSameAs(first.getDataPoints().get(0));
+            assertThat(((CounterSnapshot.CounterDataPointSnapshot)
+                                    second.getDataPoints().get(1))
+                            .getValue())
+                    .isEqualTo(5.0);
+        }
+
+        @Test
+        void changedSeriesRebuildTheTemplate() {
+            convertSingle(
+                    new MatchedRule("m", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v1"), 1.0, 1.0),
+                    new MatchedRule("m", "b<type=T>attr: 2", "GAUGE", "help", of("l"), of("v2"), 2.0, 1.0));
+
+            MetricSnapshot snapshot = convertSingle(
+                    new MatchedRule("m", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v1"), 1.0, 1.0),
+                    new MatchedRule("m", "c<type=T>attr: 2", "GAUGE", "help", of("l"), of("v1"), 2.0, 1.0));
+
+            assertThat(snapshot.getDataPoints().get(0).getLabels().get("_objectname"))
+                    .isEqualTo("a<type=T>attr");
+            assertThat(snapshot.getDataPoints().get(1).getLabels().get("_objectname"))
+                    .isEqualTo("c<type=T>attr");
+        }
+
+        @Test
+        void changedObjectNameRebuildsTheTemplate() {
+            convertSingle(
+                    new MatchedRule("m", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v"), 1.0, 1.0),
+                    new MatchedRule("m", "b<type=T>attr: 2", "GAUGE", "help", of("l"), of("v"), 2.0, 1.0));
+
+            MetricSnapshot snapshot = convertSingle(
+                    new MatchedRule("m", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v"), 1.0, 1.0),
+                    new MatchedRule("m", "c<type=T>attr: 2", "GAUGE", "help", of("l"), of("v"), 2.0, 1.0));
+
+            assertThat(snapshot.getDataPoints().get(1).getLabels().get("_objectname"))
+                    .isEqualTo("c<type=T>attr");
+        }
+
+        @Test
+        void changedTypeRebuildsTheTemplate() {
+            MatchedRule rule = new MatchedRule("m", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v"), 1.0, 1.0);
+            convertSingle(rule);
+
+            MetricSnapshot snapshot = convertSingle(
+                    new MatchedRule("m", "a<type=T>attr: 1", "COUNTER", "help", of("l"), of("v"), 1.0, 1.0));
+
+            assertThat(snapshot).isInstanceOf(CounterSnapshot.class);
+        }
+
+        @Test
+        void missingFamiliesAreNotConverted() {
+            converter.convertWithTemplates(of(
+                    new MatchedRule("m1", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v"), 1.0, 1.0),
+                    new MatchedRule("m2", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v"), 1.0, 1.0)));
+
+            MetricSnapshot snapshot = convertSingle(
+                    new MatchedRule("m2", "a<type=T>attr: 1", "GAUGE", "help", of("l"), of("v"), 2.0, 1.0));
+
+            assertThat(snapshot.getMetadata().getName()).isEqualTo("m2");
+        }
+    }
+
+    @SafeVarargs
+    private static <T> List<T> of(T... elements) {
+        List<T> list = new ArrayList<>();
+        Collections.addAll(list, elements);
         return list;
     }
 
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MatchedRulesCacheFileTest {
+
+    private static final byte[] RULES_HASH = MatchedRulesCacheFile.hash("rules");
+
+    @TempDir
+    Path directory;
+
+    private static MatchedRulesCache.CacheKey createCacheKey(String domain, String attrName) {
+        Map<String, String> props = new LinkedHashMap<>();
+        props.put("type", "test");
+        props.put("name", domain);
+        return new MatchedRulesCache.CacheKey(domain, props, Collections.singletonList("key1"), attrName);
+    }
+
+    @Test
+    public void testEntriesAreReadBack() throws Exception {
+        MatchedRulesCacheFile file = new MatchedRulesCacheFile(directory.resolve("rules.cache"), RULES_HASH);
+        MatchedRule matchedRule = new MatchedRule(
+                "name", "matchName", "GAUGE", "help", Arrays.asList("l1", "l2"), Arrays.asList("v1", "v2"), null, 0.5);
+        matchedRule.ruleIndex = 3;
+        MatchedRulesCache rulesCache = new MatchedRulesCache();
+        rulesCache.put(createCacheKey("domain1", "attr"), matchedRule, 1);
+        rulesCache.put(createCacheKey("domain2", "attr"), MatchedRule.unmatched(), 1);
+        file.write(rulesCache);
+
+        MatchedRulesCache readCache = new MatchedRulesCache();
+        assertThat(file.read(readCache)).isEqualTo(2);
+
+        MatchedRule readRule = readCache.get(createCacheKey("domain1", "attr"), 1);
+        assertThat(readRule).isEqualTo(matchedRule);
+        assertThat(readRule.ruleIndex).isEqualTo(3);
+        assertThat(readCache.get(createCacheKey("domain2", "attr"), 1).isUnmatched())
+                .isTrue();
+    }
+
+    @Test
+    public void testValuesAreReadBack() throws Exception {
+        MatchedRulesCacheFile file = new MatchedRulesCacheFile(directory.resolve("rules.cache"), RULES_HASH);
+        MatchedRule matchedRule = new MatchedRule(
+                "name", "matchName", null, null, Collections.emptyList(), Collections.emptyList(), 42.0, 1.0);
+        MatchedRulesCache rulesCache = new MatchedRulesCache();
+        rulesCache.put(createCacheKey("domain1", "attr"), matchedRule, 1);
+        file.write(rulesCache);
+
+        MatchedRulesCache readCache = new MatchedRulesCache();
+        file.read(readCache);
+
+        MatchedRule readRule = readCache.get(createCacheKey("domain1", "attr"), 1);
+        assertThat(readRule).isEqualTo(matchedRule);
+        assertThat(readRule.ruleIndex).isEqualTo(-1);
+    }
+
+    @Test
+    public void testReadEntriesAreEvictedIfUnused() throws Exception {
+        MatchedRulesCacheFile file = new MatchedRulesCacheFile(directory.resolve("rules.cache"), RULES_HASH);
+        MatchedRulesCache rulesCache = new MatchedRulesCache();
+        rulesCache.put(createCacheKey("domain1", "attr"), MatchedRule.unmatched(), 1);
+        rulesCache.put(createCacheKey("domain2", "attr"), MatchedRule.unmatched(), 1);
+        file.write(rulesCache);
+
+        MatchedRulesCache readCache = new MatchedRulesCache();
+        file.read(readCache);
+        long generation = readCache.nextGeneration();
+        readCache.get(createCacheKey("domain1", "attr"), generation);
+
+        assertThat(readCache.evictStaleEntries(generation)).isEqualTo(1);
+        assertThat(readCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFileOfOtherRulesIsIgnored() throws Exception {
+        Path path = directory.resolve("rules.cache");
+        MatchedRulesCache rulesCache = new MatchedRulesCache();
+        rulesCache.put(createCacheKey("domain1", "attr"), MatchedRule.unmatched(), 1);
+        new MatchedRulesCacheFile(path, RULES_HASH).write(rulesCache);
+
+        MatchedRulesCache readCache = new MatchedRulesCache();
+        int read = new MatchedRulesCacheFile(path, MatchedRulesCacheFile.hash("other rules")).read(readCache);
+
+        assertThat(read).isEqualTo(0);
+        assertThat(readCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testMissingFileIsIgnored() {
+        MatchedRulesCache readCache = new MatchedRulesCache();
+
+        int read = new MatchedRulesCacheFile(directory.resolve("missing.cache"), RULES_HASH).read(readCache);
+
+        assertThat(read).isEqualTo(0);
+    }
+
+    @Test
+    public void testTruncatedFileIsIgnored() throws Exception {
+        Path path = directory.resolve("rules.cache");
+        MatchedRulesCache rulesCache = new MatchedRulesCache();
+        rulesCache.put(createCacheKey("domain1", "attr"), MatchedRule.unmatched(), 1);
+        rulesCache.put(createCacheKey("domain2", "attr"), MatchedRule.unmatched(), 1);
+        new MatchedRulesCacheFile(path, RULES_HASH).write(rulesCache);
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 5));
+
+        MatchedRulesCache readCache = new MatchedRulesCache();
+        int read = new MatchedRulesCacheFile(path, RULES_HASH).read(readCache);
+
+        assertThat(read).isEqualTo(0);
+        assertThat(readCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testWriteReplacesTheFile() throws Exception {
+        MatchedRulesCacheFile file = new MatchedRulesCacheFile(directory.resolve("rules.cache"), RULES_HASH);
+        MatchedRulesCache rulesCache = new MatchedRulesCache();
+        rulesCache.put(createCacheKey("domain1", "attr"), MatchedRule.unmatched(), 1);
+        file.write(rulesCache);
+        file.write(new MatchedRulesCache());
+
+        MatchedRulesCache readCache = new MatchedRulesCache();
+
+        assertThat(file.read(readCache)).isEqualTo(0);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.count()).isEqualTo(1);
+        }
+    }
+}
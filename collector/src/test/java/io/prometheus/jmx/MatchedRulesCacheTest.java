@@ -184,12 +184,12 @@ public class MatchedRulesCacheTest {
             MatchedRule rule = createMatchedRule("test_name");
 
             MatchedRulesCache cache = new MatchedRulesCache();
-            cache.put(key, rule);
+            cache.put(key, rule, 1);
 
             props.put("extra", "value");
             keys.add("key2");
 
-            assertThat(cache.get(key)).isSameAs(rule);
+            assertThat(cache.get(key, 1)).isSameAs(rule);
         }
 
         @Test
@@ -234,53 +234,188 @@ public class MatchedRulesCacheTest {
     }
 
     @Nested
-    class StalenessTrackerTests {
+    class LookupKeyTests {
 
         @Test
-        void markAsFreshMakesEntryFresh() {
-            MatchedRulesCache.StalenessTracker tracker = new MatchedRulesCache.StalenessTracker();
-            MatchedRulesCache.CacheKey key = createCacheKey("domain");
+        void lookupKeyEqualsCacheKey() {
+            LinkedHashMap<String, String> props = new LinkedHashMap<>();
+            props.put("type", "test");
+            ArrayList<String> keys = new ArrayList<>();
+            keys.add("key1");
+
+            MatchedRulesCache.CacheKey lookupKey = new MatchedRulesCache.CacheKey().set("domain1", props, keys, "attr");
+
+            assertThat(lookupKey).isEqualTo(createCacheKey("domain1"));
+            assertThat(lookupKey.hashCode()).isEqualTo(createCacheKey("domain1").hashCode());
+        }
+
+        @Test
+        void lookupKeyIsCopiedWhenAdded() {
+            LinkedHashMap<String, String> props = new LinkedHashMap<>();
+            props.put("type", "test");
+            ArrayList<String> keys = new ArrayList<>();
+            keys.add("key1");
+            MatchedRulesCache.CacheKey lookupKey = new MatchedRulesCache.CacheKey();
+            MatchedRule rule = createMatchedRule("test_name");
 
-            tracker.markAsFresh(key);
+            MatchedRulesCache cache = new MatchedRulesCache();
+            cache.put(lookupKey.set("domain1", props, keys, "attr"), rule, 1);
+            props.put("extra", "value");
+            lookupKey.set("domain2", props, keys, "attr");
 
-            assertThat(tracker.isFresh(key)).isTrue();
+            assertThat(cache.get(createCacheKey("domain1"), 1)).isSameAs(rule);
+            assertThat(cache.get(lookupKey, 1)).isNull();
         }
 
         @Test
-        void isFreshReturnsFalseForUnmarkedEntry() {
-            MatchedRulesCache.StalenessTracker tracker = new MatchedRulesCache.StalenessTracker();
+        void cacheKeyCantBeChanged() {
+            MatchedRulesCache.CacheKey key = createCacheKey("domain1");
+
+            assertThatThrownBy(() -> key.set("domain2", new LinkedHashMap<>(), new ArrayList<>(), "attr"))
+                    .isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Nested
+    class GenerationTests {
+
+        @Test
+        void nextGenerationIncreases() {
+            MatchedRulesCache cache = new MatchedRulesCache();
+
+            long generation = cache.nextGeneration();
+
+            assertThat(cache.nextGeneration()).isGreaterThan(generation);
+        }
+
+        @Test
+        void getMarksEntryAsFresh() {
+            MatchedRulesCache cache = new MatchedRulesCache();
             MatchedRulesCache.CacheKey key = createCacheKey("domain");
+            cache.put(key, createMatchedRule("name"), 1);
+
+            cache.get(key, 2);
 
-            assertThat(tracker.isFresh(key)).isFalse();
+            assertThat(cache.freshCount(1)).isEqualTo(0);
+            assertThat(cache.freshCount(2)).isEqualTo(1);
         }
 
         @Test
         void freshCountReturnsCorrectCount() {
-            MatchedRulesCache.StalenessTracker tracker = new MatchedRulesCache.StalenessTracker();
+            MatchedRulesCache cache = new MatchedRulesCache();
 
-            tracker.markAsFresh(createCacheKey("domain1"));
-            tracker.markAsFresh(createCacheKey("domain2"));
-            tracker.markAsFresh(createCacheKey("domain3"));
+            cache.put(createCacheKey("domain1"), createMatchedRule("name1"), 1);
+            cache.put(createCacheKey("domain2"), createMatchedRule("name2"), 1);
+            cache.put(createCacheKey("domain3"), createMatchedRule("name3"), 1);
 
-            assertThat(tracker.freshCount()).isEqualTo(3);
+            assertThat(cache.freshCount(1)).isEqualTo(3);
         }
 
         @Test
-        void freshCountReturnsZeroForEmptyTracker() {
-            MatchedRulesCache.StalenessTracker tracker = new MatchedRulesCache.StalenessTracker();
+        void freshCountReturnsZeroForEmptyCache() {
+            MatchedRulesCache cache = new MatchedRulesCache();
 
-            assertThat(tracker.freshCount()).isEqualTo(0);
+            assertThat(cache.freshCount(1)).isEqualTo(0);
         }
 
         @Test
-        void sameKeyMarkedTwiceCountsOnce() {
-            MatchedRulesCache.StalenessTracker tracker = new MatchedRulesCache.StalenessTracker();
-            MatchedRulesCache.CacheKey key = createCacheKey("domain1");
+        void sameKeyPutTwiceCountsOnce() {
+            MatchedRulesCache cache = new MatchedRulesCache();
+            MatchedRule rule = createMatchedRule("name1");
 
-            tracker.markAsFresh(key);
-            tracker.markAsFresh(key);
+            cache.put(createCacheKey("domain1"), rule, 1);
+            cache.put(createCacheKey("domain1"), rule, 1);
 
-            assertThat(tracker.freshCount()).isEqualTo(1);
+            assertThat(cache.freshCount(1)).isEqualTo(1);
+        }
+
+        @Test
+        void olderGenerationDoesNotMakeEntryStale() {
+            MatchedRulesCache cache = new MatchedRulesCache();
+            MatchedRulesCache.CacheKey key = createCacheKey("domain");
+            cache.put(key, createMatchedRule("name"), 2);
+
+            cache.get(key, 1);
+
+            assertThat(cache.freshCount(2)).isEqualTo(1);
+        }
+    }
+
+    @Nested
+    class BoundedCacheTests {
+
+        @Test
+        void fullCacheDoesNotAdmitNewEntries() {
+            MatchedRulesCache cache = new MatchedRulesCache(2);
+
+            cache.put(createCacheKey("domain1"), createMatchedRule("name1"), 1);
+            cache.put(createCacheKey("domain2"), createMatchedRule("name2"), 1);
+            cache.put(createCacheKey("domain3"), createMatchedRule("name3"), 1);
+
+            assertThat(cache.size()).isEqualTo(2);
+            assertThat(cache.get(createCacheKey("domain1"), 1)).isNotNull();
+            assertThat(cache.get(createCacheKey("domain2"), 1)).isNotNull();
+            assertThat(cache.get(createCacheKey("domain3"), 1)).isNull();
+            assertThat(cache.getEvictions()).isEqualTo(0);
+        }
+
+        @Test
+        void fullCacheKeepsEntriesOfThePreviousScrape() {
+            MatchedRulesCache cache = new MatchedRulesCache(2);
+            cache.put(createCacheKey("domain1"), createMatchedRule("name1"), 1);
+            cache.put(createCacheKey("domain2"), createMatchedRule("name2"), 1);
+
+            // The second scrape hasn't reached the entries of the first one yet
+            cache.put(createCacheKey("domain3"), createMatchedRule("name3"), 2);
+
+            assertThat(cache.get(createCacheKey("domain1"), 2)).isNotNull();
+            assertThat(cache.get(createCacheKey("domain2"), 2)).isNotNull();
+            assertThat(cache.get(createCacheKey("domain3"), 2)).isNull();
+        }
+
+        @Test
+        void fullCacheEvictsEntriesUnusedByTheLastTwoScrapes() {
+            MatchedRulesCache cache = new MatchedRulesCache(2);
+            cache.put(createCacheKey("domain1"), createMatchedRule("name1"), 1);
+            cache.put(createCacheKey("domain2"), createMatchedRule("name2"), 2);
+
+            cache.put(createCacheKey("domain3"), createMatchedRule("name3"), 3);
+
+            assertThat(cache.get(createCacheKey("domain1"), 3)).isNull();
+            assertThat(cache.get(createCacheKey("domain2"), 3)).isNotNull();
+            assertThat(cache.get(createCacheKey("domain3"), 3)).isNotNull();
+            assertThat(cache.getEvictions()).isEqualTo(1);
+        }
+
+        @Test
+        void hitsAndMissesAreCounted() {
+            MatchedRulesCache cache = new MatchedRulesCache();
+            cache.put(createCacheKey("domain1"), createMatchedRule("name1"), 1);
+
+            cache.get(createCacheKey("domain1"), 1);
+            cache.get(createCacheKey("domain1"), 1);
+            cache.get(createCacheKey("domain2"), 1);
+
+            assertThat(cache.getHits()).isEqualTo(2);
+            assertThat(cache.getMisses()).isEqualTo(1);
+        }
+
+        @Test
+        void estimatedBytesFollowTheEntries() {
+            MatchedRulesCache cache = new MatchedRulesCache();
+
+            cache.put(createCacheKey("domain1"), createMatchedRule("name1"), 1);
+            long oneEntry = cache.getEstimatedBytes();
+            cache.put(createCacheKey("domain2"), MatchedRule.unmatched(), 1);
+
+            assertThat(oneEntry).isGreaterThan(0);
+            assertThat(cache.getEstimatedBytes()).isGreaterThan(oneEntry);
+
+            cache.get(createCacheKey("domain1"), 2);
+            cache.evictStaleEntries(2);
+
+            assertThat(cache.getEstimatedBytes()).isEqualTo(oneEntry);
+            assertThat(cache.getEvictions()).isEqualTo(1);
         }
     }
 
@@ -293,8 +428,8 @@ public class MatchedRulesCacheTest {
             MatchedRulesCache.CacheKey key = createCacheKey("domain");
             MatchedRule rule = createMatchedRule("test_name");
 
-            cache.put(key, rule);
-            MatchedRule retrieved = cache.get(key);
+            cache.put(key, rule, 1);
+            MatchedRule retrieved = cache.get(key, 1);
 
             assertThat(retrieved).isSameAs(rule);
         }
@@ -304,7 +439,7 @@ public class MatchedRulesCacheTest {
             MatchedRulesCache cache = new MatchedRulesCache();
             MatchedRulesCache.CacheKey key = createCacheKey("nonexistent");
 
-            MatchedRule result = cache.get(key);
+            MatchedRule result = cache.get(key, 1);
 
             assertThat(result).isNull();
         }
@@ -313,7 +448,7 @@ public class MatchedRulesCacheTest {
         void getWithNullKeyThrowsNPE() {
             MatchedRulesCache cache = new MatchedRulesCache();
 
-            assertThatThrownBy(() -> cache.get(null)).isInstanceOf(NullPointerException.class);
+            assertThatThrownBy(() -> cache.get(null, 1)).isInstanceOf(NullPointerException.class);
         }
 
         @Test
@@ -321,13 +456,12 @@ public class MatchedRulesCacheTest {
             MatchedRulesCache cache = new MatchedRulesCache();
             MatchedRule rule = createMatchedRule("test_name");
 
-            assertThatThrownBy(() -> cache.put(null, rule)).isInstanceOf(NullPointerException.class);
+            assertThatThrownBy(() -> cache.put(null, rule, 1)).isInstanceOf(NullPointerException.class);
         }
 
         @Test
         void evictStaleEntriesRemovesStaleEntries() {
             MatchedRulesCache cache = new MatchedRulesCache();
-            MatchedRulesCache.StalenessTracker tracker = new MatchedRulesCache.StalenessTracker();
 
             MatchedRulesCache.CacheKey key1 = createCacheKey("domain1");
             MatchedRulesCache.CacheKey key2 = createCacheKey("domain2");
@@ -335,21 +469,20 @@ public class MatchedRulesCacheTest {
             MatchedRule rule1 = createMatchedRule("name1");
             MatchedRule rule2 = createMatchedRule("name2");
 
-            cache.put(key1, rule1);
-            cache.put(key2, rule2);
+            cache.put(key1, rule1, 1);
+            cache.put(key2, rule2, 1);
 
-            tracker.markAsFresh(key1);
+            cache.get(key1, 2);
 
-            cache.evictStaleEntries(tracker);
+            assertThat(cache.evictStaleEntries(2)).isEqualTo(1);
 
-            assertThat(cache.get(key1)).isSameAs(rule1);
-            assertThat(cache.get(key2)).isNull();
+            assertThat(cache.get(key1, 2)).isSameAs(rule1);
+            assertThat(cache.get(key2, 2)).isNull();
         }
 
         @Test
         void evictStaleEntriesKeepsFreshEntries() {
             MatchedRulesCache cache = new MatchedRulesCache();
-            MatchedRulesCache.StalenessTracker tracker = new MatchedRulesCache.StalenessTracker();
 
             MatchedRulesCache.CacheKey key1 = createCacheKey("domain1");
             MatchedRulesCache.CacheKey key2 = createCacheKey("domain2");
@@ -357,42 +490,49 @@ public class MatchedRulesCacheTest {
             MatchedRule rule1 = createMatchedRule("name1");
             MatchedRule rule2 = createMatchedRule("name2");
 
-            cache.put(key1, rule1);
-            cache.put(key2, rule2);
+            cache.put(key1, rule1, 1);
+            cache.put(key2, rule2, 1);
 
-            tracker.markAsFresh(key1);
-            tracker.markAsFresh(key2);
+            cache.get(key1, 2);
+            cache.put(key2, rule2, 2);
 
-            cache.evictStaleEntries(tracker);
+            assertThat(cache.evictStaleEntries(2)).isEqualTo(2);
 
-            assertThat(cache.get(key1)).isSameAs(rule1);
-            assertThat(cache.get(key2)).isSameAs(rule2);
+            assertThat(cache.get(key1, 2)).isSameAs(rule1);
+            assertThat(cache.get(key2, 2)).isSameAs(rule2);
         }
 
         @Test
-        void evictStaleEntriesWithEmptyCache() {
+        void evictStaleEntriesKeepsEntriesOfLaterGenerations() {
             MatchedRulesCache cache = new MatchedRulesCache();
-            MatchedRulesCache.StalenessTracker tracker = new MatchedRulesCache.StalenessTracker();
+            MatchedRulesCache.CacheKey key = createCacheKey("domain1");
+            MatchedRule rule = createMatchedRule("name1");
+
+            cache.put(key, rule, 3);
+
+            assertThat(cache.evictStaleEntries(2)).isEqualTo(0);
+            assertThat(cache.get(key, 3)).isSameAs(rule);
+        }
 
-            tracker.markAsFresh(createCacheKey("domain"));
+        @Test
+        void evictStaleEntriesWithEmptyCache() {
+            MatchedRulesCache cache = new MatchedRulesCache();
 
-            cache.evictStaleEntries(tracker);
+            assertThat(cache.evictStaleEntries(1)).isEqualTo(0);
         }
 
         @Test
-        void evictStaleEntriesWithEmptyTracker() {
+        void evictStaleEntriesWithoutUsedEntries() {
             MatchedRulesCache cache = new MatchedRulesCache();
 
             MatchedRulesCache.CacheKey key = createCacheKey("domain1");
             MatchedRule rule = createMatchedRule("name1");
 
-            cache.put(key, rule);
-
-            MatchedRulesCache.StalenessTracker tracker = new MatchedRulesCache.StalenessTracker();
+            cache.put(key, rule, 1);
 
-            cache.evictStaleEntries(tracker);
+            cache.evictStaleEntries(2);
 
-            assertThat(cache.get(key)).isNull();
+            assertThat(cache.get(key, 2)).isNull();
         }
 
         @Test
@@ -403,10 +543,10 @@ public class MatchedRulesCacheTest {
             MatchedRule rule1 = createMatchedRule("name1");
             MatchedRule rule2 = createMatchedRule("name2");
 
-            cache.put(key, rule1);
-            cache.put(key, rule2);
+            cache.put(key, rule1, 1);
+            cache.put(key, rule2, 1);
 
-            assertThat(cache.get(key)).isSameAs(rule2);
+            assertThat(cache.get(key, 1)).isSameAs(rule2);
         }
     }
 }
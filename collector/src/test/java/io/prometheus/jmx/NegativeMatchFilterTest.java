@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class NegativeMatchFilterTest {
+
+    private static final long TTL_NANOS = 60000L;
+
+    private ObjectName mBeanName;
+    private NegativeMatchFilter filter;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        mBeanName = new ObjectName("io.prometheus.jmx:type=negative");
+        filter = new NegativeMatchFilter(TTL_NANOS);
+    }
+
+    private void recordMisses(int misses, long nowNanos) {
+        for (int i = 0; i < misses; i++) {
+            filter.record(mBeanName, "Value", false, nowNanos);
+        }
+    }
+
+    @Test
+    public void testAttributeIsExcludedAfterRepeatedMisses() {
+        recordMisses(NegativeMatchFilter.MISSES_BEFORE_EXCLUSION - 1, 0);
+        assertThat(filter.exclude(mBeanName, "Value", 1)).isFalse();
+
+        recordMisses(1, 0);
+        assertThat(filter.exclude(mBeanName, "Value", 1)).isTrue();
+        assertThat(filter.exclude(mBeanName, "Other", 1)).isFalse();
+    }
+
+    @Test
+    public void testSampleResetsMisses() {
+        recordMisses(NegativeMatchFilter.MISSES_BEFORE_EXCLUSION - 1, 0);
+        filter.record(mBeanName, "Value", true, 0);
+        recordMisses(1, 0);
+
+        assertThat(filter.exclude(mBeanName, "Value", 1)).isFalse();
+    }
+
+    @Test
+    public void testAttributeIsProbedAgainAfterTtl() {
+        recordMisses(NegativeMatchFilter.MISSES_BEFORE_EXCLUSION, 0);
+        assertThat(filter.exclude(mBeanName, "Value", TTL_NANOS)).isFalse();
+
+        // Still no sample, excluded for another TTL right away
+        recordMisses(1, TTL_NANOS);
+        assertThat(filter.exclude(mBeanName, "Value", TTL_NANOS + 1)).isTrue();
+
+        filter.record(mBeanName, "Value", true, 2 * TTL_NANOS);
+        assertThat(filter.exclude(mBeanName, "Value", 2 * TTL_NANOS + 1)).isFalse();
+    }
+
+    @Test
+    public void testOnlyKeepMBeans() {
+        recordMisses(NegativeMatchFilter.MISSES_BEFORE_EXCLUSION, 0);
+        filter.onlyKeepMBeans(Collections.emptySet());
+
+        assertThat(filter.exclude(mBeanName, "Value", 1)).isFalse();
+    }
+}
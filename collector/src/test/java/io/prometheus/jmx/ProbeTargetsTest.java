@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+public class ProbeTargetsTest {
+
+    private ProbeTargets probeTargets;
+
+    @AfterEach
+    public void tearDown() {
+        if (probeTargets != null) {
+            probeTargets.close();
+        }
+    }
+
+    private static Map<String, Object> yaml(String yaml) {
+        return new Yaml(new SafeConstructor(new LoaderOptions())).load(yaml);
+    }
+
+    @Test
+    public void testToJmxUrl() {
+        assertThat(ProbeTargets.toJmxUrl("kafka-1:9999"))
+                .isEqualTo("service:jmx:rmi:///jndi/rmi://kafka-1:9999/jmxrmi");
+        assertThat(ProbeTargets.toJmxUrl("10.0.0.1:9999"))
+                .isEqualTo("service:jmx:rmi:///jndi/rmi://10.0.0.1:9999/jmxrmi");
+        assertThat(ProbeTargets.toJmxUrl("[::1]:9999")).isEqualTo("service:jmx:rmi:///jndi/rmi://[::1]:9999/jmxrmi");
+        assertThatIllegalArgumentException().isThrownBy(() -> ProbeTargets.toJmxUrl(" "));
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> ProbeTargets.toJmxUrl("service:jmx:rmi:///jndi/rmi://kafka-1:9999/jmxrmi"));
+    }
+
+    @Test
+    public void testIsValidTarget() {
+        assertThat(ProbeTargets.isValidTarget("kafka-1.example.com:9999")).isTrue();
+        assertThat(ProbeTargets.isValidTarget("kafka_1:1")).isTrue();
+        assertThat(ProbeTargets.isValidTarget("[fe80::1]:65535")).isTrue();
+
+        assertThat(ProbeTargets.isValidTarget(null)).isFalse();
+        assertThat(ProbeTargets.isValidTarget("kafka-1")).isFalse();
+        assertThat(ProbeTargets.isValidTarget("kafka-1:0")).isFalse();
+        assertThat(ProbeTargets.isValidTarget("kafka-1:65536")).isFalse();
+        assertThat(ProbeTargets.isValidTarget("kafka-1:9999/jmxrmi")).isFalse();
+        assertThat(ProbeTargets.isValidTarget("evil@kafka-1:9999")).isFalse();
+        assertThat(ProbeTargets.isValidTarget("ldap://evil:389/o=x")).isFalse();
+        assertThat(ProbeTargets.isValidTarget("service:jmx:rmi:///jndi/ldap://evil:389/o=x"))
+                .isFalse();
+    }
+
+    @Test
+    public void testProbeRejectsInvalidTarget() throws Exception {
+        probeTargets = new ProbeTargets(yaml("---\nmodules:\n  kafka: {}"));
+
+        assertThatIllegalArgumentException()
+                .isThrownBy(() ->
+                        probeTargets.probe("kafka", "service:jmx:rmi:///jndi/ldap://evil:389/o=x", registry -> {}));
+    }
+
+    @Test
+    public void testInvalidConfiguration() {
+        assertThatIllegalArgumentException().isThrownBy(() -> new ProbeTargets(yaml("---\nrules: []")));
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> new ProbeTargets(yaml("---\nmodules:\n  kafka:\n    hostPort: localhost:9999")));
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> new ProbeTargets(yaml("---\nmodules:\n  kafka:\n    rules:\n    - name: foo")));
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> new ProbeTargets(yaml("---\nmaxConcurrentProbes: 0\nmodules:\n  kafka: {}")));
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> new ProbeTargets(yaml("---\nmaxTargets: 0\nmodules:\n  kafka: {}")));
+    }
+
+    @Test
+    public void testUnknownModule() throws Exception {
+        probeTargets = new ProbeTargets(yaml("---\nmodules:\n  kafka: {}"));
+
+        assertThat(probeTargets.hasModule("kafka")).isTrue();
+        assertThat(probeTargets.hasModule("cassandra")).isFalse();
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> probeTargets.probe("cassandra", "localhost:1", registry -> {}));
+    }
+
+    @Test
+    public void testProbeKeepsCollectorPerTarget() throws Exception {
+        probeTargets = new ProbeTargets(yaml("---\nmodules:\n  kafka: {}\n  default: {}"));
+        PrometheusRegistry prometheusRegistry = new PrometheusRegistry();
+        probeTargets.register(prometheusRegistry);
+
+        List<PrometheusRegistry> registries = new ArrayList<>();
+        probeTargets.probe("kafka", "localhost:1", registries::add);
+        probeTargets.probe("kafka", "localhost:1", registries::add);
+        probeTargets.probe("default", "localhost:1", registries::add);
+
+        assertThat(registries.get(0)).isSameAs(registries.get(1));
+        assertThat(registries.get(2)).isNotSameAs(registries.get(0));
+        assertThat(new PrometheusRegistryUtils(prometheusRegistry)
+                        .getSampleValue("jmx_probe_targets", new String[] {}, new String[] {}))
+                .isEqualTo(2.0);
+
+        // Nothing listens on port 1, the scrape of the target fails
+        registries.get(0).scrape();
+        assertThat(new PrometheusRegistryUtils(registries.get(0))
+                        .getSampleValue("jmx_scrape_error", new String[] {}, new String[] {}))
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    public void testLeastRecentlyProbedTargetIsClosedAtMaxTargets() throws Exception {
+        probeTargets = new ProbeTargets(yaml("---\nmaxTargets: 2\nmodules:\n  kafka: {}"));
+        PrometheusRegistry prometheusRegistry = new PrometheusRegistry();
+        probeTargets.register(prometheusRegistry);
+
+        List<PrometheusRegistry> registries = new ArrayList<>();
+        probeTargets.probe("kafka", "localhost:1", registries::add);
+        probeTargets.probe("kafka", "localhost:2", registries::add);
+        probeTargets.probe("kafka", "localhost:1", registries::add);
+        probeTargets.probe("kafka", "localhost:3", registries::add);
+
+        assertThat(new PrometheusRegistryUtils(prometheusRegistry)
+                        .getSampleValue("jmx_probe_targets", new String[] {}, new String[] {}))
+                .isEqualTo(2.0);
+
+        // localhost:2 was closed, localhost:1 was kept
+        probeTargets.probe("kafka", "localhost:1", registries::add);
+        probeTargets.probe("kafka", "localhost:2", registries::add);
+        assertThat(registries.get(4)).isSameAs(registries.get(0));
+        assertThat(registries.get(5)).isNotSameAs(registries.get(1));
+    }
+
+    @Test
+    public void testTargetsDontShareTheRuleCacheFile(@TempDir Path directory) throws Exception {
+        Path ruleCacheFile = directory.resolve("rules.cache");
+        probeTargets = new ProbeTargets(yaml("---\nmodules:\n  kafka:\n    ruleCacheFile: " + ruleCacheFile
+                + "\n    rules:\n    - pattern: '.*'\n      cache: true"));
+
+        // Validating the module doesn't touch the file
+        assertThat(directory).isEmptyDirectory();
+
+        probeTargets.probe("kafka", "localhost:1", PrometheusRegistry::scrape);
+        probeTargets.probe("kafka", "localhost:2", PrometheusRegistry::scrape);
+        probeTargets.close();
+
+        List<String> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+        assertThat(files)
+                .containsExactlyInAnyOrder(
+                        Paths.get(ProbeTargets.toTargetRuleCacheFile(
+                                        ruleCacheFile.toString(), "kafka", ProbeTargets.toJmxUrl("localhost:1")))
+                                .getFileName()
+                                .toString(),
+                        Paths.get(ProbeTargets.toTargetRuleCacheFile(
+                                        ruleCacheFile.toString(), "kafka", ProbeTargets.toJmxUrl("localhost:2")))
+                                .getFileName()
+                                .toString());
+    }
+
+    @Test
+    public void testInvalidRuleCacheFile() {
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> new ProbeTargets(yaml("---\nmodules:\n  kafka:\n    ruleCacheFile: 1")));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class ReplacementTemplateTest {
+
+    private static final String MATCH_NAME = "kafka.server<type=BrokerTopicMetrics, name=BytesInPerSec><>Count: 42";
+
+    private static final Pattern PATTERN =
+            Pattern.compile("^.*(?:kafka.(\\w+)<type=(?<type>.+), name=(.+)PerSec(Total)?><>(Count|Value)).*$");
+
+    private static void assertSameAsReplaceAll(String template) {
+        Matcher matcher = PATTERN.matcher(MATCH_NAME);
+        assertThat(matcher.matches()).isTrue();
+        String expected = PATTERN.matcher(MATCH_NAME).replaceAll(template);
+
+        assertThat(ReplacementTemplate.compile(template, PATTERN).apply(matcher, MATCH_NAME, new StringBuilder()))
+                .isEqualTo(expected);
+    }
+
+    @Test
+    public void testApply() {
+        assertSameAsReplaceAll("kafka_$1_$3_total");
+        assertSameAsReplaceAll("$2");
+        assertSameAsReplaceAll("${type}_$5");
+        assertSameAsReplaceAll("constant");
+        assertSameAsReplaceAll("");
+        assertSameAsReplaceAll("$0");
+        // Group 4 didn't participate in the match
+        assertSameAsReplaceAll("a$4b");
+        // Only groups that exist are used, the other digits are literal
+        assertSameAsReplaceAll("$12");
+        assertSameAsReplaceAll("\\$1 \\\\ $1");
+    }
+
+    @Test
+    public void testBufferIsReused() {
+        Matcher matcher = PATTERN.matcher(MATCH_NAME);
+        assertThat(matcher.matches()).isTrue();
+        StringBuilder buffer = new StringBuilder("previous content");
+
+        assertThat(ReplacementTemplate.compile("$1", PATTERN).apply(matcher, MATCH_NAME, buffer))
+                .isEqualTo("server");
+        assertThat(ReplacementTemplate.compile("$5", PATTERN).apply(matcher, MATCH_NAME, buffer))
+                .isEqualTo("Count");
+    }
+
+    @Test
+    public void testInvalidTemplatesFailWhenApplied() {
+        Matcher matcher = PATTERN.matcher(MATCH_NAME);
+        assertThat(matcher.matches()).isTrue();
+
+        ReplacementTemplate missingGroup = ReplacementTemplate.compile("$9", PATTERN);
+        assertThatThrownBy(() -> missingGroup.apply(matcher, MATCH_NAME, new StringBuilder()))
+                .isInstanceOf(IndexOutOfBoundsException.class)
+                .hasMessageContaining("No group 9");
+
+        ReplacementTemplate trailingDollar = ReplacementTemplate.compile("foo$", PATTERN);
+        assertThatThrownBy(() -> trailingDollar.apply(matcher, MATCH_NAME, new StringBuilder()))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        ReplacementTemplate unknownName = ReplacementTemplate.compile("${unknown}", PATTERN);
+        assertThatThrownBy(() -> unknownName.apply(matcher, MATCH_NAME, new StringBuilder()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.management.MBeanAttributeInfo;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RuleBasedAttributeFilterTest {
+
+    private ObjectName mBeanName;
+    private LinkedHashMap<String, String> beanProperties;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        mBeanName = new ObjectName("org.apache.cassandra.metrics:type=Table,name=ReadLatency");
+        beanProperties = new LinkedHashMap<>();
+        beanProperties.put("type", "Table");
+        beanProperties.put("name", "ReadLatency");
+    }
+
+    private static JmxCollector.Rule rule(String pattern) {
+        JmxCollector.Rule rule = new JmxCollector.Rule();
+        rule.pattern = Pattern.compile("^.*(?:" + pattern + ").*$");
+        return rule;
+    }
+
+    private static MBeanAttributeInfo attribute(String name, String type) {
+        return new MBeanAttributeInfo(name, type, name, true, false, false);
+    }
+
+    private boolean include(List<JmxCollector.Rule> rules, String attributeName, String type) {
+        RuleBasedAttributeFilter filter = RuleBasedAttributeFilter.create(rules);
+        assertThat(filter).isNotNull();
+        return filter.include(mBeanName, beanProperties, attribute(attributeName, type));
+    }
+
+    @Test
+    public void testGetLiteralSuffix() {
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("org.apache.cassandra.metrics<type=(\\w+)><>Count"))
+                .isEqualTo("><>Count");
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("foo<type=[^>]+><>Value\\."))
+                .isEqualTo("><>Value.");
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("(?:a|b)ce")).isEqualTo("ce");
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("ab+cd")).isEqualTo("cd");
+    }
+
+    @Test
+    public void testGetLiteralSuffixOfValueDependentPatterns() {
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("foo<>Value: (\\d+)"))
+                .isNull();
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("foo<>(Count|Value)"))
+                .isNull();
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("foo|bar")).isNull();
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("foo$")).isNull();
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("foo(?=bar)bar")).isNull();
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("foo\\b")).isNull();
+        assertThat(RuleBasedAttributeFilter.getLiteralSuffix("foo.*")).isNull();
+    }
+
+    @Test
+    public void testCanEndInValue() {
+        assertThat(RuleBasedAttributeFilter.canEndInValue("foo<>Count", "Count: 1"))
+                .isTrue();
+        assertThat(RuleBasedAttributeFilter.canEndInValue("foo<>Count", "t: ")).isTrue();
+        assertThat(RuleBasedAttributeFilter.canEndInValue("foo<>Count", "true")).isTrue();
+        assertThat(RuleBasedAttributeFilter.canEndInValue("foo<>Count", "Value"))
+                .isFalse();
+        assertThat(RuleBasedAttributeFilter.canEndInValue("foo<>Count", "Count"))
+                .isFalse();
+    }
+
+    @Test
+    public void testNonMatchingNumericAttributeIsExcluded() {
+        List<JmxCollector.Rule> rules =
+                Collections.singletonList(rule("org.apache.cassandra.metrics<type=(\\w+), name=(\\w+)><>Count"));
+
+        assertThat(include(rules, "Count", "long")).isTrue();
+        assertThat(include(rules, "Mean", "double")).isFalse();
+        assertThat(include(rules, "Enabled", "boolean")).isFalse();
+    }
+
+    @Test
+    public void testNonNumericAttributeIsIncluded() {
+        List<JmxCollector.Rule> rules =
+                Collections.singletonList(rule("org.apache.cassandra.metrics<type=(\\w+), name=(\\w+)><>Count"));
+
+        assertThat(include(rules, "Description", "java.lang.String")).isTrue();
+        assertThat(include(rules, "Usage", "javax.management.openmbean.CompositeData"))
+                .isTrue();
+    }
+
+    @Test
+    public void testAttributeMatchingAnyRuleIsIncluded() {
+        List<JmxCollector.Rule> rules = Arrays.asList(
+                rule("org.apache.cassandra.metrics<type=(\\w+), name=(\\w+)><>Count"),
+                rule("org.apache.cassandra.metrics<type=Table, name=ReadLatency><>Mean"));
+
+        assertThat(include(rules, "Mean", "double")).isTrue();
+        assertThat(include(rules, "Max", "double")).isFalse();
+    }
+
+    @Test
+    public void testSnakeCaseAttributeName() {
+        JmxCollector.Rule rule = rule("org.apache.cassandra.metrics<type=(\\w+), name=(\\w+)><>total_count");
+        rule.attrNameSnakeCase = true;
+
+        assertThat(include(Collections.singletonList(rule), "TotalCount", "long"))
+                .isTrue();
+        assertThat(include(Collections.singletonList(rule), "Count", "long")).isFalse();
+    }
+
+    @Test
+    public void testRulesThatCanMatchAnyAttribute() {
+        List<JmxCollector.Rule> defaultRule = Collections.singletonList(new JmxCollector.Rule());
+        List<JmxCollector.Rule> valueDependentRules = new ArrayList<>();
+        valueDependentRules.add(rule("org.apache.cassandra.metrics<type=(\\w+), name=(\\w+)><>Count"));
+        valueDependentRules.add(rule("org.apache.cassandra.metrics<>(\\w+): (\\d+)"));
+
+        assertThat(RuleBasedAttributeFilter.create(defaultRule)).isNull();
+        assertThat(RuleBasedAttributeFilter.create(valueDependentRules)).isNull();
+    }
+}
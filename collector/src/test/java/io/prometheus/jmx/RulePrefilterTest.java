@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class RulePrefilterTest {
+
+    private static JmxCollector.Rule rule(String pattern) {
+        JmxCollector.Rule rule = new JmxCollector.Rule();
+        rule.pattern = Pattern.compile("^.*(?:" + pattern + ").*$");
+        return rule;
+    }
+
+    @Test
+    public void testGetRequiredLiteral() {
+        assertThat(RulePrefilter.getRequiredLiteral("kafka.server<type=(.+), name=(.+)PerSec\\w*><>Count"))
+                .isEqualTo("server<type=");
+        assertThat(RulePrefilter.getRequiredLiteral("org\\.apache\\.cassandra\\.metrics<type=(\\w+)><>Count"))
+                .isEqualTo("org.apache.cassandra.metrics<type=");
+        assertThat(RulePrefilter.getRequiredLiteral("abcd?ef")).isEqualTo("abc");
+        assertThat(RulePrefilter.getRequiredLiteral("ab(cdef)+")).isEqualTo("ab");
+    }
+
+    @Test
+    public void testPatternsWithoutRequiredLiteral() {
+        assertThat(RulePrefilter.getRequiredLiteral("foo|bar")).isNull();
+        assertThat(RulePrefilter.getRequiredLiteral("(?i)foo")).isNull();
+        assertThat(RulePrefilter.getRequiredLiteral("\\Qfoo\\E")).isNull();
+        assertThat(RulePrefilter.getRequiredLiteral("(foo|bar).*")).isNull();
+        assertThat(RulePrefilter.getRequiredLiteral("")).isNull();
+    }
+
+    @Test
+    public void testNoRuleWithLiteral() {
+        assertThat(RulePrefilter.create(Collections.singletonList(new JmxCollector.Rule())))
+                .isNull();
+        assertThat(RulePrefilter.create(Collections.singletonList(rule("foo|bar"))))
+                .isNull();
+    }
+
+    @Test
+    public void testCandidates() {
+        List<JmxCollector.Rule> rules = Arrays.asList(
+                rule("kafka.server<type=(.+), name=(.+)><>Count"),
+                rule("kafka.network<type=(.+), name=(.+)><>Value"),
+                rule("kafka.(\\w+)<type=(.+)><>(\\w+)|other"),
+                rule("java.lang<type=Memory><HeapMemoryUsage>used"),
+                new JmxCollector.Rule());
+        RulePrefilter rulePrefilter = RulePrefilter.create(rules);
+
+        assertThat(rulePrefilter.getCandidates("kafka.server<type=Broker, name=Bytes><>Count: 1"))
+                .isEqualTo(bitSet(0, 2, 4));
+        assertThat(rulePrefilter.getCandidates("kafka.network<type=Request, name=Bytes><>Value: 1"))
+                .isEqualTo(bitSet(1, 2, 4));
+        assertThat(rulePrefilter.getCandidates("java.lang<type=Memory><HeapMemoryUsage>used: 1"))
+                .isEqualTo(bitSet(2, 3, 4));
+    }
+
+    @Test
+    public void testOverlappingLiterals() {
+        List<JmxCollector.Rule> rules =
+                Arrays.asList(rule("(.+)><>Count"), rule("><>CountPerSec(.*)"), rule("(.*)tPer(.*)"));
+        RulePrefilter rulePrefilter = RulePrefilter.create(rules);
+
+        assertThat(rulePrefilter.getCandidates("a<b=c><>CountPerSec: 1")).isEqualTo(bitSet(0, 1, 2));
+        assertThat(rulePrefilter.getCandidates("a<b=c><>Coun")).isEqualTo(bitSet());
+        assertThat(rulePrefilter.getCandidates("a<b=c><><>Count: 1")).isEqualTo(bitSet(0));
+    }
+
+    @Test
+    public void testCandidatesContainEveryMatchingRule() {
+        List<JmxCollector.Rule> rules = Arrays.asList(
+                rule("kafka.server<type=(.+), name=(.+)PerSec\\w*><>Count"),
+                rule("kafka.server<type=(.+), name=(.+)><>(Value|Count)"),
+                rule("^kafka\\.(\\w+)<type=([^,>]+)><>Value: (\\d+)"),
+                rule("\\w+<type=Memory><(\\w+)>used"),
+                rule("kafka.(.+)<>(\\w+)"));
+        RulePrefilter rulePrefilter = RulePrefilter.create(rules);
+
+        List<String> matchNames = Arrays.asList(
+                "kafka.server<type=BrokerTopicMetrics, name=BytesInPerSec><>Count: 12",
+                "kafka.server<type=ReplicaManager, name=LeaderCount><>Value: 4",
+                "kafka.network<type=SocketServer><>Value: 3",
+                "java.lang<type=Memory><HeapMemoryUsage>used: 1024",
+                "kafka.log<type=Log><>Size: 0",
+                "org.apache<type=Other><>Count: 1");
+        for (String matchName : matchNames) {
+            BitSet candidates = rulePrefilter.getCandidates(matchName);
+            for (int i = 0; i < rules.size(); i++) {
+                if (rules.get(i).pattern.matcher(matchName).matches()) {
+                    assertThat(candidates.get(i))
+                            .as("rule %d for %s", i, matchName)
+                            .isTrue();
+                }
+            }
+        }
+    }
+
+    private static BitSet bitSet(int... indexes) {
+        BitSet bitSet = new BitSet();
+        for (int index : indexes) {
+            bitSet.set(index);
+        }
+        return bitSet;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class RuleValueDependencyTest {
+
+    private static JmxCollector.Rule rule(String pattern) {
+        JmxCollector.Rule rule = new JmxCollector.Rule();
+        rule.pattern = Pattern.compile("^.*(?:" + pattern + ").*$");
+        rule.name = "foo";
+        return rule;
+    }
+
+    @Test
+    public void testValueIndependentRules() {
+        assertThat(RuleValueDependency.isValueIndependent(rule("kafka.server<type=(.+), name=(.+)><>Count")))
+                .isTrue();
+        assertThat(RuleValueDependency.isValueIndependent(rule("kafka.server<type=(.+), name=(.+)><>(Count|Value)")))
+                .isTrue();
+        assertThat(RuleValueDependency.isValueIndependent(rule("kafka.server<type=(.+), name=(.+)><>(\\w+)")))
+                .isTrue();
+        assertThat(RuleValueDependency.isValueIndependent(rule("java.lang<type=Memory><HeapMemoryUsage>[a-z]+")))
+                .isTrue();
+        assertThat(RuleValueDependency.isValueIndependent(new JmxCollector.Rule()))
+                .isTrue();
+    }
+
+    @Test
+    public void testValueDependentRules() {
+        assertThat(RuleValueDependency.isValueIndependent(rule("kafka.server<type=(.+)><>Value: (\\d+)")))
+                .isFalse();
+        assertThat(RuleValueDependency.isValueIndependent(rule("kafka.server<type=(.+)><>Value.*")))
+                .isFalse();
+        assertThat(RuleValueDependency.isValueIndependent(rule("kafka.server<type=(.+)><>(.+)")))
+                .isFalse();
+        assertThat(RuleValueDependency.isValueIndependent(rule("Count|Value"))).isFalse();
+        assertThat(RuleValueDependency.isValueIndependent(rule("<>Count:"))).isFalse();
+        // "1" can be the start of a value
+        assertThat(RuleValueDependency.isValueIndependent(rule("<>(\\w+): 1"))).isFalse();
+
+        JmxCollector.Rule wholeMatch = rule("kafka.server<type=(.+)><>Count");
+        wholeMatch.help = "$0";
+        assertThat(RuleValueDependency.isValueIndependent(wholeMatch)).isFalse();
+
+        JmxCollector.Rule constantValue = new JmxCollector.Rule();
+        constantValue.value = "1";
+        assertThat(RuleValueDependency.isValueIndependent(constantValue)).isFalse();
+    }
+
+    @Test
+    public void testCanEndInValue() {
+        assertThat(RuleValueDependency.canEndInValue("Count")).isFalse();
+        assertThat(RuleValueDependency.canEndInValue("<>")).isFalse();
+        assertThat(RuleValueDependency.canEndInValue("Count: ")).isTrue();
+        assertThat(RuleValueDependency.canEndInValue("true")).isTrue();
+        assertThat(RuleValueDependency.canEndInValue("1")).isTrue();
+    }
+
+    @Test
+    public void testCanMatchColon() {
+        assertThat(RuleValueDependency.canMatchColon("(\\w+)")).isFalse();
+        assertThat(RuleValueDependency.canMatchColon("(Count|Value)")).isFalse();
+        assertThat(RuleValueDependency.canMatchColon("[a-zA-Z_]*")).isFalse();
+        assertThat(RuleValueDependency.canMatchColon("\\d{1,3}")).isFalse();
+        assertThat(RuleValueDependency.canMatchColon(".")).isTrue();
+        assertThat(RuleValueDependency.canMatchColon("[^a]")).isTrue();
+        assertThat(RuleValueDependency.canMatchColon("[0-z]")).isTrue();
+        assertThat(RuleValueDependency.canMatchColon("\\S")).isTrue();
+        assertThat(RuleValueDependency.canMatchColon("(?i:a)")).isTrue();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Class to implement SlowValueMBean
+ */
+public interface SlowValueMBean {
+
+    /**
+     * Method to get the value, after the delay
+     *
+     * @return value
+     */
+    long getValue();
+}
+
+/**
+ * Class to implement SlowValue
+ */
+class SlowValue implements SlowValueMBean {
+
+    static volatile long delayMillis;
+    static volatile long value = 1;
+
+    @Override
+    public long getValue() {
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return value;
+    }
+
+    public static void registerBeans(MBeanServer mbs, int count) throws JMException {
+        for (int i = 0; i < count; i++) {
+            ObjectName mbeanName = new ObjectName("io.prometheus.jmx.slow:type=slowValue,name=" + i);
+            if (!mbs.isRegistered(mbeanName)) {
+                mbs.registerMBean(new SlowValue(), mbeanName);
+            }
+        }
+    }
+
+    public static void unregisterBeans(MBeanServer mbs) throws JMException {
+        for (ObjectName mbeanName : mbs.queryNames(new ObjectName("io.prometheus.jmx.slow:*"), null)) {
+            mbs.unregisterMBean(mbeanName);
+        }
+    }
+}
@@ -174,6 +174,11 @@ public class HTTPServerFactory {
      */
     private static final String HEALTH_PATH = "/-/healthy";
 
+    /**
+     * Probe endpoint path, for multi-target scraping.
+     */
+    private static final String PROBE_PATH = "/probe";
+
     /**
      * Security header names and values.
      */
@@ -561,6 +566,33 @@ public class HTTPServerFactory {
     public static HTTPServer createAndStartHTTPServer(
             PrometheusRegistry prometheusRegistry, InetAddress inetAddress, int port, File exporterYamlFile)
             throws IOException {
+        return createAndStartHTTPServer(prometheusRegistry, inetAddress, port, exporterYamlFile, null);
+    }
+
+    /**
+     * Creates and starts an HTTP server with the specified configuration and a probe endpoint.
+     *
+     * <p>The probe handler is served at {@value #PROBE_PATH}, with the same authentication,
+     * security headers and request limits as the metrics endpoint.
+     *
+     * @param prometheusRegistry the Prometheus registry for metric collection, must not be
+     *     {@code null}
+     * @param inetAddress the network address to bind to, must not be {@code null}
+     * @param port the port number to listen on, must be a valid port (0-65535)
+     * @param exporterYamlFile the YAML configuration file, must not be {@code null}
+     * @param probeHandler the handler for multi-target probes, or {@code null} for no probe
+     *     endpoint
+     * @return the started HTTP server instance
+     * @throws IOException if the server fails to start or configuration cannot be read
+     * @throws ConfigurationException if the configuration is invalid
+     */
+    public static HTTPServer createAndStartHTTPServer(
+            PrometheusRegistry prometheusRegistry,
+            InetAddress inetAddress,
+            int port,
+            File exporterYamlFile,
+            HttpHandler probeHandler)
+            throws IOException {
         MapAccessor rootMapAccessor = MapAccessor.of(YamlSupport.loadYaml(exporterYamlFile));
         AuthenticationConfiguration authenticationConfiguration = getAuthenticationConfiguration(rootMapAccessor);
         boolean sslEnabled = rootMapAccessor.containsPath(HTTP_SERVER_SSL);
@@ -586,7 +618,8 @@ public class HTTPServerFactory {
                 authenticationConfiguration,
                 sslEnabled,
                 rejectedCounter,
-                maximumRequestSeconds);
+                maximumRequestSeconds,
+                probeHandler);
         return httpServer;
     }
 
@@ -629,7 +662,8 @@ public class HTTPServerFactory {
                 authenticationConfiguration,
                 sslEnabled,
                 rejectedCounter,
-                maximumRequestSeconds);
+                maximumRequestSeconds,
+                null);
         return httpServer;
     }
 
@@ -972,6 +1006,8 @@ public class HTTPServerFactory {
      * @param sslEnabled whether SSL is enabled, used to determine if HSTS headers should be added
      * @param rejectedCounter the counter for rejected requests
      * @param maximumRequestSeconds the maximum request duration in seconds, or {@code null}
+     * @param probeHandler the handler for multi-target probes, or {@code null} for no probe
+     *     endpoint
      */
     private static void configureSecurityHeaders(
             HTTPServer httpServer,
@@ -979,7 +1015,8 @@ public class HTTPServerFactory {
             AuthenticationConfiguration authenticationConfiguration,
             boolean sslEnabled,
             Counter rejectedCounter,
-            Integer maximumRequestSeconds) {
+            Integer maximumRequestSeconds,
+            HttpHandler probeHandler) {
         com.sun.net.httpserver.HttpServer delegate = getDelegateHttpServer(httpServer);
         Authenticator securityHeadersAuthenticator =
                 wrapAuthenticator(authenticationConfiguration.getAuthenticator(), sslEnabled);
@@ -1011,6 +1048,13 @@ public class HTTPServerFactory {
                 wrapHandler(
                         new HealthyHandler(), sslEnabled, subjectAttributeName, rejectedCounter, maximumRequestSeconds),
                 securityHeadersAuthenticator);
+        if (probeHandler != null) {
+            replaceContext(
+                    delegate,
+                    PROBE_PATH,
+                    wrapHandler(probeHandler, sslEnabled, subjectAttributeName, rejectedCounter, maximumRequestSeconds),
+                    securityHeadersAuthenticator);
+        }
     }
 
     /**
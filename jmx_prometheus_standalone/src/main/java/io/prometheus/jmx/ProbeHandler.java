@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.exporter.httpserver.MetricsHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HTTP handler for the {@code /probe} endpoint of the multi-target mode.
+ *
+ * <p>Scrapes the JVM given by the {@code target} query parameter, either {@code host:port} or a
+ * JMX url, with the configuration of the module given by the {@code module} query parameter, or
+ * the {@value #DEFAULT_MODULE} module if absent. The metrics are written in the format negotiated
+ * with the client, the same way as for the {@code /metrics} endpoint.
+ *
+ * <p>Thread-safety: This class is thread-safe.
+ */
+class ProbeHandler implements HttpHandler {
+
+    /**
+     * Module used when a probe doesn't name one.
+     */
+    static final String DEFAULT_MODULE = "default";
+
+    /**
+     * The targets, with their collectors and caches.
+     */
+    private final ProbeTargets probeTargets;
+
+    /**
+     * Constructor
+     *
+     * @param probeTargets the targets to probe, must not be {@code null}
+     */
+    ProbeHandler(ProbeTargets probeTargets) {
+        this.probeTargets = probeTargets;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String target = parameters.get("target");
+            String module = parameters.getOrDefault("module", DEFAULT_MODULE);
+
+            if (target == null || target.trim().isEmpty()) {
+                sendError(exchange, 400, "Missing parameter target");
+                return;
+            }
+            if (!ProbeTargets.isValidTarget(target)) {
+                sendError(exchange, 400, "Invalid target " + target + ", expected host:port");
+                return;
+            }
+            if (!probeTargets.hasModule(module)) {
+                sendError(exchange, 400, "Unknown module " + module);
+                return;
+            }
+
+            probeTargets.probe(
+                    module,
+                    target,
+                    prometheusRegistry ->
+                            new MetricsHandler(PrometheusProperties.get(), prometheusRegistry).handle(exchange));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 503, "Interrupted while waiting for other probes");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Parses a raw query string, the first value of a parameter wins.
+     *
+     * @param rawQuery the raw query string, may be {@code null}
+     * @return the decoded parameters
+     * @throws IOException if a parameter can't be decoded
+     */
+    static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals >= 0 ? parameter.substring(0, equals) : parameter;
+            String value = equals >= 0 ? parameter.substring(equals + 1) : "";
+            parameters.putIfAbsent(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return parameters;
+    }
+
+    /**
+     * Sends a plain text error response.
+     *
+     * @param exchange the HTTP exchange, must not be {@code null}
+     * @param status the HTTP status code
+     * @param message the error message, must not be {@code null}
+     * @throws IOException if the response can't be written
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+}
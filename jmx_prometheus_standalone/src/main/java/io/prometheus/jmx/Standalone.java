@@ -16,6 +16,7 @@
 
 package io.prometheus.jmx;
 
+import io.prometheus.jmx.common.ConfigurationException;
 import io.prometheus.jmx.common.HTTPServerFactory;
 import io.prometheus.jmx.common.OpenTelemetryExporterFactory;
 import io.prometheus.jmx.common.util.AutoClosableShutdownHook;
@@ -40,6 +41,9 @@ import java.net.InetAddress;
  * <p>Configuration is provided via a YAML file specified as a command-line argument. The exporter
  * supports HTTP server for Prometheus scraping and OpenTelemetry exporter configuration.
  *
+ * <p>When the configuration has {@code modules}, the exporter runs in multi-target mode: instead
+ * of one remote JVM, it scrapes the JVM named by each request to the {@code /probe} endpoint.
+ *
  * <p>This class is not instantiable and all methods are static.
  *
  * <p>Thread-safety: This class is thread-safe. The main thread blocks indefinitely after successful
@@ -118,7 +122,8 @@ public class Standalone {
      *
      * <p>Initializes the JMX collector, optionally starts the HTTP server and/or OpenTelemetry
      * exporter, and blocks the main thread indefinitely. The JMX collector operates in STANDALONE
-     * mode, connecting to a remote JVM via JMX as configured in the configuration file.
+     * mode, connecting to a remote JVM via JMX as configured in the configuration file. In
+     * multi-target mode, the collectors are created per probed target instead.
      *
      * <p>This method does not return; it blocks the calling thread indefinitely via
      * {@link Thread#join()}.
@@ -129,17 +134,31 @@ public class Standalone {
     static void start(Arguments arguments) throws Exception {
         File file = new File(arguments.getFilename());
 
-        new BuildInfoMetrics().register(DEFAULT_REGISTRY);
-        new JmxCollector(file, JmxCollector.Mode.STANDALONE).register(DEFAULT_REGISTRY);
-
         MapAccessor mapAccessor = MapAccessor.of(YamlSupport.loadYaml(file));
         boolean httpEnabled = arguments.isHttpEnabled();
         boolean openTelemetryEnabled = mapAccessor.containsPath("/openTelemetry");
+        boolean multiTargetEnabled = mapAccessor.containsPath("/modules");
+
+        LOGGER.info("Multi-target enabled [%b]", multiTargetEnabled);
+
+        if (multiTargetEnabled && !httpEnabled) {
+            throw new ConfigurationException("/modules requires the HTTP server, targets are only scraped by probes");
+        }
+
+        new BuildInfoMetrics().register(DEFAULT_REGISTRY);
+
+        ProbeHandler probeHandler = null;
+        if (multiTargetEnabled) {
+            ProbeTargets probeTargets = new ProbeTargets(file).register(DEFAULT_REGISTRY);
+            probeHandler = new ProbeHandler(probeTargets);
+        } else {
+            new JmxCollector(file, JmxCollector.Mode.STANDALONE).register(DEFAULT_REGISTRY);
+        }
 
         LOGGER.info("HTTP enabled [%b]", httpEnabled);
 
         if (httpEnabled) {
-            startHttpServer(arguments, file);
+            startHttpServer(arguments, file, probeHandler);
         }
 
         LOGGER.info("OpenTelemetry enabled [%b]", openTelemetryEnabled);
@@ -161,14 +180,16 @@ public class Standalone {
      *
      * @param arguments the parsed arguments containing host and port, must not be {@code null}
      * @param file the configuration file, must not be {@code null}
+     * @param probeHandler the handler for the {@code /probe} endpoint, or {@code null} if not in
+     *     multi-target mode
      * @throws Exception if the HTTP server fails to start
      */
-    private static void startHttpServer(Arguments arguments, File file) throws Exception {
+    private static void startHttpServer(Arguments arguments, File file, ProbeHandler probeHandler) throws Exception {
         LOGGER.info("HTTP host:port [%s:%d]", arguments.getHost(), arguments.getPort());
         LOGGER.info("Starting HTTPServer ...");
 
         HTTPServer httpServer = HTTPServerFactory.createAndStartHTTPServer(
-                DEFAULT_REGISTRY, InetAddress.getByName(arguments.getHost()), arguments.getPort(), file);
+                DEFAULT_REGISTRY, InetAddress.getByName(arguments.getHost()), arguments.getPort(), file, probeHandler);
 
         LOGGER.info("HTTPServer started");
 
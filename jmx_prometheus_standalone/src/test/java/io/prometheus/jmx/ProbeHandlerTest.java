@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) The Prometheus jmx_exporter Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.prometheus.jmx;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for parsing the query parameters of the {@code /probe} endpoint.
+ */
+public class ProbeHandlerTest {
+
+    @Test
+    public void testParseQuery() throws Exception {
+        Map<String, String> parameters =
+                ProbeHandler.parseQuery("target=kafka-1%3A9999&module=kafka&target=kafka-2:9999&debug");
+
+        assertThat(parameters)
+                .containsEntry("target", "kafka-1:9999")
+                .containsEntry("module", "kafka")
+                .containsEntry("debug", "")
+                .hasSize(3);
+    }
+
+    @Test
+    public void testParseEmptyQuery() throws Exception {
+        assertThat(ProbeHandler.parseQuery(null)).isEmpty();
+        assertThat(ProbeHandler.parseQuery("")).isEmpty();
+    }
+}